@@ -0,0 +1,85 @@
+package com.poyntapi;
+
+import co.poynt.api.model.CatalogItemWithProduct;
+import co.poynt.api.model.CatalogWithProduct;
+import co.poynt.api.model.CategoryWithProduct;
+import co.poynt.api.model.OrderItem;
+import co.poynt.api.model.OrderItemStatus;
+import co.poynt.api.model.Product;
+import co.poynt.api.model.UnitOfMeasure;
+import com.poyntapi.stub.Payloads;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building an order line for a SKU: walking the decoded catalog graph's
+ * categories, as callers of getMerchantCatalog do, against the CompactCatalog
+ * index; plus the one-off cost of building the compact view.
+ * {@code productsPerCategory} x 20 categories is the catalog size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CatalogBenchmark {
+
+    @Param({"50", "500"})
+    public int productsPerCategory;
+
+    private CatalogWithProduct graph;
+    private CompactCatalog compact;
+    private String[] skus;
+
+    @Setup
+    public void setUp() throws Exception {
+        // decoded from JSON, so strings are not shared the way Payloads builds them
+        graph = PoyntJson.CATALOG_WITH_PRODUCT_READER.readValue(
+                Payloads.json(Payloads.catalogWithProduct(20, productsPerCategory)));
+        compact = CompactCatalog.of(graph);
+        skus = new String[1024];
+        for (int i = 0; i < skus.length; i++){
+            skus[i] = compact.getSku(ThreadLocalRandom.current().nextInt(compact.size()));
+        }
+    }
+
+    private String nextSku(){
+        return skus[ThreadLocalRandom.current().nextInt(skus.length)];
+    }
+
+    @Benchmark
+    public OrderItem graphOrderItem() {
+        String sku = nextSku();
+        for (CategoryWithProduct category : graph.getCategories()){
+            for (CatalogItemWithProduct item : category.getProducts()){
+                Product product = item.getProduct();
+                if (sku.equals(product.getSku())){
+                    OrderItem line = new OrderItem();
+                    line.setName(product.getName());
+                    line.setSku(product.getSku());
+                    line.setProductId(product.getId());
+                    line.setQuantity(1.0f);
+                    line.setUnitOfMeasure(UnitOfMeasure.EACH);
+                    line.setUnitPrice(product.getPrice().getAmount());
+                    line.setStatus(OrderItemStatus.FULFILLED);
+                    line.setTax(0l);
+                    return line;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public OrderItem compactOrderItem() {
+        return compact.orderItem(nextSku(), 1.0f);
+    }
+
+    @Benchmark
+    public CompactCatalog build() {
+        return CompactCatalog.of(graph);
+    }
+}
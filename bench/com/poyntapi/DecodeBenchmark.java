@@ -0,0 +1,50 @@
+package com.poyntapi;
+
+import com.poyntapi.stub.Payloads;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response decoding with the shared readers, straight from a byte stream as
+ * the client does: an OrdersResponse page, a catalog and a store device list.
+ * {@code size} scales the number of orders, catalog products per category and devices.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"10", "100"})
+    public int size;
+
+    private byte[] ordersResponse;
+    private byte[] catalog;
+    private byte[] storeDevices;
+
+    @Setup
+    public void setUp() throws Exception {
+        ordersResponse = Payloads.json(Payloads.ordersResponse(size, 5));
+        catalog = Payloads.json(Payloads.catalog(20, size));
+        storeDevices = Payloads.json(Payloads.storeDevices(size));
+    }
+
+    @Benchmark
+    public Object ordersResponse() throws Exception {
+        return PoyntJson.ORDERS_RESPONSE_READER.readValue(new ByteArrayInputStream(ordersResponse));
+    }
+
+    @Benchmark
+    public Object catalog() throws Exception {
+        return PoyntJson.CATALOG_READER.readValue(new ByteArrayInputStream(catalog));
+    }
+
+    @Benchmark
+    public Object storeDevices() throws Exception {
+        return PoyntJson.STORE_DEVICES_READER.readValue(new ByteArrayInputStream(storeDevices));
+    }
+}
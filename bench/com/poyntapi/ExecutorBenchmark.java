@@ -0,0 +1,108 @@
+package com.poyntapi;
+
+import com.poyntapi.bench.PoyntFixture;
+import com.poyntapi.stub.Payloads;
+import com.poyntapi.stub.StubServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fans out {@code calls} blocking getOrdersForCustomer calls, against a stub
+ * answering after 20 ms, on BlockingExecutor's platform pool and on virtual
+ * threads, with {@code concurrency} threads, or virtual calls at once. Time per
+ * fan-out is bounded below by calls / concurrency x 20 ms; the gap to it is
+ * what scheduling and switching threads cost.
+ *
+ * fanOutTls does the same with a plain GET through the OkHttpClient over TLS,
+ * against a second stub with the same latency. Both clients are configured
+ * with executor.mode set to the benchmark's mode, so the virtual runs use
+ * HTTP/1.1 as they would in use. The stub speaks HTTP/1.1 only, so HTTP/2 is
+ * not measured here; to see what it costs virtual threads, run a client with
+ * setHttp2(true) against an h2 server under -Djdk.tracePinnedThreads=full.
+ *
+ * The virtual runs need Java 21 or later; on older JVMs their setup fails
+ * and JMH reports them as errors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorBenchmark {
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public BlockingExecutor.Mode mode;
+
+    @Param({"64", "512"})
+    public int concurrency;
+
+    @Param({"2000"})
+    public int calls;
+
+    private PoyntFixture fixture;
+    private PoyntAPI api;
+    private StubServer tlsServer;
+    private OkHttpClient tlsClient;
+    private Request tlsRequest;
+    private BlockingExecutor executor;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties prop = new Properties();
+        prop.setProperty("stub.latencyMillis", "20");
+        prop.setProperty("stub.threads", "64");
+        prop.setProperty("executor.mode", mode.name().toLowerCase());
+        // keep the sockets of a fan-out for the next one
+        prop.setProperty("http.maxIdleConnections", String.valueOf(concurrency));
+        fixture = new PoyntFixture(prop);
+        api = fixture.getApi();
+
+        tlsServer = new StubServer(0, 64, 20, 0, 0, 503, true);
+        HttpClientConfig config = HttpClientConfig.fromProperties(prop);
+        config.setTrust(tlsServer.getClientSslContext(), tlsServer.getTrustManager());
+        tlsClient = config.build();
+        tlsRequest = new Request.Builder()
+                .url(tlsServer.getUrl() + "/businesses/" + Payloads.BUSINESS_ID + "/stores/" + Payloads.STORE_ID)
+                .header("api-version", "1.2")
+                .build();
+        executor = new BlockingExecutor(mode, concurrency, concurrency);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.close();
+        fixture.close();
+        tlsClient.dispatcher().executorService().shutdown();
+        tlsClient.connectionPool().evictAll();
+        tlsServer.close();
+    }
+
+    @Benchmark
+    public Object fanOut() throws Exception {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[calls];
+        for (int i = 0; i < calls; i++){
+            results[i] = executor.submit(() -> api.getOrdersForCustomer("411111", "1111", "12", "2020"));
+        }
+        return CompletableFuture.allOf(results).get();
+    }
+
+    @Benchmark
+    public Object fanOutTls() throws Exception {
+        CompletableFuture<?>[] results = new CompletableFuture<?>[calls];
+        for (int i = 0; i < calls; i++){
+            results[i] = executor.submit(() -> {
+                try (Response response = tlsClient.newCall(tlsRequest).execute()) {
+                    return response.body().bytes().length;
+                }
+            });
+        }
+        return CompletableFuture.allOf(results).get();
+    }
+}
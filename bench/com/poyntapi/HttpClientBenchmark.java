@@ -0,0 +1,77 @@
+package com.poyntapi;
+
+import com.poyntapi.stub.Payloads;
+import com.poyntapi.stub.StubServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The old "new OkHttpClient per call" pattern against the shared, pooled client
+ * built from {@link HttpClientConfig}, with a small GET to StubServer. The
+ * throwaway client's connection is evicted after each call, so sockets do not
+ * pile up; that eviction is part of the measured cost, as it would be in use.
+ *
+ * Plain HTTP, so the per-call numbers leave out the TLS handshake a real
+ * services.poynt.net call would also pay on every new connection; see
+ * TransportBenchmark for that.
+ *
+ * Sampled, so JMH reports the p50, p90, p99 and p99.9 of the call latency
+ * alongside the mean.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpClientBenchmark {
+
+    private StubServer server;
+    private OkHttpClient shared;
+    private String url;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new StubServer(0, 16, 0, 0, 0, 503);
+        shared = new HttpClientConfig().build();
+        url = server.getUrl() + "/businesses/" + Payloads.BUSINESS_ID + "/stores/" + Payloads.STORE_ID;
+    }
+
+    @TearDown
+    public void tearDown() {
+        shared.dispatcher().executorService().shutdown();
+        shared.connectionPool().evictAll();
+        server.close();
+    }
+
+    @Benchmark
+    public String newClientPerCall() throws Exception {
+        OkHttpClient client = new OkHttpClient();
+        try {
+            return get(client);
+        } finally {
+            client.connectionPool().evictAll();
+        }
+    }
+
+    @Benchmark
+    public String sharedClient() throws Exception {
+        return get(shared);
+    }
+
+    private String get(OkHttpClient client) throws Exception {
+        Request request = new Request.Builder()
+                .url(url)
+                .addHeader("api-version", "1.2")
+                .addHeader("Poynt-Request-Id", UUID.randomUUID().toString())
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Catalog;
+import co.poynt.api.model.Order;
+import co.poynt.api.model.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.poyntapi.stub.Payloads;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding an Order, Catalog or Transaction payload the old way (new
+ * ObjectMapper, whole body read into a String) against a shared ObjectReader
+ * reading straight from the body's byte stream. Run with {@code -prof gc};
+ * gc.alloc.rate.norm is the bytes allocated per decode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonAllocationBenchmark {
+
+    @Param({"order", "catalog", "transaction"})
+    public String payload;
+
+    private byte[] body;
+    private Class<?> type;
+    private ObjectReader reader;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (payload){
+            case "order":
+                body = Payloads.json(Payloads.order(25));
+                type = Order.class;
+                reader = PoyntJson.ORDER_READER;
+                break;
+            case "catalog":
+                body = Payloads.json(Payloads.catalog(20, 50));
+                type = Catalog.class;
+                reader = PoyntJson.CATALOG_READER;
+                break;
+            case "transaction":
+                body = Payloads.json(Payloads.transaction());
+                type = Transaction.class;
+                reader = PoyntJson.TRANSACTION_READER;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown payload " + payload);
+        }
+    }
+
+    /**
+     * What PoyntAPI did before: fresh mapper, response.body().string(), readValue(String).
+     */
+    @Benchmark
+    public Object newMapperFromString() throws Exception {
+        String string = readFully(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        return new ObjectMapper().readValue(string, type);
+    }
+
+    @Benchmark
+    public Object sharedReaderFromStream() throws Exception {
+        return reader.readValue(new ByteArrayInputStream(body));
+    }
+
+    private static String readFully(Reader reader) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[8192];
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            sb.append(buf, 0, n);
+        }
+        return sb.toString();
+    }
+}
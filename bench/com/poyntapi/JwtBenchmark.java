@@ -0,0 +1,42 @@
+package com.poyntapi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT claims construction + RS256 signature, i.e. the CPU cost of every /token exchange.
+ *
+ * Lives in com.poyntapi (under bench/) to reach package-private client internals.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtBenchmark {
+
+    private TokenManager tokenManager;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        RSAPrivateKey key = (RSAPrivateKey) generator.generateKeyPair().getPrivate();
+        tokenManager = new TokenManager(new HttpClientConfig().build(), "https://services.poynt.net",
+                "urn:aid:benchmark", key);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tokenManager.close();
+    }
+
+    @Benchmark
+    public String signJwt() throws Exception {
+        return tokenManager.getJWT();
+    }
+}
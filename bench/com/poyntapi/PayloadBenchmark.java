@@ -0,0 +1,62 @@
+package com.poyntapi;
+
+import co.poynt.api.model.TransactionAction;
+import com.poyntapi.bench.PoyntFixture;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request payload construction + serialization for createTransaction and createOrder:
+ * building the model objects and serializing them, against the pre-compiled
+ * PayloadTemplates the client uses by default.
+ * Run with -prof gc to see bytes allocated per payload.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+    private PoyntFixture fixture;
+    private PoyntAPI api;
+    private String orderId;
+
+    private TransactionAction action;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = new PoyntFixture();
+        api = fixture.getApi();
+        orderId = UUID.randomUUID().toString();
+        action = api.getTransactionAction();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public byte[] transaction() throws Exception {
+        return PoyntJson.TRANSACTION_WRITER.writeValueAsBytes(api.buildTransaction(orderId, action));
+    }
+
+    @Benchmark
+    public byte[] transactionTemplate() throws Exception {
+        return api.transactionPayload(orderId, action);
+    }
+
+    @Benchmark
+    public byte[] order() throws Exception {
+        return PoyntJson.ORDER_WRITER.writeValueAsBytes(api.buildOrder(42L, orderId));
+    }
+
+    @Benchmark
+    public byte[] orderTemplate() throws Exception {
+        return api.orderPayload(42L, orderId);
+    }
+}
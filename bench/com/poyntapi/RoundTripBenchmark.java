@@ -0,0 +1,66 @@
+package com.poyntapi;
+
+import com.poyntapi.bench.PoyntFixture;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full client round trips (token lookup, request build, HTTP over loopback,
+ * status check, decode) against the in-process StubServer. The catalog
+ * cache is disabled so catalog reads really hit the server.
+ *
+ * The JDK's built-in HttpServer behind StubServer adds its own fixed cost
+ * (noticeably more for POSTs), so compare runs with each other rather than
+ * with production latencies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    private PoyntFixture fixture;
+    private PoyntAPI api;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties prop = new Properties();
+        prop.setProperty("catalogCache.ttlMillis", "0");
+        fixture = new PoyntFixture(prop);
+        api = fixture.getApi();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public Object getStoreDevices() throws Exception {
+        return api.getStoreDevices();
+    }
+
+    @Benchmark
+    public Object getOrdersForCustomer() throws Exception {
+        return api.getOrdersForCustomer("411111", "1111", "12", "2020");
+    }
+
+    @Benchmark
+    public Object getMerchantCatalog() throws Exception {
+        return api.getMerchantCatalog();
+    }
+
+    @Benchmark
+    public Object createTransaction() throws Exception {
+        return api.createTransaction(null);
+    }
+
+    @Benchmark
+    public Object createOrder() throws Exception {
+        return api.createOrder(42L, null);
+    }
+}
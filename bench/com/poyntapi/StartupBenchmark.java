@@ -0,0 +1,79 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Catalog;
+import com.poyntapi.stub.StubServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start to first transaction: construct a PoyntAPI (key load, token,
+ * store settings depending on startup.mode), load the catalog as an app would
+ * during its own startup, then create the first transaction. The stub answers
+ * after {@code latencyMillis} so round trips cost what they would over a WAN.
+ *
+ * The store fetch needs a token, and the transaction needs the store settings,
+ * so the critical path is always token -> store -> transaction; the parallel
+ * and lazy modes win by returning from the constructor at once and letting the
+ * app's own startup requests overlap with the store fetch.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({"eager", "parallel", "lazy"})
+    public String mode;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    private StubServer server;
+    private File keyFile;
+    private Properties prop;
+    private PoyntAPI api;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubServer(0, 16, latencyMillis, 0, 0, 503);
+        keyFile = StubServer.writePrivateKey();
+        prop = server.clientProperties(keyFile);
+        prop.setProperty("startup.mode", mode);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeApi() {
+        if (api != null){
+            api.close();
+            api = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+        keyFile.delete();
+    }
+
+    @Benchmark
+    public Object timeToFirstTransaction() throws Exception {
+        api = new PoyntAPI(prop);
+        // app startup work that does not depend on the store settings
+        CompletableFuture<Catalog> catalog = api.getAsyncAPI().getMerchantCatalog();
+        Object transaction = api.createTransaction(null);
+        catalog.join();
+        return transaction;
+    }
+
+    @Benchmark
+    public Object constructor() throws Exception {
+        api = new PoyntAPI(prop);
+        return api;
+    }
+}
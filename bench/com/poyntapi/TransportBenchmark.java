@@ -0,0 +1,116 @@
+package com.poyntapi;
+
+import com.poyntapi.metrics.MetricsRegistry;
+import com.poyntapi.stub.Payloads;
+import com.poyntapi.stub.StubServer;
+import com.poyntapi.transport.HttpTransport;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.util.Enumeration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw GETs through each HttpTransport against StubServer, over plain HTTP and
+ * over TLS with the stub's self-signed certificate:
+ *
+ *   reusedConnection             small payload on a pooled keep-alive connection
+ *   newConnection                "Connection: close", so every call connects again;
+ *                                over TLS the handshake resumes the cached session
+ *   newConnectionFullHandshake   same, with the client's session cache emptied first
+ *                                (same as newConnection without TLS)
+ *   largePayload                 the full catalog, read to the end
+ *
+ * Both transports run with their HttpClientConfig defaults. The stub speaks
+ * HTTP/1.1 only, so OkHttp's HTTP/2 is not part of the comparison. Over TLS the
+ * two do not negotiate the same version: OkHttp 3.6's default ConnectionSpec
+ * stops at TLS 1.2, whose resumption skips the key exchange, while Apache gets
+ * the JDK's TLS 1.3, whose resumption still runs a fresh ECDHE. Compare
+ * newConnection with newConnectionFullHandshake per transport, not across them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+    @Param({"okhttp", "apache"})
+    public String transport;
+
+    @Param({"false", "true"})
+    public boolean tls;
+
+    private StubServer server;
+    private HttpTransport client;
+    private Request small;
+    private Request smallClose;
+    private Request large;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new StubServer(0, 16, 0, 0, 0, 503, tls);
+        HttpClientConfig config = new HttpClientConfig();
+        config.setTransport(transport);
+        if (tls){
+            config.setTrust(server.getClientSslContext(), server.getTrustManager());
+        }
+        client = config.buildTransport(MetricsRegistry.NOOP);
+
+        String business = server.getUrl() + "/businesses/" + Payloads.BUSINESS_ID;
+        small = new Request.Builder().url(business + "/stores/" + Payloads.STORE_ID)
+                .header("api-version", "1.2").build();
+        smallClose = small.newBuilder().header("Connection", "close").build();
+        large = new Request.Builder().url(business + "/catalogs/" + UUID.randomUUID() + "/full")
+                .header("api-version", "1.2").build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    private long get(Request request) throws Exception {
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() != 200){
+                throw new IllegalStateException(request.url() + " answered " + response.code());
+            }
+            return response.body().bytes().length;
+        }
+    }
+
+    @Benchmark
+    public long reusedConnection() throws Exception {
+        return get(small);
+    }
+
+    @Benchmark
+    public long newConnection() throws Exception {
+        return get(smallClose);
+    }
+
+    @Benchmark
+    public long newConnectionFullHandshake() throws Exception {
+        SSLSessionContext sessions = tls ? server.getClientSslContext().getClientSessionContext() : null;
+        if (sessions != null){
+            for (Enumeration<byte[]> ids = sessions.getIds(); ids.hasMoreElements(); ){
+                SSLSession session = sessions.getSession(ids.nextElement());
+                if (session != null){
+                    session.invalidate();
+                }
+            }
+        }
+        return get(smallClose);
+    }
+
+    @Benchmark
+    public long largePayload() throws Exception {
+        return get(large);
+    }
+}
@@ -0,0 +1,61 @@
+package com.poyntapi.bench;
+
+import com.poyntapi.PoyntAPI;
+import com.poyntapi.stub.StubServer;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * A PoyntAPI wired to a {@link StubServer} that answers every endpoint the client
+ * uses with realistic payloads, plus a throwaway RSA key so the real JWT/token
+ * path runs. Used by the benchmarks; nothing leaves the machine.
+ */
+public class PoyntFixture implements AutoCloseable {
+
+    private final StubServer server;
+    private final File keyFile;
+    private final PoyntAPI api;
+
+    public PoyntFixture() throws Exception {
+        this(new Properties());
+    }
+
+    /**
+     * @param overrides extra config.properties entries (http.*, resilience.*, stub.*, ...)
+     */
+    public PoyntFixture(Properties overrides) throws Exception {
+        server = StubServer.fromProperties(overrides);
+        keyFile = StubServer.writePrivateKey();
+
+        Properties prop = server.clientProperties(keyFile);
+        prop.putAll(overrides);
+        try {
+            api = new PoyntAPI(prop);
+        } catch (Exception e) {
+            close(null);
+            throw e;
+        }
+    }
+
+    public PoyntAPI getApi() {
+        return api;
+    }
+
+    public StubServer getServer() {
+        return server;
+    }
+
+    @Override
+    public void close() {
+        close(api);
+    }
+
+    private void close(PoyntAPI client) {
+        if (client != null){
+            client.close();
+        }
+        server.close();
+        keyFile.delete();
+    }
+}
@@ -0,0 +1,174 @@
+package com.poyntapi;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking PoyntAPI calls (createTransaction, getOrdersForCustomer, ...)
+ * concurrently, on a fixed pool of platform threads or, on Java 21 and later,
+ * on one virtual thread per call:
+ *
+ *   BlockingExecutor executor = BlockingExecutor.fromProperties(prop);
+ *   CompletableFuture<Transaction> t = executor.submit(() -> api.createTransaction(orderId));
+ *
+ *   executor.mode=platform         platform | virtual
+ *   executor.threads=64            platform: pool size
+ *   executor.maxConcurrency=1024   virtual: calls running at once; the rest wait, parked
+ *
+ * Virtual threads are looked up reflectively, so this class, like the rest of
+ * the client, compiles for Java 8; asking for them on an older JVM fails with
+ * UnsupportedOperationException. Blocking OkHttp calls do not go through the
+ * dispatcher's per-host limit, hence maxConcurrency: thousands of virtual
+ * threads are cheap, thousands of sockets to one host are not. Enabling
+ * limiter.* (see ConcurrencyLimits) bounds them adaptively instead.
+ *
+ * Over HTTP/1.1 nothing on the request path holds a monitor while blocking:
+ * the token fetch runs outside TokenManager's lock, the limiter and outbox
+ * journal wait on ReentrantLocks, and OkHttp reads and writes the socket
+ * without one, so a virtual thread blocked in a call releases its carrier.
+ * OkHttp's HTTP/2 does not: a call waits for its response in Http2Stream's
+ * synchronized wait() and writes frames under Http2Writer's monitor, which
+ * pins the carrier on Java 21 to 23. Since http.http2=true is the default and
+ * negotiates h2 with services.poynt.net on Java 9 and later, executor.mode=virtual
+ * in the same properties makes HttpClientConfig.fromProperties use HTTP/1.1;
+ * a client configured by hand should call setHttp2(false). Run with
+ * -Djdk.tracePinnedThreads=full (Java 21 to 23) or record the
+ * jdk.VirtualThreadPinned JFR event to check custom code in callbacks.
+ */
+public final class BlockingExecutor implements AutoCloseable {
+
+    public enum Mode { PLATFORM, VIRTUAL }
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    // virtual mode only
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    public BlockingExecutor(Mode mode, int threads, int maxConcurrency){
+        this.mode = mode;
+        this.executor = newExecutorService(mode, threads);
+        this.maxConcurrency = mode == Mode.VIRTUAL ? maxConcurrency : threads;
+        this.permits = mode == Mode.VIRTUAL ? new Semaphore(maxConcurrency) : null;
+    }
+
+    public static BlockingExecutor fromProperties(Properties prop){
+        return new BlockingExecutor(
+                Mode.valueOf(prop.getProperty("executor.mode", "platform").trim().toUpperCase()),
+                Integer.parseInt(prop.getProperty("executor.threads", "64").trim()),
+                Integer.parseInt(prop.getProperty("executor.maxConcurrency", "1024").trim()));
+    }
+
+    /**
+     * Plain executor for the mode: a fixed pool of daemon "poynt-worker-N"
+     * threads, or a new "poynt-virtual-N" virtual thread per task.
+     */
+    public static ExecutorService newExecutorService(Mode mode, int threads){
+        if (mode == Mode.VIRTUAL){
+            return newVirtualThreadPerTaskExecutor();
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "poynt-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public static boolean isVirtualThreadSupported(){
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Thread.ofVirtual().name("poynt-virtual-", 1).factory() passed to
+     * Executors.newThreadPerTaskExecutor, without compiling against Java 21.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor(){
+        if (!isVirtualThreadSupported()){
+            throw new UnsupportedOperationException("executor.mode=virtual needs Java 21 or later, running "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "poynt-virtual-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) perTask.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads unavailable", e);
+        }
+    }
+
+    /**
+     * Runs the call; the future completes with its result or exception.
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> call){
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (permits != null){
+                        permits.acquire();
+                    }
+                    try {
+                        result.complete(call.call());
+                    } finally {
+                        if (permits != null){
+                            permits.release();
+                        }
+                    }
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public ExecutorService getExecutorService() {
+        return executor;
+    }
+
+    /**
+     * Lets submitted calls finish, waiting up to 30 seconds.
+     */
+    @Override
+    public void close(){
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String toString(){
+        return "[mode: " + mode + ", maxConcurrency: " + maxConcurrency + "]";
+    }
+}
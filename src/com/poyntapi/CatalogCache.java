@@ -0,0 +1,149 @@
+package com.poyntapi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded, TTL-based cache for decoded catalogs, keyed by business id and
+ * catalog id. Entries remember the ETag / Last-Modified the server sent, so an
+ * expired entry can be revalidated with a conditional GET instead of downloading
+ * and deserializing the whole catalog again.
+ *
+ * Cached catalogs are shared between callers and must not be modified.
+ *
+ *   catalogCache.ttlMillis=300000     (0 disables the cache)
+ *   catalogCache.maxEntries=64
+ */
+public class CatalogCache {
+
+    // key under which the /catalogs list of a business is stored
+    public static final String ALL_CATALOGS = "*";
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Map<String,Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CatalogCache(long ttlMillis, final int maxEntries){
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        // access-ordered, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,CatalogCache.Entry> eldest) {
+                if (size() > CatalogCache.this.maxEntries){
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static CatalogCache fromProperties(Properties prop){
+        String ttl = prop.getProperty("catalogCache.ttlMillis");
+        String max = prop.getProperty("catalogCache.maxEntries");
+        return new CatalogCache(ttl == null ? 300000 : Long.parseLong(ttl.trim()),
+                max == null ? 64 : Integer.parseInt(max.trim()));
+    }
+
+    public boolean isEnabled(){
+        return ttlMillis > 0 && maxEntries > 0;
+    }
+
+    /**
+     * Returns the entry for the key, fresh or expired, or null. Expired entries are
+     * kept so their validators can be sent with the next request.
+     */
+    synchronized Entry get(String businessId, String catalogId){
+        return entries.get(key(businessId, catalogId));
+    }
+
+    synchronized void put(String businessId, String catalogId, Object value, String etag, String lastModified){
+        entries.put(key(businessId, catalogId),
+                new Entry(value, etag, lastModified, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void invalidate(String businessId, String catalogId){
+        entries.remove(key(businessId, catalogId));
+    }
+
+    public synchronized void clear(){
+        entries.clear();
+    }
+
+    void recordHit(){
+        hits.incrementAndGet();
+    }
+
+    void recordMiss(){
+        misses.incrementAndGet();
+    }
+
+    /**
+     * The server answered 304 Not Modified: keep the value for another TTL.
+     */
+    void revalidated(Entry entry){
+        revalidations.incrementAndGet();
+        entry.expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+    }
+
+    private static String key(String businessId, String catalogId){
+        return businessId + "/" + catalogId;
+    }
+
+    //region counters
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+    //endregion
+
+    public String toString(){
+        return "[hits: " + hits + ", misses: " + misses + ", revalidations: " + revalidations
+                + ", evictions: " + evictions + ", size: " + size() + "]";
+    }
+
+    static final class Entry {
+        final Object value;
+        final String etag;
+        final String lastModified;
+        volatile long expiresAtMillis;
+
+        Entry(Object value, String etag, String lastModified, long expiresAtMillis) {
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        boolean isFresh(){
+            return System.currentTimeMillis() < expiresAtMillis;
+        }
+    }
+}
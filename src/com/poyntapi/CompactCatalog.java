@@ -0,0 +1,393 @@
+package com.poyntapi;
+
+import co.poynt.api.model.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Read-only, compact copy of a catalog: products as parallel arrays (id bits,
+ * name, SKU, price, currency), categories as ranges of one int array of product
+ * positions, and hash indexes by SKU, product id and category id. Strings are
+ * interned per catalog, so e.g. the currency is a single instance for all
+ * products. Built once from the decoded catalog, after which the model graph
+ * can be dropped; getCompactCatalog caches only this view.
+ *
+ * Products and categories are addressed by position; lookups return NOT_FOUND
+ * for unknown keys. Immutable, so it can be shared between threads.
+ *
+ * A plain Catalog only lists product ids; names, SKUs and prices come with the
+ * /full variant, CatalogWithProduct.
+ */
+public final class CompactCatalog {
+
+    public static final int NOT_FOUND = -1;
+    // getPrice of a product without one
+    public static final long NO_PRICE = Long.MIN_VALUE;
+
+    // rough per-String cost on a 64-bit JVM with compressed oops: String + array headers and fields
+    private static final int STRING_OVERHEAD = 40;
+
+    private final UUID id;
+    private final String name;
+
+    private final long[] productIdHigh;
+    private final long[] productIdLow;
+    private final String[] names;
+    private final String[] skus;
+    private final long[] prices;
+    private final String[] currencies;
+
+    private final long[] categoryIdHigh;
+    private final long[] categoryIdLow;
+    private final String[] categoryNames;
+    private final int[] categoryParents;
+    // products of category c are categoryProducts[categoryStart[c] .. categoryStart[c + 1])
+    private final int[] categoryStart;
+    private final int[] categoryProducts;
+
+    private final SlotTable byProductId;
+    private final SlotTable byCategoryId;
+    // open addressing over String.hashCode, product position or NOT_FOUND
+    private final int[] bySku;
+    private final long stringBytes;
+
+    private CompactCatalog(Builder b){
+        id = b.catalogId;
+        name = b.catalogName;
+
+        int size = b.productIds.size();
+        productIdHigh = new long[size];
+        productIdLow = new long[size];
+        names = b.names.toArray(new String[size]);
+        skus = b.skus.toArray(new String[size]);
+        prices = new long[size];
+        currencies = b.currencies.toArray(new String[size]);
+        byProductId = new SlotTable(size);
+        for (int i = 0; i < size; i++){
+            UUID productId = b.productIds.get(i);
+            productIdHigh[i] = productId.getMostSignificantBits();
+            productIdLow[i] = productId.getLeastSignificantBits();
+            prices[i] = b.prices.get(i);
+            byProductId.put(SlotTable.key(productIdHigh[i], productIdLow[i]), i);
+        }
+
+        int buckets = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        bySku = new int[buckets];
+        Arrays.fill(bySku, NOT_FOUND);
+        for (int i = 0; i < size; i++){
+            if (skus[i] != null && indexOfSku(skus[i]) == NOT_FOUND){
+                int bucket = skus[i].hashCode() & (buckets - 1);
+                while (bySku[bucket] != NOT_FOUND){
+                    bucket = (bucket + 1) & (buckets - 1);
+                }
+                bySku[bucket] = i;
+            }
+        }
+
+        int categories = b.categoryIds.size();
+        categoryIdHigh = new long[categories];
+        categoryIdLow = new long[categories];
+        categoryNames = b.categoryNames.toArray(new String[categories]);
+        categoryParents = new int[categories];
+        categoryStart = new int[categories + 1];
+        byCategoryId = new SlotTable(categories);
+        int members = 0;
+        for (List<Integer> products : b.categoryProducts){
+            members += products.size();
+        }
+        categoryProducts = new int[members];
+        int next = 0;
+        for (int c = 0; c < categories; c++){
+            UUID categoryId = b.categoryIds.get(c);
+            categoryIdHigh[c] = categoryId.getMostSignificantBits();
+            categoryIdLow[c] = categoryId.getLeastSignificantBits();
+            byCategoryId.put(SlotTable.key(categoryIdHigh[c], categoryIdLow[c]), c);
+            categoryStart[c] = next;
+            for (int product : b.categoryProducts.get(c)){
+                categoryProducts[next++] = product;
+            }
+        }
+        categoryStart[categories] = next;
+        for (int c = 0; c < categories; c++){
+            UUID parent = b.categoryParents.get(c);
+            categoryParents[c] = parent == null ? NOT_FOUND : indexOfCategory(parent);
+        }
+        stringBytes = b.stringBytes;
+    }
+
+    /**
+     * From the /full catalog, with names, SKUs and prices.
+     */
+    public static CompactCatalog of(CatalogWithProduct catalog){
+        Builder b = new Builder(catalog.getId(), catalog.getName());
+        if (catalog.getProducts() != null){
+            for (CatalogItemWithProduct item : catalog.getProducts()){
+                b.product(item.getProduct());
+            }
+        }
+        if (catalog.getCategories() != null){
+            for (CategoryWithProduct category : catalog.getCategories()){
+                List<Integer> products = new ArrayList<>();
+                if (category.getProducts() != null){
+                    for (CatalogItemWithProduct item : category.getProducts()){
+                        b.add(products, b.product(item.getProduct()));
+                    }
+                }
+                b.category(category.getId(), category.getName(), category.getParentCategoryId(), products);
+            }
+        }
+        return new CompactCatalog(b);
+    }
+
+    /**
+     * From a plain catalog: product ids and categories only.
+     */
+    public static CompactCatalog of(Catalog catalog){
+        Builder b = new Builder(catalog.getId(), catalog.getName());
+        if (catalog.getProducts() != null){
+            for (CatalogItem item : catalog.getProducts()){
+                b.product(item.getId(), null);
+            }
+        }
+        if (catalog.getCategories() != null){
+            for (Category category : catalog.getCategories()){
+                List<Integer> products = new ArrayList<>();
+                if (category.getProducts() != null){
+                    for (CatalogItem item : category.getProducts()){
+                        b.add(products, b.product(item.getId(), null));
+                    }
+                }
+                b.category(category.getId(), category.getName(), category.getParentCategoryId(), products);
+            }
+        }
+        return new CompactCatalog(b);
+    }
+
+    //region products
+    public int size(){
+        return names.length;
+    }
+
+    public int indexOfSku(String sku){
+        int mask = bySku.length - 1;
+        for (int bucket = sku.hashCode() & mask; bySku[bucket] != NOT_FOUND; bucket = (bucket + 1) & mask){
+            if (sku.equals(skus[bySku[bucket]])){
+                return bySku[bucket];
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    public int indexOfProduct(UUID productId){
+        long high = productId.getMostSignificantBits();
+        long low = productId.getLeastSignificantBits();
+        int i = byProductId.get(SlotTable.key(high, low));
+        return i != NOT_FOUND && productIdHigh[i] == high && productIdLow[i] == low ? i : NOT_FOUND;
+    }
+
+    public UUID getProductId(int i){
+        return new UUID(productIdHigh[i], productIdLow[i]);
+    }
+
+    public String getName(int i){
+        return names[i];
+    }
+
+    public String getSku(int i){
+        return skus[i];
+    }
+
+    /**
+     * In the currency's minor unit, or NO_PRICE.
+     */
+    public long getPrice(int i){
+        return prices[i];
+    }
+
+    public String getCurrency(int i){
+        return currencies[i];
+    }
+
+    /**
+     * An order line for the product with the given SKU, priced from the
+     * catalog; same unit and status as the demo order's line.
+     */
+    public OrderItem orderItem(String sku, float quantity){
+        int i = indexOfSku(sku);
+        if (i == NOT_FOUND){
+            throw new IllegalArgumentException("Unknown SKU: " + sku);
+        }
+        return orderItem(i, quantity);
+    }
+
+    public OrderItem orderItem(int i, float quantity){
+        OrderItem item = new OrderItem();
+        item.setName(names[i]);
+        item.setSku(skus[i]);
+        item.setProductId(getProductId(i));
+        item.setQuantity(quantity);
+        item.setUnitOfMeasure(UnitOfMeasure.EACH);
+        if (prices[i] != NO_PRICE){
+            item.setUnitPrice(prices[i]);
+        }
+        item.setStatus(OrderItemStatus.FULFILLED);
+        item.setTax(0l);
+        return item;
+    }
+    //endregion
+
+    //region categories
+    public int categoryCount(){
+        return categoryNames.length;
+    }
+
+    public int indexOfCategory(UUID categoryId){
+        long high = categoryId.getMostSignificantBits();
+        long low = categoryId.getLeastSignificantBits();
+        int c = byCategoryId.get(SlotTable.key(high, low));
+        return c != NOT_FOUND && categoryIdHigh[c] == high && categoryIdLow[c] == low ? c : NOT_FOUND;
+    }
+
+    public UUID getCategoryId(int c){
+        return new UUID(categoryIdHigh[c], categoryIdLow[c]);
+    }
+
+    public String getCategoryName(int c){
+        return categoryNames[c];
+    }
+
+    /**
+     * Position of the parent category, or NOT_FOUND for top-level categories.
+     */
+    public int getCategoryParent(int c){
+        return categoryParents[c];
+    }
+
+    /**
+     * Positions of the category's products, in catalog order.
+     */
+    public int[] getCategoryProducts(int c){
+        return Arrays.copyOfRange(categoryProducts, categoryStart[c], categoryStart[c + 1]);
+    }
+    //endregion
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Approximate heap held by this view: its arrays plus the distinct strings.
+     */
+    public long getMemoryBytes(){
+        int size = size();
+        int categories = categoryCount();
+        return (long) size * (8 + 8 + 8 + 3 * 4) + bySku.length * 4L + byProductId.getMemoryBytes()
+                + (long) categories * (8 + 8 + 4 + 4 + 4) + categoryProducts.length * 4L
+                + byCategoryId.getMemoryBytes() + stringBytes;
+    }
+
+    public String toString(){
+        return "[id: " + id + ", products: " + size() + ", categories: " + categoryCount()
+                + ", memory: " + getMemoryBytes() / 1024 + " KB]";
+    }
+
+    /**
+     * Collects products (deduplicated by id: the catalog lists each product at
+     * the top level and again in its categories) and categories.
+     */
+    private static final class Builder {
+        final UUID catalogId;
+        final String catalogName;
+        final Map<UUID,Integer> positions = new HashMap<>();
+        final Map<String,String> strings = new HashMap<>();
+        long stringBytes;
+
+        final List<UUID> productIds = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<String> skus = new ArrayList<>();
+        final List<Long> prices = new ArrayList<>();
+        final List<String> currencies = new ArrayList<>();
+
+        final List<UUID> categoryIds = new ArrayList<>();
+        final List<String> categoryNames = new ArrayList<>();
+        final List<UUID> categoryParents = new ArrayList<>();
+        final List<List<Integer>> categoryProducts = new ArrayList<>();
+
+        Builder(UUID catalogId, String catalogName){
+            this.catalogId = catalogId;
+            this.catalogName = catalogName;
+        }
+
+        int product(Product product){
+            return product == null ? NOT_FOUND : product(product.getId(), product);
+        }
+
+        /**
+         * Position of the product, added on first sight; details the first
+         * listing lacked are filled in from later ones.
+         */
+        int product(UUID productId, Product product){
+            if (productId == null){
+                return NOT_FOUND;
+            }
+            Integer position = positions.get(productId);
+            if (position == null){
+                position = productIds.size();
+                positions.put(productId, position);
+                productIds.add(productId);
+                names.add(null);
+                skus.add(null);
+                prices.add(NO_PRICE);
+                currencies.add(null);
+            }
+            if (product != null && names.get(position) == null && skus.get(position) == null){
+                names.set(position, intern(product.getName()));
+                skus.set(position, intern(product.getSku()));
+                CurrencyAmount price = product.getPrice();
+                if (price != null){
+                    prices.set(position, price.getAmount() == null ? NO_PRICE : price.getAmount());
+                    currencies.set(position, intern(price.getCurrency()));
+                }
+            }
+            return position;
+        }
+
+        void category(UUID categoryId, String categoryName, UUID parentId, List<Integer> products){
+            if (categoryId == null){
+                return;
+            }
+            categoryIds.add(categoryId);
+            categoryNames.add(intern(categoryName));
+            categoryParents.add(parentId);
+            categoryProducts.add(products);
+        }
+
+        void add(List<Integer> products, int position){
+            if (position != NOT_FOUND){
+                products.add(position);
+            }
+        }
+
+        String intern(String s){
+            if (s == null){
+                return null;
+            }
+            String interned = strings.get(s);
+            if (interned == null){
+                strings.put(s, s);
+                stringBytes += STRING_OVERHEAD + 2L * s.length();
+                interned = s;
+            }
+            return interned;
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Card;
+import co.poynt.api.model.Customer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bulk customer import from a CSV or NDJSON file, streamed record by record so
+ * memory does not grow with the file, and sent through {@link PoyntAsyncAPI}
+ * with at most {@code parallelism} requests in flight.
+ *
+ * CSV: the header names the columns. firstName, lastName, cardNumber,
+ * expirationMonth and expirationYear fill the customer and its card; any other
+ * non-empty column becomes a customer attribute. NDJSON: one Customer JSON
+ * object per line. Blank lines are skipped in both.
+ *
+ * Progress is checkpointed to a properties file: the import id and the number
+ * of records up to which everything has been answered. Re-running with the same
+ * checkpoint skips those records. Records after it may already have been
+ * created; they are sent again with the same Poynt-Request-Id (derived from
+ * the import id and record number), so the server answers with the existing
+ * customer rather than creating a second one.
+ *
+ * Records that cannot be parsed or that the API refuses for good (a 4xx other
+ * than 401, 403, 408 and 429) are appended to {@code <checkpoint>.failed}, one
+ * "record<TAB>requestId<TAB>error" line each, and count as done. Any other
+ * error (a 5xx or network failure the resilience policy gave up on, an open
+ * circuit breaker, an auth or throttling answer) stops the import: nothing
+ * more is sent, the checkpoint stays below the record, and importFile throws
+ * once the requests in flight are answered, so running it again resumes there.
+ * Throughput goes to {@code progress} every {@code reportEveryMillis}.
+ *
+ *   java com.poyntapi.CustomerImporter customers.csv [checkpoint] [parallelism]
+ */
+public class CustomerImporter {
+
+    public enum Format {
+        CSV, NDJSON;
+
+        /**
+         * NDJSON for .ndjson, .jsonl and .json files, CSV otherwise.
+         */
+        public static Format of(File file){
+            String name = file.getName().toLowerCase();
+            return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json") ? NDJSON : CSV;
+        }
+    }
+
+    // records between checkpoint writes, besides the one written per report
+    private static final int CHECKPOINT_EVERY = 1000;
+
+    private final PoyntAsyncAPI api;
+    private final int parallelism;
+    private final File checkpointFile;
+    private final PrintStream progress;
+    private final long reportEveryMillis;
+    private final Semaphore permits;
+
+    // record numbers sent and not yet answered; at most parallelism of them
+    private final TreeSet<Long> outstanding = new TreeSet<>();
+    private final ReentrantLock failedLock = new ReentrantLock();
+    private Writer failedWriter;
+    private long lastSubmitted;
+    // first error that stopped the import, and its record
+    private volatile Throwable stopCause;
+    private volatile long stoppedAt;
+
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public CustomerImporter(PoyntAsyncAPI api, int parallelism, File checkpointFile, PrintStream progress,
+                            long reportEveryMillis){
+        this.api = api;
+        this.parallelism = parallelism;
+        this.checkpointFile = checkpointFile;
+        this.progress = progress;
+        this.reportEveryMillis = reportEveryMillis;
+        this.permits = new Semaphore(parallelism);
+    }
+
+    /**
+     * Imports the file, resuming from the checkpoint if there is one for it,
+     * and returns once every record has been answered.
+     *
+     * @throws IOException if an error that may go away stopped the import;
+     *         run it again with the same checkpoint to resume
+     */
+    public void importFile(File source) throws Exception{
+        importFile(source, Format.of(source));
+    }
+
+    public void importFile(File source, Format format) throws Exception{
+        Properties checkpoint = readCheckpoint(source);
+        String importId = checkpoint.getProperty("importId");
+        long resumeAfter = Long.parseLong(checkpoint.getProperty("completed", "0"));
+
+        long started = System.nanoTime();
+        long lastReport = started;
+        long reportedDone = 0;
+        failedWriter = new OutputStreamWriter(new FileOutputStream(failedFile(), true), StandardCharsets.UTF_8);
+        try (RecordSource records = format == Format.CSV ? new CsvSource(source) : new NdjsonSource(source)) {
+            long number = 0;
+            while (true){
+                Customer customer;
+                try {
+                    customer = records.next();
+                } catch (IllegalArgumentException e) {
+                    number++;
+                    if (number > resumeAfter){
+                        track(number);
+                        failed(number, null, e);
+                        done(number);
+                    }
+                    continue;
+                }
+                if (customer == null){
+                    break;
+                }
+                number++;
+                if (number <= resumeAfter){
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                permits.acquire();
+                if (stopCause != null){
+                    permits.release();
+                    break;
+                }
+                track(number);
+                send(number, UUID.nameUUIDFromBytes((importId + ":" + number).getBytes(StandardCharsets.UTF_8))
+                        .toString(), customer);
+
+                long now = System.nanoTime();
+                if (now - lastReport >= reportEveryMillis * 1_000_000L){
+                    writeCheckpoint(source, importId);
+                    long done = succeeded.get() + failed.get();
+                    report(done - reportedDone, now - lastReport, now - started);
+                    reportedDone = done;
+                    lastReport = now;
+                } else if (number % CHECKPOINT_EVERY == 0){
+                    writeCheckpoint(source, importId);
+                }
+            }
+            permits.acquire(parallelism);
+            permits.release(parallelism);
+        } finally {
+            writeCheckpoint(source, importId);
+            failedWriter.close();
+        }
+        long now = System.nanoTime();
+        report(succeeded.get() + failed.get() - reportedDone, now - lastReport, now - started);
+        if (stopCause != null){
+            throw new IOException("Import stopped at record " + stoppedAt + "; run it again to resume from "
+                    + checkpointFile, stopCause);
+        }
+    }
+
+    private void send(final long number, final String requestId, Customer customer){
+        CompletableFuture<Customer> future;
+        try {
+            future = api.createCustomer(customer, requestId);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        submitted.incrementAndGet();
+        future.whenComplete((created, error) -> {
+            try {
+                if (error == null){
+                    succeeded.incrementAndGet();
+                    done(number);
+                    return;
+                }
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                if (isFinal(cause)){
+                    failed(number, requestId, cause);
+                    done(number);
+                } else {
+                    // stays outstanding, so the checkpoint does not move past it
+                    stop(number, cause);
+                }
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * True if sending the record again cannot succeed: the record does not
+     * serialize, or the API refused it with a 4xx that is not about
+     * credentials or throttling.
+     */
+    private static boolean isFinal(Throwable error){
+        if (error instanceof PoyntApiException){
+            int status = ((PoyntApiException) error).getStatusCode();
+            return status >= 400 && status < 500 && status != 401 && status != 403 && status != 408
+                    && status != 429;
+        }
+        return error instanceof JsonProcessingException || !(error instanceof IOException);
+    }
+
+    private synchronized void stop(long number, Throwable cause){
+        if (stopCause == null || number < stoppedAt){
+            stoppedAt = number;
+            stopCause = cause;
+        }
+    }
+
+    private void track(long number){
+        synchronized (outstanding){
+            outstanding.add(number);
+            lastSubmitted = number;
+        }
+    }
+
+    private void done(long number){
+        synchronized (outstanding){
+            outstanding.remove(number);
+        }
+    }
+
+    /**
+     * Every record up to this number has been answered.
+     */
+    private long completedThrough(){
+        synchronized (outstanding){
+            return outstanding.isEmpty() ? lastSubmitted : outstanding.first() - 1;
+        }
+    }
+
+    private void failed(long number, String requestId, Throwable error){
+        failed.incrementAndGet();
+        String line = number + "\t" + (requestId == null ? "-" : requestId) + "\t"
+                + String.valueOf(error).replace('\n', ' ').replace('\t', ' ') + "\n";
+        failedLock.lock();
+        try {
+            failedWriter.write(line);
+            failedWriter.flush();
+        } catch (IOException e) {
+            // the count still shows it; losing the detail must not stop the import
+        } finally {
+            failedLock.unlock();
+        }
+    }
+
+    private File failedFile(){
+        return new File(checkpointFile.getPath() + ".failed");
+    }
+
+    //region checkpoint
+    private Properties readCheckpoint(File source) throws IOException{
+        Properties checkpoint = new Properties();
+        if (checkpointFile.exists()){
+            try (FileInputStream in = new FileInputStream(checkpointFile)) {
+                checkpoint.load(in);
+            }
+            String recorded = checkpoint.getProperty("source");
+            if (recorded != null && !recorded.equals(source.getAbsolutePath())){
+                throw new IllegalArgumentException("Checkpoint " + checkpointFile + " belongs to " + recorded
+                        + ", not " + source.getAbsolutePath());
+            }
+        }
+        if (checkpoint.getProperty("importId") == null){
+            checkpoint.setProperty("importId", UUID.randomUUID().toString());
+        }
+        synchronized (outstanding){
+            lastSubmitted = Long.parseLong(checkpoint.getProperty("completed", "0"));
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Replaces the checkpoint atomically, so a crash leaves the old or the new one.
+     */
+    private void writeCheckpoint(File source, String importId) throws IOException{
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("source", source.getAbsolutePath());
+        checkpoint.setProperty("importId", importId);
+        checkpoint.setProperty("completed", String.valueOf(completedThrough()));
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            checkpoint.store(out, "CustomerImporter");
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+    //endregion
+
+    private void report(long done, long intervalNanos, long totalNanos){
+        if (progress == null){
+            return;
+        }
+        long total = succeeded.get() + failed.get();
+        progress.println(String.format("imported %d (failed %d, skipped %d), %.0f/s, %.0f/s overall, in flight %d",
+                total, failed.get(), skipped.get(), done * 1e9 / Math.max(intervalNanos, 1),
+                total * 1e9 / Math.max(totalNanos, 1), getInFlight()));
+    }
+
+    //region counters
+    /** Records skipped because the checkpoint says they were done. */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    /** Records that could not be parsed or were refused for good; see the .failed file. */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public int getInFlight() {
+        return parallelism - permits.availablePermits();
+    }
+    //endregion
+
+    //region sources
+    private interface RecordSource extends Closeable {
+        /**
+         * The next customer, or null at the end.
+         *
+         * @throws IllegalArgumentException for a record that does not parse; the
+         *         record is consumed, so the next call moves on
+         */
+        Customer next() throws IOException;
+    }
+
+    private static final class NdjsonSource implements RecordSource {
+        private final BufferedReader in;
+
+        NdjsonSource(File file) throws IOException{
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public Customer next() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null && line.trim().isEmpty()){
+                // blank line
+            }
+            if (line == null){
+                return null;
+            }
+            try {
+                return PoyntJson.CUSTOMER_READER.readValue(line);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException(e.getOriginalMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class CsvSource implements RecordSource {
+        private final BufferedReader in;
+        private final List<String> header;
+        private final StringBuilder field = new StringBuilder();
+
+        CsvSource(File file) throws IOException{
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            List<String> row = readRow();
+            if (row == null){
+                header = Collections.emptyList();
+                return;
+            }
+            // byte order mark written by spreadsheet exports
+            if (!row.isEmpty() && row.get(0).startsWith("\uFEFF")){
+                row.set(0, row.get(0).substring(1));
+            }
+            header = row;
+        }
+
+        @Override
+        public Customer next() throws IOException {
+            List<String> row = readRow();
+            if (row == null){
+                return null;
+            }
+            if (row.size() > header.size()){
+                throw new IllegalArgumentException(row.size() + " fields, header has " + header.size());
+            }
+            Map<String,String> values = new HashMap<>();
+            for (int i = 0; i < row.size(); i++){
+                if (!row.get(i).isEmpty()){
+                    values.put(header.get(i), row.get(i));
+                }
+            }
+            return toCustomer(values);
+        }
+
+        /**
+         * RFC 4180: comma separated, fields in double quotes may contain commas,
+         * line breaks and doubled quotes. Null at the end of the file; blank
+         * lines are skipped.
+         */
+        private List<String> readRow() throws IOException{
+            List<String> row = new ArrayList<>();
+            field.setLength(0);
+            boolean quoted = false;
+            boolean any = false;
+            while (true){
+                int c = in.read();
+                if (c == -1){
+                    if (!any){
+                        return null;
+                    }
+                    row.add(field.toString());
+                    return row;
+                }
+                if (quoted){
+                    if (c == '"'){
+                        in.mark(1);
+                        if (in.read() == '"'){
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            in.reset();
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                    continue;
+                }
+                if (c == '\n'){
+                    if (!any){
+                        continue;
+                    }
+                    row.add(field.toString());
+                    return row;
+                }
+                if (c == '\r'){
+                    continue;
+                }
+                any = true;
+                if (c == ','){
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '"' && field.length() == 0){
+                    quoted = true;
+                } else {
+                    field.append((char) c);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    static Customer toCustomer(Map<String,String> values){
+        Customer customer = new Customer();
+        Map<String,String> attributes = new HashMap<>(values);
+        customer.setFirstName(attributes.remove("firstName"));
+        customer.setLastName(attributes.remove("lastName"));
+        String cardNumber = attributes.remove("cardNumber");
+        String expMonth = attributes.remove("expirationMonth");
+        String expYear = attributes.remove("expirationYear");
+        if (cardNumber != null){
+            Card card = new Card();
+            card.setCardHolderFirstName(customer.getFirstName());
+            card.setCardHolderLastName(customer.getLastName());
+            card.setNumber(cardNumber);
+            try {
+                card.setExpirationMonth(expMonth == null ? null : Integer.valueOf(expMonth.trim()));
+                card.setExpirationYear(expYear == null ? null : Integer.valueOf(expYear.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad card expiration " + expMonth + "/" + expYear);
+            }
+            customer.setCards(Collections.singletonList(card));
+        }
+        if (!attributes.isEmpty()){
+            customer.setAttributes(attributes);
+        }
+        return customer;
+    }
+    //endregion
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1){
+            System.err.println("usage: CustomerImporter <customers.csv|.ndjson> [checkpoint] [parallelism]");
+            System.exit(2);
+        }
+        File source = new File(args[0]);
+        File checkpoint = new File(args.length > 1 ? args[1] : args[0] + ".checkpoint");
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        PoyntAPI api = new PoyntAPI();
+        try {
+            CustomerImporter importer = new CustomerImporter(api.getAsyncAPI(), parallelism, checkpoint,
+                    System.out, 5000);
+            importer.importFile(source);
+        } finally {
+            api.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.poyntapi;
+
+import okhttp3.HttpUrl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Maps a request URL to the endpoint name used for per-endpoint policies and
+ * metrics: the last path segment that is not an id, e.g.
+ *
+ *   /businesses/{id}/orders               -> /orders
+ *   /businesses/{id}/catalogs/{id}        -> /catalogs
+ *   /businesses/{id}/catalogs/{id}/full   -> /catalogs/full
+ *   /businesses/{id}/stores/{id}          -> /stores
+ *   /token                                -> /token
+ *
+ * A sub-resource segment such as "full" means nothing on its own, so it is
+ * named after the resource it belongs to.
+ */
+public final class Endpoints {
+
+    private static final Pattern ID = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F-]{27}|[0-9]+|urn:.*");
+    private static final Set<String> SUB_RESOURCES = Collections.singleton("full");
+
+    private Endpoints(){}
+
+    /**
+     * "/" for a URL that does not parse.
+     */
+    public static String of(String url){
+        HttpUrl parsed = HttpUrl.parse(url);
+        return parsed == null ? "/" : of(parsed);
+    }
+
+    public static String of(HttpUrl url){
+        List<String> segments = url.pathSegments();
+        int i = lastName(segments, segments.size() - 1);
+        if (i < 0){
+            return "/";
+        }
+        String segment = segments.get(i);
+        if (SUB_RESOURCES.contains(segment)){
+            int parent = lastName(segments, i - 1);
+            if (parent >= 0){
+                return "/" + segments.get(parent) + "/" + segment;
+            }
+        }
+        return "/" + segment;
+    }
+
+    /**
+     * Index of the last segment at or before {@code from} that is not an id, or -1.
+     */
+    private static int lastName(List<String> segments, int from){
+        for (int i = from; i >= 0; i--){
+            String segment = segments.get(i);
+            if (!segment.isEmpty() && !ID.matcher(segment).matches()){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,337 @@
+package com.poyntapi;
+
+import com.poyntapi.logging.RequestLog;
+import com.poyntapi.logging.RequestLogInterceptor;
+import com.poyntapi.metrics.MetricsInterceptor;
+import com.poyntapi.metrics.MetricsRegistry;
+import com.poyntapi.transport.ApacheHttpTransport;
+import com.poyntapi.transport.HttpTransport;
+import com.poyntapi.transport.NoDelaySocketFactory;
+import com.poyntapi.transport.OkHttpTransport;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.X509TrustManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection pool, keep-alive, protocol and timeout settings for the single
+ * HttpTransport a PoyntAPI instance uses for every call, including /token.
+ *
+ * All values can be overridden from config.properties, e.g.
+ *
+ *   http.transport=okhttp          okhttp | apache, see HttpTransport
+ *   http.maxIdleConnections=32
+ *   http.keepAliveMillis=300000
+ *   http.connectTimeoutMillis=5000
+ *   http.readTimeoutMillis=15000
+ *   http.writeTimeoutMillis=15000
+ *   http.maxRequests=128
+ *   http.maxRequestsPerHost=64
+ *   http.http2=true                (okhttp only; always false with executor.mode=virtual)
+ *   log.*                          request/response log, see RequestLog
+ *
+ * With apache, maxRequests and maxRequestsPerHost size the connection pool
+ * and keepAliveMillis caps how long an idle connection is kept; there is no
+ * separate idle count.
+ */
+public class HttpClientConfig {
+
+    private int maxIdleConnections = 16;
+    private long keepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+    private long connectTimeoutMillis = 5000;
+    private long readTimeoutMillis = 15000;
+    private long writeTimeoutMillis = 15000;
+    private int maxRequests = 128;
+    private int maxRequestsPerHost = 64;
+    // HTTP/2 is only used when the server and the TLS stack negotiate it via ALPN,
+    // otherwise OkHttp falls back to HTTP/1.1 with keep-alive
+    private boolean http2 = true;
+    private String transport = "okhttp";
+    // null: the JVM's default trust store
+    private SSLContext sslContext;
+    private X509TrustManager trustManager;
+    // null: calls are not logged
+    private RequestLog requestLog;
+
+    public HttpClientConfig(){}
+
+    public static HttpClientConfig fromProperties(Properties prop){
+        HttpClientConfig config = new HttpClientConfig();
+        config.maxIdleConnections = intProperty(prop, "http.maxIdleConnections", config.maxIdleConnections);
+        config.keepAliveMillis = longProperty(prop, "http.keepAliveMillis", config.keepAliveMillis);
+        config.connectTimeoutMillis = longProperty(prop, "http.connectTimeoutMillis", config.connectTimeoutMillis);
+        config.readTimeoutMillis = longProperty(prop, "http.readTimeoutMillis", config.readTimeoutMillis);
+        config.writeTimeoutMillis = longProperty(prop, "http.writeTimeoutMillis", config.writeTimeoutMillis);
+        config.maxRequests = intProperty(prop, "http.maxRequests", config.maxRequests);
+        config.maxRequestsPerHost = intProperty(prop, "http.maxRequestsPerHost", config.maxRequestsPerHost);
+        config.transport = prop.getProperty("http.transport", config.transport).trim().toLowerCase();
+        String http2 = prop.getProperty("http.http2");
+        if (http2 != null){
+            config.http2 = Boolean.parseBoolean(http2.trim());
+        }
+        // OkHttp's HTTP/2 streams wait inside synchronized blocks, which pins
+        // the carrier of a virtual thread for the whole call; see BlockingExecutor
+        if ("virtual".equalsIgnoreCase(prop.getProperty("executor.mode", "platform").trim())){
+            config.http2 = false;
+        }
+        config.requestLog = RequestLog.fromProperties(prop);
+        return config;
+    }
+
+    public OkHttpClient build(){
+        return build(MetricsRegistry.NOOP);
+    }
+
+    /**
+     * Builds the client with every call reported to the given registry.
+     */
+    public OkHttpClient build(MetricsRegistry metrics){
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        for (Interceptor interceptor : interceptors(metrics)){
+            builder.addInterceptor(interceptor);
+        }
+        if (sslContext != null){
+            builder.sslSocketFactory(sslContext.getSocketFactory(), trustManager);
+        }
+        return builder
+                // same as the Apache transport's tcpNoDelay
+                .socketFactory(new NoDelaySocketFactory())
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Builds the transport named by http.transport, with every call reported
+     * to the given registry.
+     */
+    public HttpTransport buildTransport(MetricsRegistry metrics){
+        switch (transport){
+            case "okhttp":
+                return new OkHttpTransport(build(metrics));
+            case "apache":
+                return buildApache(metrics);
+            default:
+                throw new IllegalArgumentException("Unknown http.transport=" + transport + ", expected okhttp or apache");
+        }
+    }
+
+    private ApacheHttpTransport buildApache(MetricsRegistry metrics){
+        SSLConnectionSocketFactory tls = sslContext != null
+                ? new SSLConnectionSocketFactory(sslContext, SSLConnectionSocketFactory.getDefaultHostnameVerifier())
+                : SSLConnectionSocketFactory.getSocketFactory();
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", tls)
+                        .build());
+        connections.setMaxTotal(maxRequests);
+        connections.setDefaultMaxPerRoute(maxRequestsPerHost);
+        // a pooled connection idle for longer is checked before reuse, instead of failing the request
+        connections.setValidateAfterInactivity(2000);
+        connections.setDefaultSocketConfig(SocketConfig.custom()
+                .setTcpNoDelay(true)
+                .setSoTimeout((int) readTimeoutMillis)
+                .build());
+
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) connectTimeoutMillis)
+                        .setSocketTimeout((int) readTimeoutMillis)
+                        // waiting for a pooled connection when all are in use
+                        .setConnectionRequestTimeout((int) connectTimeoutMillis)
+                        .build())
+                .setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+                    @Override
+                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                        long server = super.getKeepAliveDuration(response, context);
+                        return server > 0 ? Math.min(server, keepAliveMillis) : keepAliveMillis;
+                    }
+                })
+                .setConnectionReuseStrategy(new DefaultConnectionReuseStrategy() {
+                    @Override
+                    public boolean keepAlive(HttpResponse response, HttpContext context) {
+                        // HttpCore 4.4.1 only looks at the response's Connection header
+                        HttpRequest request = (HttpRequest) context.getAttribute(HttpCoreContext.HTTP_REQUEST);
+                        if (request != null && request.containsHeader("Connection")
+                                && "close".equalsIgnoreCase(request.getFirstHeader("Connection").getValue())){
+                            return false;
+                        }
+                        return super.keepAlive(response, context);
+                    }
+                })
+                .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+                .evictExpiredConnections()
+                .disableAutomaticRetries()
+                .disableCookieManagement()
+                .build();
+
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxRequests, maxRequests, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "poynt-apache-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return new ApacheHttpTransport(client, connections, interceptors(metrics), executor);
+    }
+
+    private List<Interceptor> interceptors(MetricsRegistry metrics){
+        List<Interceptor> interceptors = new ArrayList<>();
+        if (metrics != MetricsRegistry.NOOP){
+            interceptors.add(new MetricsInterceptor(metrics));
+        }
+        if (requestLog != null){
+            interceptors.add(new RequestLogInterceptor(requestLog));
+        }
+        return interceptors;
+    }
+
+    private static int intProperty(Properties prop, String key, int defaultValue){
+        String value = prop.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static long longProperty(Properties prop, String key, long defaultValue){
+        String value = prop.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    //region gettersSetters
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    public void setKeepAliveMillis(long keepAliveMillis) {
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public long getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(long readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    public void setWriteTimeoutMillis(long writeTimeoutMillis) {
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests(int maxRequests) {
+        this.maxRequests = maxRequests;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Trusts what the given context and manager trust instead of the JVM
+     * defaults, e.g. a test server with its own certificate.
+     */
+    public void setTrust(SSLContext sslContext, X509TrustManager trustManager) {
+        this.sslContext = sslContext;
+        this.trustManager = trustManager;
+    }
+
+    /**
+     * Null unless log.requests=true or debug=true. Closing it is up to the
+     * owner of the transports built from this config.
+     */
+    public RequestLog getRequestLog() {
+        return requestLog;
+    }
+
+    public void setRequestLog(RequestLog requestLog) {
+        this.requestLog = requestLog;
+    }
+    //endregion
+}
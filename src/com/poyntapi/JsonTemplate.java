@@ -0,0 +1,119 @@
+package com.poyntapi;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JSON object compiled from a prototype: every subtree without a slot is
+ * serialized once and copied as raw UTF-8 on each write; only the slots are
+ * generated per call. Field names and order are taken from the prototype, i.e.
+ * from what the model's own serializer produced, so the output has the same
+ * shape as serializing the full object.
+ *
+ * @param <T> the per-call values the slots read from
+ */
+final class JsonTemplate<T> {
+
+    interface Slot<T> {
+        /**
+         * Writes the field (name and value), or nothing to leave it out.
+         */
+        void write(JsonGenerator gen, SerializableString name, T values) throws IOException;
+    }
+
+    private final Segment<T>[] segments;
+
+    private JsonTemplate(List<Segment<T>> segments){
+        @SuppressWarnings("unchecked")
+        Segment<T>[] array = segments.toArray(new Segment[segments.size()]);
+        this.segments = array;
+    }
+
+    /**
+     * @param prototype an object node, e.g. {@code PoyntJson.MAPPER.valueToTree(...)}
+     * @param slots keyed by dotted path relative to the prototype, e.g. "context.transmissionAtLocal"
+     */
+    static <T> JsonTemplate<T> compile(JsonNode prototype, Map<String,Slot<T>> slots) throws IOException{
+        return new JsonTemplate<>(compile(prototype, "", slots));
+    }
+
+    private static <T> List<Segment<T>> compile(JsonNode node, String path, Map<String,Slot<T>> slots)
+            throws IOException{
+        List<Segment<T>> segments = new ArrayList<>();
+        Iterator<Map.Entry<String,JsonNode>> fields = node.fields();
+        while (fields.hasNext()){
+            Map.Entry<String,JsonNode> field = fields.next();
+            String fieldPath = path.isEmpty() ? field.getKey() : path + "." + field.getKey();
+            SerializedString name = new SerializedString(field.getKey());
+            Slot<T> slot = slots.get(fieldPath);
+            if (slot != null){
+                segments.add(new Segment<>(name, null, null, slot));
+            } else if (hasSlotBelow(fieldPath, slots) && field.getValue().isObject()){
+                segments.add(new Segment<>(name, null, compile(field.getValue(), fieldPath, slots), null));
+            } else {
+                SerializedString raw = new SerializedString(PoyntJson.MAPPER.writeValueAsString(field.getValue()));
+                segments.add(new Segment<>(name, raw, null, null));
+            }
+        }
+        return segments;
+    }
+
+    private static boolean hasSlotBelow(String path, Map<String,?> slots){
+        String prefix = path + ".";
+        for (String key : slots.keySet()){
+            if (key.startsWith(prefix)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the object, braces included, as the next value of the generator.
+     */
+    void write(JsonGenerator gen, T values) throws IOException{
+        gen.writeStartObject();
+        writeFields(gen, segments, values);
+        gen.writeEndObject();
+    }
+
+    private static <T> void writeFields(JsonGenerator gen, Segment<T>[] segments, T values) throws IOException{
+        for (Segment<T> segment : segments){
+            if (segment.raw != null){
+                gen.writeFieldName(segment.name);
+                gen.writeRawValue(segment.raw);
+            } else if (segment.slot != null){
+                segment.slot.write(gen, segment.name, values);
+            } else {
+                gen.writeFieldName(segment.name);
+                gen.writeStartObject();
+                writeFields(gen, segment.children, values);
+                gen.writeEndObject();
+            }
+        }
+    }
+
+    private static final class Segment<T> {
+        final SerializedString name;
+        // exactly one of raw, children, slot is set
+        final SerializedString raw;
+        final Segment<T>[] children;
+        final Slot<T> slot;
+
+        @SuppressWarnings("unchecked")
+        Segment(SerializedString name, SerializedString raw, List<Segment<T>> children, Slot<T> slot) {
+            this.name = name;
+            this.raw = raw;
+            this.children = children == null ? null : children.toArray(new Segment[children.size()]);
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,725 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Order;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Exports every order of the business created in a time range, for nightly
+ * analytics. The range is cut into partitions of equal length that are fetched
+ * {@code parallelism} at a time, each by following the next links of its
+ * /orders?startAt=..&endAt=.. query (see {@link PoyntAPI#iterateOrders}).
+ *
+ * Each partition streams into its own file through a FileChannel and one 64 KiB
+ * buffer, so memory per partition is two pages of orders plus that buffer (and,
+ * for COLUMNAR, one block of rows) however many orders it holds:
+ *
+ *   NDJSON     orders-<start>.ndjson, one Order JSON object per line
+ *   COLUMNAR   orders-<start>.orders, blocks of up to 1024 orders stored column
+ *              by column; read them back with {@link #readColumnar}
+ *
+ * A partition is written to a .part file that is renamed once complete, and
+ * then recorded in export.properties in the output directory. Running the same
+ * export again skips the recorded partitions, so after a failure only the
+ * missing ones are fetched. Partitions that fail do not stop the others; the
+ * export throws at the end if any did.
+ *
+ *   java com.poyntapi.OrderExporter <from> <to> <dir> [ndjson|columnar] [partitionHours] [parallelism]
+ */
+public class OrderExporter {
+
+    public enum Format {
+        NDJSON(".ndjson"), COLUMNAR(".orders");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    static final int PAGE_SIZE = 100;
+    static final int BLOCK_ROWS = 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String MANIFEST = "export.properties";
+    private static final DateTimeFormatter PARTITION_NAME =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final PoyntAPI api;
+    private final File dir;
+    private final Format format;
+    private final int parallelism;
+    private final PrintStream progress;
+
+    private final ReentrantLock manifestLock = new ReentrantLock();
+    private Properties manifest;
+    private int partitionCount;
+
+    private final AtomicInteger partitionsDone = new AtomicInteger();
+    private final AtomicInteger partitionsSkipped = new AtomicInteger();
+    private final AtomicInteger partitionsFailed = new AtomicInteger();
+    private final AtomicLong orders = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public OrderExporter(PoyntAPI api, File dir, Format format, int parallelism, PrintStream progress){
+        this.api = api;
+        this.dir = dir;
+        this.format = format;
+        this.parallelism = parallelism;
+        this.progress = progress;
+    }
+
+    private static final class Partition {
+        final Instant start;
+        final Instant end;
+
+        Partition(Instant start, Instant end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        String name(){
+            return "orders-" + PARTITION_NAME.format(start);
+        }
+    }
+
+    /**
+     * Exports the orders created from {@code from} (inclusive) to {@code to}
+     * (exclusive), resuming an earlier run into the same directory.
+     *
+     * @throws IOException if any partition failed; the others are kept
+     */
+    public void export(Instant from, Instant to, Duration partition) throws Exception{
+        if (!to.isAfter(from) || partition.getSeconds() < 1){
+            throw new IllegalArgumentException("Need from < to and partitions of at least a second, got "
+                    + from + " .. " + to + " by " + partition);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Cannot create export directory " + dir);
+        }
+        readManifest(from, to, partition);
+
+        List<Partition> partitions = new ArrayList<>();
+        for (Instant start = from; start.isBefore(to); start = start.plus(partition)){
+            Instant end = start.plus(partition);
+            partitions.add(new Partition(start, end.isAfter(to) ? to : end));
+        }
+        partitionCount = partitions.size();
+
+        long started = System.nanoTime();
+        List<CompletableFuture<Void>> running = new ArrayList<>();
+        try (BlockingExecutor executor = new BlockingExecutor(BlockingExecutor.Mode.PLATFORM, parallelism,
+                parallelism)) {
+            for (final Partition p : partitions){
+                if (isDone(p)){
+                    partitionsSkipped.incrementAndGet();
+                    continue;
+                }
+                running.add(executor.submit(() -> {
+                    exportPartition(p);
+                    return null;
+                }));
+            }
+            Throwable firstError = null;
+            for (CompletableFuture<Void> future : running){
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (firstError == null){
+                        firstError = e.getCause();
+                    }
+                }
+            }
+            report(System.nanoTime() - started);
+            if (firstError != null){
+                throw new IOException(partitionsFailed.get() + " of " + partitionCount
+                        + " partitions failed; run the export again to fetch them", firstError);
+            }
+        }
+    }
+
+    private void exportPartition(Partition p) throws Exception{
+        long started = System.nanoTime();
+        File target = new File(dir, p.name() + format.extension);
+        File part = new File(dir, target.getName() + ".part");
+        long count = 0;
+        int fetched;
+        long written;
+        try {
+            // endAt is inclusive: stop a millisecond before the next partition starts
+            try (OrderIterator it = api.iterateOrders(p.start, p.end.minusMillis(1), PAGE_SIZE);
+                 ChannelSink sink = new ChannelSink(part.toPath())) {
+                try (RecordWriter writer = format == Format.NDJSON ? new NdjsonWriter(sink) : new ColumnarWriter(sink)) {
+                    while (it.hasNext()){
+                        writer.write(it.next());
+                        count++;
+                    }
+                }
+                fetched = it.getPagesFetched();
+                written = sink.getPosition();
+            }
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            partitionsFailed.incrementAndGet();
+            part.delete();
+            if (progress != null){
+                progress.println("partition " + p.start + " failed: " + e);
+            }
+            throw e;
+        }
+        markDone(p, count);
+        orders.addAndGet(count);
+        pages.addAndGet(fetched);
+        bytes.addAndGet(written);
+        int done = partitionsDone.incrementAndGet() + partitionsSkipped.get();
+        if (progress != null){
+            progress.println(String.format("partition %s: %d orders, %d pages, %d bytes in %.1f s (%d/%d)",
+                    p.start, count, fetched, written, (System.nanoTime() - started) / 1e9, done, partitionCount));
+        }
+    }
+
+    private void report(long totalNanos){
+        if (progress == null){
+            return;
+        }
+        progress.println(String.format("exported %d orders in %d partitions (skipped %d, failed %d), %.0f orders/s",
+                orders.get(), partitionsDone.get(), partitionsSkipped.get(), partitionsFailed.get(),
+                orders.get() * 1e9 / Math.max(totalNanos, 1)));
+    }
+
+    //region checkpoint
+    private void readManifest(Instant from, Instant to, Duration partition) throws IOException{
+        Properties m = new Properties();
+        File file = new File(dir, MANIFEST);
+        if (file.exists()){
+            try (FileInputStream in = new FileInputStream(file)) {
+                m.load(in);
+            }
+            String recorded = m.getProperty("from") + " .. " + m.getProperty("to") + " by "
+                    + m.getProperty("partition") + " as " + m.getProperty("format");
+            String requested = from + " .. " + to + " by " + partition + " as " + format;
+            if (!recorded.equals(requested)){
+                throw new IllegalArgumentException("Export in " + dir + " is " + recorded + ", not " + requested);
+            }
+        }
+        m.setProperty("from", from.toString());
+        m.setProperty("to", to.toString());
+        m.setProperty("partition", partition.toString());
+        m.setProperty("format", format.toString());
+        manifestLock.lock();
+        try {
+            manifest = m;
+        } finally {
+            manifestLock.unlock();
+        }
+    }
+
+    private boolean isDone(Partition p){
+        manifestLock.lock();
+        try {
+            return manifest.getProperty("done." + p.name()) != null
+                    && new File(dir, p.name() + format.extension).exists();
+        } finally {
+            manifestLock.unlock();
+        }
+    }
+
+    /**
+     * Records the partition and replaces the manifest atomically, so a crash
+     * leaves the old or the new one.
+     */
+    private void markDone(Partition p, long count) throws IOException{
+        manifestLock.lock();
+        try {
+            manifest.setProperty("done." + p.name(), String.valueOf(count));
+            File file = new File(dir, MANIFEST);
+            File tmp = new File(dir, MANIFEST + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                manifest.store(out, "OrderExporter");
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            manifestLock.unlock();
+        }
+    }
+    //endregion
+
+    //region counters
+    public int getPartitionsDone() {
+        return partitionsDone.get();
+    }
+
+    /** Partitions found complete from an earlier run. */
+    public int getPartitionsSkipped() {
+        return partitionsSkipped.get();
+    }
+
+    public int getPartitionsFailed() {
+        return partitionsFailed.get();
+    }
+
+    /** Orders written by this run. */
+    public long getOrders() {
+        return orders.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+    //endregion
+
+    //region writers
+    /**
+     * Appends to a file through one direct buffer, writing it to the channel
+     * whenever it fills up; close forces the file to disk.
+     */
+    private static final class ChannelSink implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private long position;
+
+        ChannelSink(Path path) throws IOException{
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        /**
+         * The buffer, with room for at least {@code size} bytes (at most 64 KiB).
+         */
+        ByteBuffer reserve(int size) throws IOException{
+            if (buffer.remaining() < size){
+                drain();
+            }
+            return buffer;
+        }
+
+        void put(byte[] b, int offset, int length) throws IOException{
+            while (length > 0){
+                if (!buffer.hasRemaining()){
+                    drain();
+                }
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(b, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+
+        private void drain() throws IOException{
+            buffer.flip();
+            while (buffer.hasRemaining()){
+                position += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        long getPosition(){
+            return position + buffer.position();
+        }
+
+        /**
+         * Stream view for Jackson; flush and close are left to the sink.
+         */
+        OutputStream outputStream(){
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    reserve(1).put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    put(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private interface RecordWriter extends Closeable {
+        void write(Order order) throws IOException;
+    }
+
+    private static final class NdjsonWriter implements RecordWriter {
+        private final JsonGenerator generator;
+
+        NdjsonWriter(ChannelSink sink) throws IOException{
+            generator = PoyntJson.MAPPER.getFactory().createGenerator(sink.outputStream());
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(Order order) throws IOException {
+            PoyntJson.ORDER_WRITER.writeValue(generator, order);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static final class ColumnarWriter implements RecordWriter {
+        private final ChannelSink sink;
+        private final ColumnBlock block = new ColumnBlock(BLOCK_ROWS);
+
+        ColumnarWriter(ChannelSink sink) throws IOException{
+            this.sink = sink;
+            sink.reserve(COLUMNAR_MAGIC.length + 4).put(COLUMNAR_MAGIC).putInt(COLUMNAR_VERSION);
+        }
+
+        @Override
+        public void write(Order order) throws IOException {
+            block.add(order);
+            if (block.rows == BLOCK_ROWS){
+                block.writeTo(sink);
+                block.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (block.rows > 0){
+                block.writeTo(sink);
+                block.clear();
+            }
+        }
+    }
+    //endregion
+
+    //region columnar
+    private static final byte[] COLUMNAR_MAGIC = "PYORDCOL".getBytes(StandardCharsets.US_ASCII);
+    private static final int COLUMNAR_VERSION = 1;
+    // bytes per row: 8 long columns, 2 dictionary columns, 1 int column
+    private static final int ROW_BYTES = 8 * 8 + 2 * 2 + 4;
+
+    /**
+     * Up to 1024 orders of a COLUMNAR file, one array per column. On disk a
+     * block is
+     *
+     *   int rows | int bytes | short strings | strings (short length, UTF-8) |
+     *   idHigh[] idLow[] createdAt[] updatedAt[] customerUserId[]
+     *   subTotal[] discountTotal[] netTotal[] (longs) |
+     *   status[] currency[] (shorts, index into the strings) | itemCount[] (ints)
+     *
+     * big-endian, after the file header "PYORDCOL" | int version. Missing
+     * values are {@link #NULL} in long columns and null from the string
+     * getters.
+     */
+    public static final class ColumnBlock {
+
+        public static final long NULL = Long.MIN_VALUE;
+
+        int rows;
+        final long[] idHigh;
+        final long[] idLow;
+        final long[] createdAt;
+        final long[] updatedAt;
+        final long[] customerUserId;
+        final long[] subTotal;
+        final long[] discountTotal;
+        final long[] netTotal;
+        final short[] status;
+        final short[] currency;
+        final int[] itemCount;
+        final List<String> strings = new ArrayList<>();
+        private final Map<String,Short> stringIndex = new HashMap<>();
+
+        ColumnBlock(int capacity){
+            idHigh = new long[capacity];
+            idLow = new long[capacity];
+            createdAt = new long[capacity];
+            updatedAt = new long[capacity];
+            customerUserId = new long[capacity];
+            subTotal = new long[capacity];
+            discountTotal = new long[capacity];
+            netTotal = new long[capacity];
+            status = new short[capacity];
+            currency = new short[capacity];
+            itemCount = new int[capacity];
+        }
+
+        void add(Order order){
+            int r = rows++;
+            UUID id = order.getId();
+            idHigh[r] = id == null ? 0 : id.getMostSignificantBits();
+            idLow[r] = id == null ? 0 : id.getLeastSignificantBits();
+            createdAt[r] = order.getCreatedAt() == null ? NULL : order.getCreatedAt().getTimeInMillis();
+            updatedAt[r] = order.getUpdatedAt() == null ? NULL : order.getUpdatedAt().getTimeInMillis();
+            customerUserId[r] = orNull(order.getCustomerUserId());
+            boolean amounts = order.getAmounts() != null;
+            subTotal[r] = amounts ? orNull(order.getAmounts().getSubTotal()) : NULL;
+            discountTotal[r] = amounts ? orNull(order.getAmounts().getDiscountTotal()) : NULL;
+            netTotal[r] = amounts ? orNull(order.getAmounts().getNetTotal()) : NULL;
+            currency[r] = string(amounts ? order.getAmounts().getCurrency() : null);
+            status[r] = string(order.getStatuses() == null || order.getStatuses().getStatus() == null
+                    ? null : order.getStatuses().getStatus().name());
+            itemCount[r] = order.getItems() == null ? 0 : order.getItems().size();
+        }
+
+        private static long orNull(Long value){
+            return value == null ? NULL : value;
+        }
+
+        private short string(String value){
+            if (value == null){
+                return -1;
+            }
+            Short index = stringIndex.get(value);
+            if (index == null){
+                index = (short) strings.size();
+                strings.add(value);
+                stringIndex.put(value, index);
+            }
+            return index;
+        }
+
+        void clear(){
+            rows = 0;
+            strings.clear();
+            stringIndex.clear();
+        }
+
+        void writeTo(ChannelSink sink) throws IOException{
+            List<byte[]> encoded = new ArrayList<>(strings.size());
+            int size = 2;
+            for (String s : strings){
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                encoded.add(b);
+                size += 2 + b.length;
+            }
+            size += rows * ROW_BYTES;
+            sink.reserve(8).putInt(rows).putInt(size);
+            sink.reserve(2).putShort((short) encoded.size());
+            for (byte[] b : encoded){
+                sink.reserve(2).putShort((short) b.length);
+                sink.put(b, 0, b.length);
+            }
+            for (long[] column : Arrays.asList(idHigh, idLow, createdAt, updatedAt, customerUserId, subTotal,
+                    discountTotal, netTotal)){
+                for (int r = 0; r < rows; r++){
+                    sink.reserve(8).putLong(column[r]);
+                }
+            }
+            for (short[] column : Arrays.asList(status, currency)){
+                for (int r = 0; r < rows; r++){
+                    sink.reserve(2).putShort(column[r]);
+                }
+            }
+            for (int r = 0; r < rows; r++){
+                sink.reserve(4).putInt(itemCount[r]);
+            }
+        }
+
+        void readFrom(ByteBuffer in, int rows){
+            this.rows = rows;
+            strings.clear();
+            int count = in.getShort();
+            for (int i = 0; i < count; i++){
+                byte[] b = new byte[in.getShort()];
+                in.get(b);
+                strings.add(new String(b, StandardCharsets.UTF_8));
+            }
+            for (long[] column : Arrays.asList(idHigh, idLow, createdAt, updatedAt, customerUserId, subTotal,
+                    discountTotal, netTotal)){
+                for (int r = 0; r < rows; r++){
+                    column[r] = in.getLong();
+                }
+            }
+            for (short[] column : Arrays.asList(status, currency)){
+                for (int r = 0; r < rows; r++){
+                    column[r] = in.getShort();
+                }
+            }
+            for (int r = 0; r < rows; r++){
+                itemCount[r] = in.getInt();
+            }
+        }
+
+        //region gettersSetters
+        public int getRows() {
+            return rows;
+        }
+
+        public UUID getId(int row){
+            return new UUID(idHigh[row], idLow[row]);
+        }
+
+        public long getCreatedAtMillis(int row){
+            return createdAt[row];
+        }
+
+        public long getUpdatedAtMillis(int row){
+            return updatedAt[row];
+        }
+
+        public long getCustomerUserId(int row){
+            return customerUserId[row];
+        }
+
+        public String getStatus(int row){
+            return status[row] < 0 ? null : strings.get(status[row]);
+        }
+
+        public String getCurrency(int row){
+            return currency[row] < 0 ? null : strings.get(currency[row]);
+        }
+
+        public long getSubTotal(int row){
+            return subTotal[row];
+        }
+
+        public long getDiscountTotal(int row){
+            return discountTotal[row];
+        }
+
+        public long getNetTotal(int row){
+            return netTotal[row];
+        }
+
+        public int getItemCount(int row){
+            return itemCount[row];
+        }
+        //endregion
+    }
+
+    /**
+     * Reads a COLUMNAR file block by block. The block passed to the consumer
+     * is reused for the next one, so copy out what has to be kept.
+     */
+    public static void readColumnar(File file, Consumer<ColumnBlock> consumer) throws IOException{
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(COLUMNAR_MAGIC.length + 4);
+            if (!readFully(channel, header)){
+                throw new EOFException(file + " is empty");
+            }
+            byte[] magic = new byte[COLUMNAR_MAGIC.length];
+            header.get(magic);
+            int version = header.getInt();
+            if (!Arrays.equals(magic, COLUMNAR_MAGIC) || version != COLUMNAR_VERSION){
+                throw new IOException(file + " is not a version " + COLUMNAR_VERSION + " columnar order file");
+            }
+            ColumnBlock block = new ColumnBlock(BLOCK_ROWS);
+            ByteBuffer blockHeader = ByteBuffer.allocate(8);
+            ByteBuffer body = ByteBuffer.allocate(BLOCK_ROWS * ROW_BYTES + 4096);
+            while (true){
+                blockHeader.clear();
+                if (!readFully(channel, blockHeader)){
+                    return;
+                }
+                int rows = blockHeader.getInt();
+                int size = blockHeader.getInt();
+                if (rows < 0 || rows > BLOCK_ROWS || size < 2){
+                    throw new IOException(file + ": bad block of " + rows + " rows, " + size + " bytes");
+                }
+                if (size > body.capacity()){
+                    body = ByteBuffer.allocate(size);
+                }
+                body.clear();
+                body.limit(size);
+                if (!readFully(channel, body)){
+                    throw new EOFException(file + " ends inside a block");
+                }
+                block.readFrom(body, rows);
+                consumer.accept(block);
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer from position 0 up to its limit and flips it; false at a
+     * clean end of file.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException{
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer) < 0){
+                if (buffer.position() == 0){
+                    return false;
+                }
+                throw new EOFException("Truncated columnar order file");
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+    //endregion
+
+    /**
+     * yyyy-MM-dd (midnight UTC) or an ISO instant.
+     */
+    static Instant parseTime(String value){
+        return value.length() == 10 ? LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant()
+                : Instant.parse(value);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3){
+            System.err.println("usage: OrderExporter <from> <to> <dir> [ndjson|columnar] [partitionHours] [parallelism]");
+            System.exit(2);
+        }
+        Instant from = parseTime(args[0]);
+        Instant to = parseTime(args[1]);
+        File dir = new File(args[2]);
+        Format format = args.length > 3 ? Format.valueOf(args[3].toUpperCase()) : Format.NDJSON;
+        Duration partition = Duration.ofHours(args.length > 4 ? Long.parseLong(args[4]) : 1);
+        int parallelism = args.length > 5 ? Integer.parseInt(args[5]) : 8;
+        PoyntAPI api = new PoyntAPI();
+        try {
+            new OrderExporter(api, dir, format, parallelism, System.out).export(from, to, partition);
+        } finally {
+            api.close();
+        }
+    }
+}
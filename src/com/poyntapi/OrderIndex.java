@@ -0,0 +1,545 @@
+package com.poyntapi;
+
+import co.poynt.api.model.*;
+import com.poyntapi.model.OrdersResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the business's recent orders by card, so "which orders
+ * did this card pay for" is answered without a round trip to /orders.
+ *
+ * A card is its first 6 and last 4 digits and expiration month and year packed
+ * into one long (20 + 14 + 4 + 12 bits), i.e. exactly what the orders endpoint
+ * accepts as a query; nothing else about the card is kept. Orders live in a ring
+ * of primitive arrays (id, card, amount, created time, status, link to the same
+ * card's previous order) with two open-addressing long -> slot tables on top.
+ * Everything is allocated up front for orderIndex.maxOrders orders, about 70
+ * bytes each (see getMemoryBytes); once full, the oldest order is dropped.
+ *
+ * The index is kept warm by a background sync every orderIndex.syncIntervalMillis,
+ * which pages through /orders with If-Modified-Since set to the previous sync,
+ * and by the createTransaction / createOrder responses and remote card lookups
+ * of the PoyntAPI that owns it. Lookups are answered locally only while the last
+ * successful sync started less than orderIndex.maxStalenessMillis ago; after
+ * that lookup returns null and the caller asks the server.
+ *
+ * The sync only reaches orderIndex.historyMillis back, and the ring may drop a
+ * card's older orders, so a card is also only answered locally once its whole
+ * history has been indexed with indexHistory (PoyntAPI does that with the
+ * server's answer to the first lookup that missed), and until one of its orders
+ * is dropped. Later orders of the card arrive through the sync and the calls
+ * above; an order the server lists without card data is only filed under the
+ * card by indexHistory, so such orders created elsewhere since then are missed
+ * until the card is looked up on the server again.
+ *
+ *   orderIndex.enabled=false
+ *   orderIndex.maxOrders=50000
+ *   orderIndex.syncIntervalMillis=60000
+ *   orderIndex.maxStalenessMillis=300000
+ *   orderIndex.historyMillis=2592000000   how far back the first sync goes
+ */
+public class OrderIndex implements AutoCloseable {
+
+    // cardKey result for card data that cannot be packed
+    public static final long NO_CARD = -1L;
+
+    private static final int NONE = SlotTable.NONE;
+    private static final OrderStatus[] STATUSES = OrderStatus.values();
+    // changes made just before a sync started may not be visible to it yet
+    private static final long SYNC_OVERLAP_MILLIS = 60000;
+    static final Comparator<OrderSummary> NEWEST_FIRST = new Comparator<OrderSummary>() {
+        @Override
+        public int compare(OrderSummary a, OrderSummary b) {
+            return Long.compare(b.getCreatedAtMillis(), a.getCreatedAtMillis());
+        }
+    };
+
+    private final int maxOrders;
+    private final long syncIntervalMillis;
+    private final long maxStalenessMillis;
+    private final long historyMillis;
+
+    // ring of orders; next is the slot written next, the oldest one once the ring is full
+    private final long[] cards;
+    private final long[] idHigh;
+    private final long[] idLow;
+    private final long[] amounts;
+    private final long[] createdAt;
+    // OrderStatus ordinal + 1, 0 while unknown
+    private final byte[] statuses;
+    // the same card's next older slot, or NONE
+    private final int[] previous;
+    private int next;
+    private int size;
+    // card -> its newest slot
+    private final SlotTable byCard;
+    // cards whose whole history is indexed (slot unused), see indexHistory
+    private final SlotTable complete;
+    // order id -> slot
+    private final SlotTable byId;
+
+    // start of the last successful sync; 0 before the first one
+    private volatile long lastSyncMillis;
+    private volatile Exception lastSyncError;
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong syncFailures = new AtomicLong();
+    private final AtomicLong ordersSynced = new AtomicLong();
+
+    public OrderIndex(int maxOrders, long syncIntervalMillis, long maxStalenessMillis, long historyMillis){
+        if (maxOrders <= 0){
+            throw new IllegalArgumentException("orderIndex.maxOrders must be positive: " + maxOrders);
+        }
+        this.maxOrders = maxOrders;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.historyMillis = historyMillis;
+        cards = new long[maxOrders];
+        idHigh = new long[maxOrders];
+        idLow = new long[maxOrders];
+        amounts = new long[maxOrders];
+        createdAt = new long[maxOrders];
+        statuses = new byte[maxOrders];
+        previous = new int[maxOrders];
+        byCard = new SlotTable(maxOrders);
+        complete = new SlotTable(maxOrders);
+        byId = new SlotTable(maxOrders);
+    }
+
+    /**
+     * Null unless orderIndex.enabled=true.
+     */
+    public static OrderIndex fromProperties(Properties prop){
+        if (!Boolean.parseBoolean(prop.getProperty("orderIndex.enabled", "false").trim())){
+            return null;
+        }
+        return new OrderIndex(Integer.parseInt(prop.getProperty("orderIndex.maxOrders", "50000").trim()),
+                Long.parseLong(prop.getProperty("orderIndex.syncIntervalMillis", "60000").trim()),
+                Long.parseLong(prop.getProperty("orderIndex.maxStalenessMillis", "300000").trim()),
+                Long.parseLong(prop.getProperty("orderIndex.historyMillis", "2592000000").trim()));
+    }
+
+    //region card keys
+    /**
+     * Packs the card as given to getOrdersForCustomer; two-digit years are
+     * taken as 20xx. Returns NO_CARD if any part is missing or malformed.
+     */
+    public static long cardKey(String cardFirst6, String cardLast4, String cardExpirationMonth,
+                               String cardExpirationYear){
+        int month = digits(cardExpirationMonth, 1, 2);
+        int year = digits(cardExpirationYear, 2, 4);
+        if (month < 0 || year < 0){
+            return NO_CARD;
+        }
+        return cardKey(cardFirst6, cardLast4, month, year);
+    }
+
+    static long cardKey(String first6, String last4, int month, int year){
+        int bin = digits(first6, 6, 6);
+        int tail = digits(last4, 4, 4);
+        if (year < 100){
+            year += 2000;
+        }
+        if (bin < 0 || tail < 0 || month < 1 || month > 12 || year > 0xFFF){
+            return NO_CARD;
+        }
+        return (long) bin << 30 | (long) tail << 16 | (long) month << 12 | year;
+    }
+
+    /**
+     * Masked cards as the server returns them, or the full number as sent.
+     */
+    static long cardKey(Card card){
+        if (card == null || card.getExpirationMonth() == null || card.getExpirationYear() == null){
+            return NO_CARD;
+        }
+        String first6 = card.getNumberFirst6();
+        String last4 = card.getNumberLast4();
+        String number = card.getNumber();
+        if ((first6 == null || last4 == null) && number != null && number.length() >= 10){
+            first6 = number.substring(0, 6);
+            last4 = number.substring(number.length() - 4);
+        }
+        return cardKey(first6, last4, card.getExpirationMonth(), card.getExpirationYear());
+    }
+
+    static long cardKey(Transaction transaction){
+        FundingSource fundingSource = transaction.getFundingSource();
+        return fundingSource == null ? NO_CARD : cardKey(fundingSource.getCard());
+    }
+
+    static long cardKey(Order order){
+        if (order.getTransactions() != null){
+            for (Transaction transaction : order.getTransactions()){
+                long card = cardKey(transaction);
+                if (card != NO_CARD){
+                    return card;
+                }
+            }
+        }
+        return NO_CARD;
+    }
+
+    private static int digits(String s, int minLength, int maxLength){
+        if (s == null){
+            return -1;
+        }
+        s = s.trim();
+        if (s.length() < minLength || s.length() > maxLength){
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            if (c < '0' || c > '9'){
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    //endregion
+
+    /**
+     * The card's indexed orders, newest first by creation time, or null when the
+     * server has to be asked instead: while the index is staler than
+     * orderIndex.maxStalenessMillis, or when the card's history is not indexed
+     * in full.
+     */
+    public List<OrderSummary> lookup(long card){
+        if (!isFresh()){
+            stale.incrementAndGet();
+            return null;
+        }
+        List<OrderSummary> orders = new ArrayList<>();
+        synchronized (this){
+            // the chain is in indexing order, which is not creation order
+            int newest = card == NO_CARD || complete.get(card) == NONE ? NONE : byCard.get(card);
+            for (int slot = newest; slot != NONE; slot = previous[slot]){
+                byte status = statuses[slot];
+                orders.add(new OrderSummary(new UUID(idHigh[slot], idLow[slot]),
+                        status == 0 ? null : STATUSES[status - 1], amounts[slot], createdAt[slot]));
+            }
+        }
+        if (orders.isEmpty()){
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        Collections.sort(orders, NEWEST_FIRST);
+        return orders;
+    }
+
+    public boolean isFresh(){
+        long synced = lastSyncMillis;
+        return synced > 0 && System.currentTimeMillis() - synced <= maxStalenessMillis;
+    }
+
+    //region indexing
+    /**
+     * Adds or refreshes the order. The card is taken from the order's
+     * transactions; orders without one only refresh an already indexed entry.
+     */
+    public void index(Order order){
+        index(NO_CARD, Collections.singletonList(order));
+    }
+
+    /**
+     * Orders returned for a card query, or a sync page (card NO_CARD): orders
+     * that do not carry card data themselves are filed under the given card.
+     */
+    public synchronized void index(long card, List<Order> orders){
+        long now = System.currentTimeMillis();
+        for (Order order : orders){
+            if (order == null || order.getId() == null){
+                continue;
+            }
+            long orderCard = cardKey(order);
+            OrderStatus status = order.getStatuses() == null ? null : order.getStatuses().getStatus();
+            put(orderCard != NO_CARD ? orderCard : card, order.getId(), status,
+                    OrderSummary.amountOf(order.getAmounts()),
+                    order.getCreatedAt() != null ? order.getCreatedAt().getTimeInMillis() : now, true);
+        }
+    }
+
+    /**
+     * Every order the server has for the card, i.e. a card query followed
+     * through all of its pages. From now on the card is answered locally,
+     * until one of its orders is dropped from the ring. A card without orders
+     * is not remembered and keeps going to the server.
+     */
+    public synchronized void indexHistory(long card, List<Order> orders){
+        if (card == NO_CARD){
+            return;
+        }
+        // marked first, so that dropping one of its orders while indexing unmarks it
+        complete.put(card, 0);
+        index(card, orders);
+        if (byCard.get(card) == NONE){
+            complete.remove(card);
+        }
+    }
+
+    /**
+     * Files a transaction's order under the transaction's card, ahead of the
+     * order itself. The order is the transaction's POYNT_ORDER reference, else
+     * the given id (the one the transaction was submitted for, may be null).
+     */
+    public synchronized void index(Transaction transaction, String orderId){
+        UUID id = orderReference(transaction);
+        if (id == null && orderId != null){
+            try {
+                id = UUID.fromString(orderId);
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+        }
+        if (id == null){
+            return;
+        }
+        TransactionAmounts transactionAmounts = transaction.getAmounts();
+        Long amount = transactionAmounts == null ? null
+                : transactionAmounts.getOrderAmount() != null ? transactionAmounts.getOrderAmount()
+                : transactionAmounts.getTransactionAmount();
+        put(cardKey(transaction), id, null, amount, System.currentTimeMillis(), false);
+    }
+
+    private static UUID orderReference(Transaction transaction){
+        if (transaction.getReferences() != null){
+            for (TransactionReference reference : transaction.getReferences()){
+                if (reference.getType() == TransactionReferenceType.POYNT_ORDER && reference.getId() != null){
+                    try {
+                        return UUID.fromString(reference.getId());
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An already indexed order keeps its card and slot; the order's own status
+     * and amount replace what its transaction said, not the other way round.
+     */
+    private void put(long card, UUID id, OrderStatus status, Long amount, long created, boolean fromOrder){
+        long high = id.getMostSignificantBits();
+        long low = id.getLeastSignificantBits();
+        int slot = byId.get(idKey(high, low));
+        if (slot != NONE && idHigh[slot] == high && idLow[slot] == low){
+            if (fromOrder){
+                if (status != null) statuses[slot] = (byte) (status.ordinal() + 1);
+                if (amount != null) amounts[slot] = amount;
+                createdAt[slot] = created;
+            }
+            return;
+        }
+        if (card == NO_CARD){
+            return;
+        }
+        if (size == maxOrders){
+            evict(next);
+        } else {
+            size++;
+        }
+        slot = next;
+        next = next + 1 == maxOrders ? 0 : next + 1;
+
+        cards[slot] = card;
+        idHigh[slot] = high;
+        idLow[slot] = low;
+        amounts[slot] = amount == null ? 0 : amount;
+        createdAt[slot] = created;
+        statuses[slot] = status == null ? 0 : (byte) (status.ordinal() + 1);
+        previous[slot] = byCard.get(card);
+        byCard.put(card, slot);
+        byId.put(idKey(high, low), slot);
+    }
+
+    /**
+     * Drops the oldest order. Being the oldest overall it is also the oldest of
+     * its card, i.e. the end of that card's chain, whose history is then no
+     * longer complete.
+     */
+    private void evict(int slot){
+        long key = idKey(idHigh[slot], idLow[slot]);
+        if (byId.get(key) == slot){
+            byId.remove(key);
+        }
+        long card = cards[slot];
+        complete.remove(card);
+        int newest = byCard.get(card);
+        if (newest == slot){
+            byCard.remove(card);
+        } else {
+            int s = newest;
+            while (previous[s] != slot){
+                s = previous[s];
+            }
+            previous[s] = NONE;
+        }
+        evictions.incrementAndGet();
+    }
+
+    private static long idKey(long high, long low){
+        return SlotTable.key(high, low);
+    }
+    //endregion
+
+    //region sync
+    /**
+     * Syncs now and then every orderIndex.syncIntervalMillis on a daemon thread.
+     * A failed sync is retried at the next interval; meanwhile the index goes
+     * stale and lookups fall back to the server.
+     */
+    synchronized void start(final PoyntAPI api){
+        if (scheduler != null){
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "poynt-order-index");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync(api);
+                } catch (Exception e) {
+                    syncFailures.incrementAndGet();
+                    lastSyncError = e;
+                }
+            }
+        }, 0, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pages through the orders modified since shortly before the previous sync
+     * started, or within orderIndex.historyMillis on the first one. Pages are
+     * indexed as they arrive; the index only counts as fresh once all are in.
+     */
+    public void sync(PoyntAPI api) throws Exception{
+        long start = System.currentTimeMillis();
+        long synced = lastSyncMillis;
+        long since = synced > 0 ? synced - SYNC_OVERLAP_MILLIS : start - historyMillis;
+        String href = api.ordersUrl();
+        long count = 0;
+        while (href != null){
+            OrdersResponse page = api.getOrdersModifiedSince(href, since);
+            if (page == null || page.getOrders() == null || page.getOrders().isEmpty()){
+                break;
+            }
+            index(NO_CARD, page.getOrders());
+            count += page.getOrders().size();
+            href = OrderIterator.nextLink(page);
+        }
+        ordersSynced.addAndGet(count);
+        syncs.incrementAndGet();
+        lastSyncMillis = Math.max(lastSyncMillis, start);
+    }
+    //endregion
+
+    @Override
+    public synchronized void close(){
+        if (scheduler != null){
+            scheduler.shutdownNow();
+        }
+    }
+
+    //region counters
+    /**
+     * Lookups answered from the index.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Lookups left to the server because the card's history was not indexed in full.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Lookups refused because the index was stale.
+     */
+    public long getStale() {
+        return stale.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    public long getSyncFailures() {
+        return syncFailures.get();
+    }
+
+    public long getOrdersSynced() {
+        return ordersSynced.get();
+    }
+
+    public Exception getLastSyncError() {
+        return lastSyncError;
+    }
+
+    public long getLastSyncMillis() {
+        return lastSyncMillis;
+    }
+
+    public synchronized int size(){
+        return size;
+    }
+
+    public synchronized int cards(){
+        return byCard.size();
+    }
+
+    /**
+     * Cards answered locally, see indexHistory.
+     */
+    public synchronized int completeCards(){
+        return complete.size();
+    }
+
+    /**
+     * Heap held by the index's arrays; fixed by orderIndex.maxOrders.
+     */
+    public long getMemoryBytes(){
+        return (long) maxOrders * (5 * 8 + 1 + 4) + byCard.getMemoryBytes() + complete.getMemoryBytes()
+                + byId.getMemoryBytes();
+    }
+    //endregion
+
+    public String toString(){
+        return "[orders: " + size() + ", cards: " + cards() + ", completeCards: " + completeCards() + ", hits: " + hits + ", misses: " + misses
+                + ", stale: " + stale + ", evictions: " + evictions + ", syncs: " + syncs + ", syncFailures: " + syncFailures
+                + ", memory: " + getMemoryBytes() / 1024 + " KB]";
+    }
+}
@@ -0,0 +1,130 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Order;
+import com.poyntapi.model.OrdersResponse;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Walks a paged /orders result by following the rel=next link of each
+ * OrdersResponse. Pages are fetched lazily: as soon as a page is handed out
+ * for consumption, the request for the following page is sent, so at most two
+ * pages are held in memory however many orders the query matches.
+ *
+ * Not thread-safe; consume it from one thread. Fetch failures surface from
+ * hasNext()/next() as unchecked exceptions.
+ */
+public class OrderIterator implements Iterator<Order>, AutoCloseable {
+
+    private final PoyntAsyncAPI api;
+
+    private Iterator<Order> current = Collections.emptyIterator();
+    // the undecoded response of nextPage, closed by close() if the page is not wanted
+    private CompletableFuture<Response> nextResponse;
+    private CompletableFuture<OrdersResponse> nextPage;
+    private int pagesFetched;
+
+    OrderIterator(PoyntAsyncAPI api, String firstPageUrl){
+        this.api = api;
+        request(firstPageUrl);
+    }
+
+    private void request(String href){
+        nextResponse = api.getOrdersPageResponse(href);
+        nextPage = nextResponse.thenApply(api::decodeOrdersPage);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()){
+            if (nextPage == null){
+                return false;
+            }
+            OrdersResponse page = await(nextPage);
+            pagesFetched++;
+            nextPage = null;
+            nextResponse = null;
+
+            boolean empty = page.getOrders() == null || page.getOrders().isEmpty();
+            String next = nextLink(page);
+            if (!empty && next != null){
+                // prefetch while the caller works through this page
+                request(next);
+            }
+            current = empty ? Collections.<Order>emptyIterator() : page.getOrders().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Order next() {
+        if (!hasNext()){
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    public int getPagesFetched() {
+        return pagesFetched;
+    }
+
+    /**
+     * Stops following links. A prefetched page is discarded, and its response
+     * closed whenever it arrives, so the connection goes back to the pool.
+     */
+    @Override
+    public void close() {
+        if (nextPage != null){
+            // skips the decode unless it is already running; closing twice is harmless
+            nextPage.cancel(false);
+            nextResponse.thenAccept(Response::close);
+            nextPage = null;
+            nextResponse = null;
+        }
+        current = Collections.emptyIterator();
+    }
+
+    public Stream<Order> stream(){
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    static String nextLink(OrdersResponse page){
+        if (page.getLinks() == null){
+            return null;
+        }
+        for (OrdersResponse.HATEOS link : page.getLinks()){
+            if ("next".equals(link.getRel()) && link.getHref() != null){
+                return link.getHref();
+            }
+        }
+        return null;
+    }
+
+    private static OrdersResponse await(CompletableFuture<OrdersResponse> page){
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException){
+                throw new UncheckedIOException((IOException) cause);
+            }
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+}
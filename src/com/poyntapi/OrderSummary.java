@@ -0,0 +1,72 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Order;
+import co.poynt.api.model.OrderAmounts;
+import co.poynt.api.model.OrderStatus;
+
+import java.util.UUID;
+
+/**
+ * What the {@link OrderIndex} keeps per order: enough to tell whether a card
+ * has been seen before and to show the customer's recent orders, without the
+ * items, context and transactions of the full Order.
+ */
+public final class OrderSummary {
+
+    private final UUID id;
+    private final OrderStatus status;
+    private final long amount;
+    private final long createdAtMillis;
+
+    public OrderSummary(UUID id, OrderStatus status, long amount, long createdAtMillis) {
+        this.id = id;
+        this.status = status;
+        this.amount = amount;
+        this.createdAtMillis = createdAtMillis;
+    }
+
+    static OrderSummary of(Order order){
+        Long amount = amountOf(order.getAmounts());
+        return new OrderSummary(order.getId(), order.getStatuses() == null ? null : order.getStatuses().getStatus(),
+                amount == null ? 0 : amount,
+                order.getCreatedAt() == null ? 0 : order.getCreatedAt().getTimeInMillis());
+    }
+
+    static Long amountOf(OrderAmounts amounts){
+        if (amounts == null){
+            return null;
+        }
+        return amounts.getNetTotal() != null ? amounts.getNetTotal() : amounts.getSubTotal();
+    }
+
+    //region gettersSetters
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * Null when only the order's transaction has been seen so far.
+     */
+    public OrderStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Net total, else sub total, else the amount of the order's transaction; in cents.
+     */
+    public long getAmount() {
+        return amount;
+    }
+
+    /**
+     * When the order was created, or first seen if the server did not say.
+     */
+    public long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+    //endregion
+
+    public String toString(){
+        return "[id: " + id + ", status: " + status + ", amount: " + amount + ", createdAt: " + createdAtMillis + "]";
+    }
+}
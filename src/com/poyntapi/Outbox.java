@@ -0,0 +1,331 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Order;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind outbox for order and customer creation: the payload is appended
+ * to a local memory-mapped journal (see OutboxJournal) and the caller returns
+ * at once; a background thread submits the journaled requests and marks them
+ * delivered. Each record keeps the Poynt-Request-Id it was journaled with, so
+ * a record sent again after a crash or a timeout is recognised by the server
+ * as the same request. Records still pending when the process stopped are
+ * replayed when the next one opens the same directory.
+ *
+ * The API has no bulk create, so the drainer sends up to {@code batchSize}
+ * records concurrently and waits for all of them before taking the next
+ * batch. A 4xx answer rejects the record for good, except 408 and 429, and 401
+ * and 403 (a revoked or misconfigured key says nothing about the record). A 409
+ * for a record that was sent before, by this process or one that stopped before
+ * settling it, means the server already has it, so the record counts as
+ * delivered. Anything else puts the record back at the end of the queue, so it
+ * cannot hold up the ones behind it; after {@code maxAttempts} such failures in
+ * one process it is settled as REJECTED and counted as abandoned (401 and 403
+ * do not count, since every record fails the same way until the key is fixed).
+ * A batch in which nothing went through pauses draining, doubling the pause up
+ * to {@code maxRetryDelayMillis}. Only one outbox at a time can open a directory.
+ *
+ * Off unless outbox.enabled=true. Configured from config.properties:
+ *
+ *   outbox.enabled=false
+ *   outbox.dir=outbox                (one directory per business/store)
+ *   outbox.segmentBytes=4194304
+ *   outbox.maxSegments=64            (appends fail once this many hold undelivered records)
+ *   outbox.fsync=false               (force each append to disk, not only to the page cache)
+ *   outbox.batchSize=16
+ *   outbox.retryDelayMillis=1000
+ *   outbox.maxRetryDelayMillis=60000
+ *   outbox.maxAttempts=20            (retryable failures before a record is abandoned)
+ */
+public class Outbox implements AutoCloseable {
+
+    static final byte ORDER = 1;
+    static final byte CUSTOMER = 2;
+
+    private final OutboxJournal journal;
+    private final int batchSize;
+    private final long retryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final int maxAttempts;
+    private final LinkedBlockingDeque<OutboxJournal.Entry> pending = new LinkedBlockingDeque<>();
+
+    private volatile boolean running;
+    private Thread drainer;
+    private volatile String lastError;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+
+    Outbox(File dir, int segmentBytes, int maxSegments, boolean fsync, int batchSize, long retryDelayMillis,
+           long maxRetryDelayMillis, int maxAttempts) throws IOException{
+        this.journal = new OutboxJournal(dir, segmentBytes, maxSegments, fsync);
+        this.batchSize = batchSize;
+        this.retryDelayMillis = retryDelayMillis;
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+        this.maxAttempts = maxAttempts;
+        List<OutboxJournal.Entry> recovered;
+        try {
+            recovered = journal.recover();
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        pending.addAll(recovered);
+        replayed.set(recovered.size());
+    }
+
+    /**
+     * Null unless outbox.enabled=true.
+     */
+    static Outbox fromProperties(Properties prop) throws IOException{
+        if (!Boolean.parseBoolean(prop.getProperty("outbox.enabled", "false").trim())){
+            return null;
+        }
+        return new Outbox(
+                new File(prop.getProperty("outbox.dir", "outbox").trim()),
+                Integer.parseInt(prop.getProperty("outbox.segmentBytes", "4194304").trim()),
+                Integer.parseInt(prop.getProperty("outbox.maxSegments", "64").trim()),
+                Boolean.parseBoolean(prop.getProperty("outbox.fsync", "false").trim()),
+                Integer.parseInt(prop.getProperty("outbox.batchSize", "16").trim()),
+                Long.parseLong(prop.getProperty("outbox.retryDelayMillis", "1000").trim()),
+                Long.parseLong(prop.getProperty("outbox.maxRetryDelayMillis", "60000").trim()),
+                Integer.parseInt(prop.getProperty("outbox.maxAttempts", "20").trim()));
+    }
+
+    /**
+     * Journals a request; the drainer picks it up in order.
+     *
+     * @return the Poynt-Request-Id it will be sent with
+     */
+    UUID enqueue(byte kind, byte[] payload) throws IOException{
+        UUID requestId = UUID.randomUUID();
+        pending.add(journal.append(kind, requestId, payload));
+        enqueued.incrementAndGet();
+        return requestId;
+    }
+
+    /**
+     * Starts draining into the given API's business, records from earlier runs first.
+     */
+    synchronized void start(final PoyntAPI api){
+        if (running){
+            return;
+        }
+        running = true;
+        drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain(api);
+            }
+        }, "poynt-outbox");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private void drain(PoyntAPI api){
+        PoyntAsyncAPI async = api.getAsyncAPI();
+        long delay = retryDelayMillis;
+        while (running){
+            try {
+                OutboxJournal.Entry first = pending.poll(1, TimeUnit.SECONDS);
+                if (first == null){
+                    continue;
+                }
+                List<OutboxJournal.Entry> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                pending.drainTo(batch, batchSize - 1);
+                if (submit(api, async, batch)){
+                    delay = retryDelayMillis;
+                } else {
+                    Thread.sleep(delay);
+                    delay = Math.min(maxRetryDelayMillis, delay * 2);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                lastError = e.toString();
+            }
+        }
+    }
+
+    /**
+     * Sends the batch and settles what can be settled; the rest goes to the
+     * end of the queue in its original order.
+     *
+     * @return false if nothing in the batch went through
+     */
+    private boolean submit(PoyntAPI api, PoyntAsyncAPI async, List<OutboxJournal.Entry> batch){
+        List<CompletableFuture<?>> calls = new ArrayList<>(batch.size());
+        for (OutboxJournal.Entry entry : batch){
+            calls.add(send(api, async, entry));
+        }
+        boolean progress = false;
+        for (int i = 0; i < batch.size(); i++){
+            OutboxJournal.Entry entry = batch.get(i);
+            try {
+                calls.get(i).join();
+                settle(entry, OutboxJournal.DELIVERED);
+                delivered.incrementAndGet();
+                progress = true;
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                lastError = cause.toString();
+                int status = cause instanceof PoyntApiException ? ((PoyntApiException) cause).getStatusCode() : 0;
+                if (status == 409 && (entry.recovered || entry.attempts > 0)){
+                    // an earlier attempt got through and the server recognised its request id
+                    settle(entry, OutboxJournal.DELIVERED);
+                    delivered.incrementAndGet();
+                    progress = true;
+                } else if (isRejection(cause)){
+                    settle(entry, OutboxJournal.REJECTED);
+                    rejected.incrementAndGet();
+                    progress = true;
+                } else if (status != 401 && status != 403 && ++entry.attempts >= maxAttempts){
+                    settle(entry, OutboxJournal.REJECTED);
+                    abandoned.incrementAndGet();
+                } else {
+                    failedAttempts.incrementAndGet();
+                    pending.addLast(entry);
+                }
+            }
+        }
+        return progress;
+    }
+
+    private CompletableFuture<?> send(PoyntAPI api, PoyntAsyncAPI async, OutboxJournal.Entry entry){
+        String requestId = entry.requestId.toString();
+        byte[] payload = journal.payload(entry);
+        try {
+            switch (entry.kind){
+                case ORDER:
+                    return async.<Order>postJson(payload, api.ordersUrl() + "?process=true", PoyntJson.ORDER_READER,
+                            requestId).thenApply(api::indexed);
+                case CUSTOMER:
+                    return async.postJson(payload, api.customersUrl(), PoyntJson.CUSTOMER_READER, requestId);
+                default:
+                    throw new IllegalStateException("Unknown outbox record kind " + entry.kind);
+            }
+        } catch (Exception e) {
+            CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private static boolean isRejection(Throwable error){
+        if (error instanceof IllegalStateException){
+            return true;
+        }
+        if (!(error instanceof PoyntApiException)){
+            return false;
+        }
+        int status = ((PoyntApiException) error).getStatusCode();
+        switch (status){
+            case 401:
+            case 403:
+            case 408:
+            case 429:
+                return false;
+            default:
+                return status >= 400 && status < 500;
+        }
+    }
+
+    private void settle(OutboxJournal.Entry entry, byte state){
+        try {
+            journal.settle(entry, state);
+        } catch (IOException e) {
+            lastError = e.toString();
+        }
+    }
+
+    //region counters
+    /** Requests journaled by this process. */
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    /** Pending requests found in the journal at startup. */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /** Requests the API refused with a final 4xx; they are not sent again. */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** Requests given up after outbox.maxAttempts retryable failures; settled as rejected. */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /** Sends that failed in a way worth retrying. */
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /** Requests waiting to be sent, excluding the batch in flight. */
+    public int getPending(){
+        return pending.size();
+    }
+
+    public int getSegments(){
+        return journal.getSegmentCount();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+    //endregion
+
+    /**
+     * Stops the drainer, waiting for the batch in flight; undelivered records
+     * stay in the journal for the next start.
+     */
+    @Override
+    public void close(){
+        Thread thread;
+        synchronized (this){
+            running = false;
+            thread = drainer;
+        }
+        if (thread != null){
+            // wakes it from a retry pause; a batch in flight is still waited for
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    public String toString(){
+        return "[dir: " + journal.getDir() + ", pending: " + getPending() + ", segments: " + getSegments()
+                + ", enqueued: " + enqueued + ", replayed: " + replayed + ", delivered: " + delivered
+                + ", rejected: " + rejected + ", abandoned: " + abandoned
+                + ", failedAttempts: " + failedAttempts + "]";
+    }
+}
@@ -0,0 +1,320 @@
+package com.poyntapi;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of outbox records in fixed-size, memory-mapped segment
+ * files (outbox-<number>.seg). A record is
+ *
+ *   int length | int crc | byte state | byte kind | long id msb | long id lsb | payload
+ *
+ * where length covers everything after the crc and the crc covers kind, id
+ * and payload. The length is written last, so a record torn by a crash reads
+ * as the end of its segment. Delivering a record flips its state byte in
+ * place; a segment whose records are all settled is deleted once writing has
+ * moved on to the next one.
+ *
+ * Writes survive the process dying as soon as append returns, since the
+ * mapping is the page cache; with {@code fsync} they also survive the machine
+ * going down, at the cost of a force per append.
+ *
+ * A journal holds an exclusive lock on {@value #LOCK_FILE} in its directory
+ * until closed, so a second journal on the same directory, in this process or
+ * another, fails to open instead of replaying and appending alongside it.
+ */
+final class OutboxJournal implements AutoCloseable {
+
+    static final byte PENDING = 0;
+    static final byte DELIVERED = 1;
+    static final byte REJECTED = 2;
+
+    private static final int HEADER = 4 + 4 + 1 + 1 + 8 + 8;
+    private static final String PREFIX = "outbox-";
+    private static final String SUFFIX = ".seg";
+    static final String LOCK_FILE = "outbox.lock";
+
+    /**
+     * A journaled record; the payload stays in the mapped segment.
+     */
+    static final class Entry {
+        final Segment segment;
+        final int offset;
+        final byte kind;
+        final UUID requestId;
+        final int payloadLength;
+        // found in the journal at startup, so it may have been sent before
+        final boolean recovered;
+        // failed sends in this process; only the drainer touches it
+        int attempts;
+
+        Entry(Segment segment, int offset, byte kind, UUID requestId, int payloadLength, boolean recovered) {
+            this.segment = segment;
+            this.offset = offset;
+            this.recovered = recovered;
+            this.kind = kind;
+            this.requestId = requestId;
+            this.payloadLength = payloadLength;
+        }
+    }
+
+    static final class Segment {
+        final long number;
+        final File file;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        int unsettled;
+
+        Segment(long number, File file, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final boolean fsync;
+    private final FileChannel lockChannel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+
+    OutboxJournal(File dir, int segmentBytes, int maxSegments, boolean fsync) throws IOException{
+        if (!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Cannot create outbox directory " + dir);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.fsync = fsync;
+        this.lockChannel = new RandomAccessFile(new File(dir, LOCK_FILE), "rw").getChannel();
+        FileLock held;
+        try {
+            // released when the channel is closed
+            held = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another journal in this process
+            held = null;
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (held == null){
+            lockChannel.close();
+            throw new IOException("Outbox directory " + dir + " is in use by another outbox");
+        }
+    }
+
+    /**
+     * Maps the segments left by earlier runs and returns their pending records,
+     * oldest first. Call once, before the first append.
+     */
+    List<Entry> recover() throws IOException{
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        List<Entry> pending = new ArrayList<>();
+        if (files == null){
+            return pending;
+        }
+        Arrays.sort(files);
+        lock.lock();
+        try {
+            for (File file : files){
+                String name = file.getName();
+                long number = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                Segment segment = map(number, file, (int) Math.max(file.length(), segmentBytes));
+                List<Entry> entries = scan(segment);
+                if (entries.isEmpty()){
+                    delete(segment);
+                    continue;
+                }
+                segments.add(segment);
+                pending.addAll(entries);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return pending;
+    }
+
+    /**
+     * Pending records of a segment; stops at the first empty or torn record.
+     */
+    private List<Entry> scan(Segment segment){
+        MappedByteBuffer buffer = segment.buffer;
+        List<Entry> pending = new ArrayList<>();
+        int position = 0;
+        while (position + HEADER <= buffer.capacity()){
+            int length = buffer.getInt(position);
+            if (length < HEADER - 8 || position + 8 + length > buffer.capacity()){
+                break;
+            }
+            int payloadLength = length - (HEADER - 8);
+            if (buffer.getInt(position + 4) != crc(buffer, position, payloadLength)){
+                break;
+            }
+            byte state = buffer.get(position + 8);
+            if (state == PENDING){
+                pending.add(new Entry(segment, position, buffer.get(position + 9),
+                        new UUID(buffer.getLong(position + 10), buffer.getLong(position + 18)), payloadLength, true));
+                segment.unsettled++;
+            }
+            position += 8 + length;
+        }
+        segment.writePosition = position;
+        return pending;
+    }
+
+    Entry append(byte kind, UUID requestId, byte[] payload) throws IOException{
+        int size = HEADER + payload.length;
+        if (size > segmentBytes){
+            throw new IOException("Outbox record of " + size + " bytes exceeds outbox.segmentBytes=" + segmentBytes);
+        }
+        lock.lock();
+        try {
+            if (active == null || active.writePosition + size > active.buffer.capacity()){
+                rotate();
+            }
+            Segment segment = active;
+            int offset = segment.writePosition;
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.put(offset + 8, PENDING);
+            buffer.put(offset + 9, kind);
+            buffer.putLong(offset + 10, requestId.getMostSignificantBits());
+            buffer.putLong(offset + 18, requestId.getLeastSignificantBits());
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset + HEADER);
+            view.put(payload);
+            buffer.putInt(offset + 4, crc(buffer, offset, payload.length));
+            buffer.putInt(offset, size - 8);
+            if (fsync){
+                buffer.force();
+            }
+            segment.writePosition += size;
+            segment.unsettled++;
+            return new Entry(segment, offset, kind, requestId, payload.length, false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    byte[] payload(Entry entry){
+        byte[] payload = new byte[entry.payloadLength];
+        ByteBuffer view = entry.segment.buffer.duplicate();
+        view.position(entry.offset + HEADER);
+        view.get(payload);
+        return payload;
+    }
+
+    /**
+     * Records the entry as DELIVERED or REJECTED, deleting its segment if that
+     * was the last unsettled record of a segment no longer written to.
+     */
+    void settle(Entry entry, byte state) throws IOException{
+        lock.lock();
+        try {
+            Segment segment = entry.segment;
+            segment.buffer.put(entry.offset + 8, state);
+            if (fsync){
+                segment.buffer.force();
+            }
+            if (--segment.unsettled == 0 && segment != active){
+                segments.remove(segment);
+                delete(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rotate() throws IOException{
+        if (active != null && active.unsettled == 0){
+            segments.remove(active);
+            delete(active);
+        }
+        if (segments.size() >= maxSegments){
+            throw new IOException("Outbox full: " + segments.size() + " segments of undelivered records");
+        }
+        long number = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).number + 1;
+        active = map(number, new File(dir, String.format("%s%019d%s", PREFIX, number, SUFFIX)), segmentBytes);
+        segments.add(active);
+    }
+
+    private static Segment map(long number, File file, int size) throws IOException{
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the mapping stays valid after the channel is closed
+            return new Segment(number, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private static void delete(Segment segment) throws IOException{
+        // on platforms that refuse to delete a mapped file it is retried by the next recover
+        if (!segment.file.delete() && segment.file.exists()){
+            segment.file.deleteOnExit();
+        }
+    }
+
+    private static int crc(MappedByteBuffer buffer, int offset, int payloadLength){
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + HEADER + payloadLength);
+        view.position(offset + 9);
+        CRC32 crc = new CRC32();
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    int getSegmentCount(){
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Forces the segments to disk and releases the directory. The mappings are
+     * released by the garbage collector; Java 8 has no way to unmap them
+     * explicitly.
+     */
+    @Override
+    public void close(){
+        lock.lock();
+        try {
+            for (Segment segment : segments){
+                segment.buffer.force();
+            }
+        } finally {
+            lock.unlock();
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                // the lock goes with the process anyway
+            }
+        }
+    }
+}
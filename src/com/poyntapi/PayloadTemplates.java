@@ -0,0 +1,202 @@
+package com.poyntapi;
+
+import co.poynt.api.model.TransactionAction;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Pre-compiled createTransaction / createOrder payloads for one PoyntAPI
+ * instance. The funding source, context ids, order items, statuses and notes
+ * are serialized once from the same prototypes the object path builds; per
+ * request only the amounts, reference ids, order/customer ids and the
+ * transmission timestamp are generated, straight to bytes.
+ *
+ * Enabled by default; payloadTemplates=false falls back to building and
+ * serializing the model objects.
+ */
+final class PayloadTemplates {
+
+    // stands in for the per-request ids while compiling
+    private static final String PROTOTYPE_ID = "00000000-0000-0000-0000-000000000000";
+
+    static final class TransactionValues {
+        String customReferenceId;
+        String orderId;
+        long transactionAmount;
+        long orderAmount;
+        long tipAmount;
+        long transmissionAtLocal;
+    }
+
+    static final class OrderValues {
+        String orderId;
+        Long customerUserId;
+    }
+
+    private final PoyntAPI api;
+    private final JsonTemplate<OrderValues> order;
+    // compiled on first use, once the store's transaction action is known
+    private volatile TransactionTemplate transaction;
+
+    PayloadTemplates(PoyntAPI api) throws IOException{
+        this.api = api;
+        JsonNode prototype = PoyntJson.MAPPER.valueToTree(api.buildOrder(0L, PROTOTYPE_ID));
+        // absent ids are written as null or left out, whichever the model's serializer does
+        final boolean writeNulls = PoyntJson.MAPPER.valueToTree(api.buildOrder(null, null)).has("id");
+        Map<String,JsonTemplate.Slot<OrderValues>> slots = new HashMap<>();
+        slots.put("id", (gen, name, v) -> {
+            if (v.orderId != null){
+                gen.writeFieldName(name);
+                gen.writeString(v.orderId);
+            } else if (writeNulls){
+                gen.writeFieldName(name);
+                gen.writeNull();
+            }
+        });
+        slots.put("customerUserId", (gen, name, v) -> {
+            if (v.customerUserId != null){
+                gen.writeFieldName(name);
+                gen.writeNumber(v.customerUserId);
+            } else if (writeNulls){
+                gen.writeFieldName(name);
+                gen.writeNull();
+            }
+        });
+        order = JsonTemplate.compile(prototype, slots);
+    }
+
+    byte[] order(Long customerId, String orderId) throws IOException{
+        OrderValues values = new OrderValues();
+        // same validation and canonical form as the object path
+        values.orderId = orderId == null ? null : canonicalUuid(orderId);
+        values.customerUserId = customerId;
+        return render(order, values);
+    }
+
+    byte[] transaction(TransactionAction action, String orderId, long amount, long nowMillis) throws IOException{
+        TransactionTemplate template = transaction;
+        if (template == null || template.action != action){
+            template = new TransactionTemplate(api, action);
+            transaction = template;
+        }
+        TransactionValues values = new TransactionValues();
+        values.customReferenceId = UUID.randomUUID().toString();
+        values.orderId = orderId;
+        values.transactionAmount = amount;
+        values.orderAmount = amount;
+        values.tipAmount = 0L;
+        values.transmissionAtLocal = nowMillis;
+        return render(template.body, values);
+    }
+
+    /**
+     * Same buffer handling as ObjectWriter.writeValueAsBytes: the generator and
+     * the output blocks come from the factory's per-thread buffer recycler.
+     */
+    private static <T> byte[] render(JsonTemplate<T> template, T values) throws IOException{
+        JsonFactory factory = PoyntJson.MAPPER.getFactory();
+        ByteArrayBuilder out = new ByteArrayBuilder(factory._getBufferRecycler());
+        try {
+            JsonGenerator gen = factory.createGenerator(out);
+            template.write(gen, values);
+            gen.close();
+            return out.toByteArray();
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Lower-case 8-4-4-4-12 ids are returned as they are; anything else goes
+     * through UUID.fromString, which rejects invalid ids like the object path does.
+     */
+    static String canonicalUuid(String id){
+        if (id.length() == 36){
+            boolean canonical = true;
+            for (int i = 0; i < 36 && canonical; i++){
+                char c = id.charAt(i);
+                canonical = i == 8 || i == 13 || i == 18 || i == 23
+                        ? c == '-'
+                        : (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+            }
+            if (canonical){
+                return id;
+            }
+        }
+        return UUID.fromString(id).toString();
+    }
+
+    private static final class TransactionTemplate {
+        final TransactionAction action;
+        final JsonTemplate<TransactionValues> body;
+        final JsonTemplate<TransactionValues> customReference;
+        final JsonTemplate<TransactionValues> orderReference;
+
+        TransactionTemplate(PoyntAPI api, TransactionAction action) throws IOException{
+            this.action = action;
+            JsonNode prototype = PoyntJson.MAPPER.valueToTree(api.buildTransaction(PROTOTYPE_ID, action));
+
+            // references: [custom reference, order reference]; the second one only with an order id
+            JsonNode references = prototype.get("references");
+            Map<String,JsonTemplate.Slot<TransactionValues>> id = new HashMap<>();
+            id.put("id", (gen, name, v) -> {
+                gen.writeFieldName(name);
+                gen.writeString(v.customReferenceId);
+            });
+            customReference = JsonTemplate.compile(references.get(0), id);
+            id = new HashMap<>();
+            id.put("id", (gen, name, v) -> {
+                gen.writeFieldName(name);
+                gen.writeString(v.orderId);
+            });
+            orderReference = JsonTemplate.compile(references.get(1), id);
+
+            Map<String,JsonTemplate.Slot<TransactionValues>> slots = new HashMap<>();
+            slots.put("references", (gen, name, v) -> {
+                gen.writeFieldName(name);
+                gen.writeStartArray();
+                customReference.write(gen, v);
+                if (v.orderId != null){
+                    orderReference.write(gen, v);
+                }
+                gen.writeEndArray();
+            });
+            slots.put("amounts.transactionAmount", amount(v -> v.transactionAmount));
+            slots.put("amounts.orderAmount", amount(v -> v.orderAmount));
+            slots.put("amounts.tipAmount", amount(v -> v.tipAmount));
+
+            final boolean timestampAsNumber = prototype.path("context").path("transmissionAtLocal").isNumber();
+            slots.put("context.transmissionAtLocal", (gen, name, v) -> {
+                gen.writeFieldName(name);
+                if (timestampAsNumber){
+                    gen.writeNumber(v.transmissionAtLocal);
+                } else {
+                    // mapper configured for textual dates: let it format
+                    Calendar calendar = Calendar.getInstance();
+                    calendar.setTimeInMillis(v.transmissionAtLocal);
+                    gen.writeObject(calendar);
+                }
+            });
+            body = JsonTemplate.compile(prototype, slots);
+        }
+
+        private interface LongField {
+            long get(TransactionValues values);
+        }
+
+        private static JsonTemplate.Slot<TransactionValues> amount(final LongField field){
+            return (gen, name, v) -> {
+                gen.writeFieldName(name);
+                gen.writeNumber(field.get(v));
+            };
+        }
+    }
+}
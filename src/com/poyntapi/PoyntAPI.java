@@ -1,34 +1,41 @@
 package com.poyntapi;
 
 import co.poynt.api.model.*;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.JWSHeader;
-import com.nimbusds.jose.JWSSigner;
-import com.nimbusds.jose.crypto.RSASSASigner;
-import com.nimbusds.jwt.JWTClaimsSet;
-import com.nimbusds.jwt.SignedJWT;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.poyntapi.loadgen.LoadGenerator;
+import com.poyntapi.logging.RequestLog;
+import com.poyntapi.metrics.InMemoryMetricsRegistry;
+import com.poyntapi.metrics.MetricsRegistry;
 import com.poyntapi.model.OrdersResponse;
+import com.poyntapi.resilience.ResiliencePolicy;
+import com.poyntapi.transport.HttpTransport;
 import okhttp3.*;
-import org.bouncycastle.openssl.PEMKeyPair;
-import org.bouncycastle.openssl.PEMParser;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 
-import javax.net.ssl.HttpsURLConnection;
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.security.Security;
-import java.security.interfaces.RSAPrivateKey;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Created by dennis on 2/9/17.
  */
-public class PoyntAPI {
+public class PoyntAPI implements AutoCloseable {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    // amount of the demo transaction
+    private static final long TRANSACTION_AMOUNT = 1000L;
+    // one instance, so concurrent getCompactCatalog calls are recognized as identical
+    static final Function<CatalogWithProduct,CompactCatalog> COMPACT = CompactCatalog::of;
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
 
-    private boolean DEBUG = true;
     private String apiEndpoint;
 
     // your application id starting with urn:aid
@@ -36,7 +43,17 @@ public class PoyntAPI {
     // private key downloaded from poynt.net
     private String privateKeyFile;
 
-    private String accessToken;
+    private TokenManager tokenManager;
+    private MetricsRegistry metrics;
+    private ResiliencePolicy resilience;
+    private CatalogCache catalogCache;
+    private RequestCoalescer coalescer;
+    // catalog id of the store's first active terminal, see getStoreDeviceCatalog;
+    // set by both the blocking and the async API
+    private volatile String storeCatalogId;
+    private volatile long storeCatalogIdExpiresAt;
+    // used internally for prefetching, created on first use
+    private PoyntAsyncAPI asyncAPI;
 
     // business id and store id
     private String businessId;
@@ -47,8 +64,25 @@ public class PoyntAPI {
 
     // transaction action could be either SALE or AUTHORIZE
     // depending on merchant's processor settings
-    private TransactionAction transactionAction;
-
+    private volatile TransactionAction transactionAction;
+    // store settings fetch started at startup or by the first transaction
+    private CompletableFuture<TransactionAction> pendingTransactionAction;
+    // last request sent through this instance, for idle-tenant eviction
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+
+    // one transport (connection pool + executor) for every call made by this instance
+    private HttpTransport transport;
+    // false for PoyntTenants handles, whose transport is shared
+    private boolean ownsTransport;
+    // null when payloadTemplates=false; created on first use
+    private volatile PayloadTemplates payloadTemplates;
+    private boolean usePayloadTemplates = true;
+    // null unless orderIndex.enabled=true
+    private OrderIndex orderIndex;
+    // null unless outbox.enabled=true
+    private Outbox outbox;
+    // null unless log.requests=true or debug=true; owned like the transport
+    private RequestLog requestLog;
 
     public PoyntAPI() throws Exception{
 
@@ -61,11 +95,20 @@ public class PoyntAPI {
             businessId=469e957c-xxxxx
             storeId=c2855b41-xxxx
 
+            Optional:
+
+            startup.mode=eager     eager:    fetch token and store settings before returning
+                                   parallel: start both in the background and return at once
+                                   lazy:     fetch each on first use
+            orderIndex.enabled=false   answer card lookups from a local index, see OrderIndex
+            outbox.enabled=false       journal enqueueOrder/enqueueCustomer and send them behind, see Outbox
+            log.requests=false         log sampled, redacted requests and responses via slf4j, see RequestLog
+            debug=false                same as log.requests=true with every call logged
+
          */
         File configFile = new File("src/config.properties");
         if (!configFile.exists()) {
-            System.err.println("Config file does not exist");
-            System.exit(1);
+            throw new FileNotFoundException("Config file does not exist: " + configFile);
         }
 
         FileInputStream fis = new FileInputStream(configFile);
@@ -73,6 +116,41 @@ public class PoyntAPI {
 
         // load a properties file
         prop.load(fis);
+        fis.close();
+        init(prop);
+    }
+
+    /**
+     * Same as the default constructor, with the configuration supplied by the
+     * caller instead of read from src/config.properties.
+     */
+    public PoyntAPI(Properties prop) throws Exception{
+        init(prop);
+    }
+
+    /**
+     * Tenant handle created by {@link PoyntTenants}: client, resilience policy,
+     * catalog cache and metrics are the registry's; the token is this tenant's own
+     * and, like the store's transaction action, is fetched on first use.
+     */
+    PoyntAPI(PoyntTenants tenants, TokenManager tokenManager, String businessId, String storeId,
+             String storeDeviceId){
+        this.apiEndpoint = tenants.getApiEndpoint();
+        this.applicationId = tenants.getApplicationId();
+        this.transport = tenants.getTransport();
+        this.requestLog = tenants.getRequestLog();
+        this.metrics = tenants.getMetrics();
+        this.resilience = tenants.getResiliencePolicy();
+        this.catalogCache = tenants.getCatalogCache();
+        this.coalescer = tenants.getRequestCoalescer();
+        this.tokenManager = tokenManager;
+        this.businessId = businessId;
+        this.storeId = storeId;
+        this.storeDeviceId = storeDeviceId;
+        this.usePayloadTemplates = tenants.isPayloadTemplates();
+    }
+
+    private void init(Properties prop) throws Exception{
         apiEndpoint = prop.getProperty("apiEndpoint");
         applicationId = prop.getProperty("applicationId");
         privateKeyFile = prop.getProperty("privateKeyFile");
@@ -82,19 +160,114 @@ public class PoyntAPI {
 
         if (apiEndpoint == null || applicationId == null || privateKeyFile == null ||
                 businessId == null || storeId == null || storeDeviceId == null){
-            System.err.println("One of the required properties missing from the config file");
-            System.exit(1);
+            throw new IllegalArgumentException("One of the required properties missing from the config file: "
+                    + "apiEndpoint, applicationId, privateKeyFile, businessId, storeId, storeDeviceId");
+        }
+        String startupMode = prop.getProperty("startup.mode", "eager").trim();
+        usePayloadTemplates = Boolean.parseBoolean(prop.getProperty("payloadTemplates", "true").trim());
+
+        ownsTransport = true;
+        try {
+            metrics = metricsRegistryFor(prop);
+            HttpClientConfig httpConfig = HttpClientConfig.fromProperties(prop);
+            requestLog = httpConfig.getRequestLog();
+            transport = httpConfig.buildTransport(metrics);
+            resilience = ResiliencePolicy.fromProperties(prop);
+            catalogCache = CatalogCache.fromProperties(prop);
+            coalescer = RequestCoalescer.fromProperties(prop);
+
+            tokenManager = new TokenManager(transport, apiEndpoint, applicationId, privateKeyFile);
+            orderIndex = OrderIndex.fromProperties(prop);
+            // opening the outbox locks its directory, so a second client on it fails here
+            outbox = Outbox.fromProperties(prop);
+            switch (startupMode){
+                case "eager":
+                    tokenManager.getAccessToken();
+                    transactionAction = getTransactionActionForStore();
+                    break;
+                case "parallel":
+                    // the store fetch needs a token, so it starts the token exchange
+                    // itself; other requests only wait for the token
+                    getTransactionActionAsync();
+                    break;
+                case "lazy":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown startup.mode: " + startupMode);
+            }
+        } catch (Exception | Error e) {
+            // the caller never gets this instance, so nobody else can close it
+            close();
+            throw e;
+        }
+        // background work starts only once construction can no longer fail
+        if (orderIndex != null){
+            orderIndex.start(this);
+        }
+        if (outbox != null){
+            outbox.start(this);
+        }
+    }
+
+    /**
+     * metrics.registry=<class name> plugs in a custom registry, "none" turns
+     * metrics off; the default keeps per-endpoint metrics in memory.
+     */
+    static MetricsRegistry metricsRegistryFor(Properties prop) throws Exception{
+        String registry = prop.getProperty("metrics.registry");
+        if (registry == null){
+            return new InMemoryMetricsRegistry();
+        }
+        registry = registry.trim();
+        if ("none".equals(registry)){
+            return MetricsRegistry.NOOP;
         }
+        return Class.forName(registry).asSubclass(MetricsRegistry.class).getDeclaredConstructor().newInstance();
+    }
 
-        accessToken = getAccessToken();
-        transactionAction = getTransactionActionForStore();
+    /**
+     * The store's purchase action, fetched from the store settings on first use
+     * unless startup already did. Failures are thrown here, and the next call tries again.
+     */
+    TransactionAction getTransactionAction() throws Exception{
+        TransactionAction action = transactionAction;
+        if (action != null){
+            return action;
+        }
+        try {
+            return getTransactionActionAsync().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Non-blocking variant; concurrent first callers share one store fetch.
+     */
+    synchronized CompletableFuture<TransactionAction> getTransactionActionAsync(){
+        TransactionAction action = transactionAction;
+        if (action != null){
+            return CompletableFuture.completedFuture(action);
+        }
+        CompletableFuture<TransactionAction> pending = pendingTransactionAction;
+        if (pending == null || pending.isCompletedExceptionally()){
+            pending = getAsyncAPI().getStore().thenApply(store -> {
+                TransactionAction fetched = transactionActionFor(store);
+                transactionAction = fetched;
+                return fetched;
+            });
+            pendingTransactionAction = pending;
+        }
+        return pending;
     }
 
     private TransactionAction getTransactionActionForStore() throws Exception{
-        String urlString = apiEndpoint + "/businesses/" + businessId + "/stores/" + storeId;
-        String jsonResponse = doGet(urlString);
-        ObjectMapper om = new ObjectMapper();
-        Store store = om.readValue(jsonResponse, Store.class);
+        Store store = doGet(storeUrl(), PoyntJson.STORE_READER);
+        return transactionActionFor(store);
+    }
+
+    static TransactionAction transactionActionFor(Store store){
         if (store != null && store.getAttributes() != null){
             String purchaseAction = store.getAttributes().get("purchaseAction");
             if ("SALE".equals(purchaseAction)){
@@ -105,119 +278,188 @@ public class PoyntAPI {
         return TransactionAction.AUTHORIZE;
     }
 
-    private String getJWT() throws Exception{
-        File f = new File(privateKeyFile);
-        if (!f.exists()){
-            System.err.println("Private Key file not found");
-            System.exit(1);
-        }
-        InputStreamReader isr = new InputStreamReader(new FileInputStream(f));
-
-        PEMParser pemParser = new PEMParser(isr);
-        Object object = pemParser.readObject();
-        PEMKeyPair kp = (PEMKeyPair) object;
-        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
-        JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
-        RSAPrivateKey privateKey = (RSAPrivateKey) converter.getPrivateKey(kp.getPrivateKeyInfo());
-        pemParser.close();
-
-
-        // Create RSA-signer with the private key
-        JWSSigner signer = new RSASSASigner(privateKey);
+    /**
+     * Sends the request through the resilience policy (retries, circuit breaker,
+     * hedging). Every attempt reuses the builder, so a POST keeps its
+     * Poynt-Request-Id across retries.
+     */
+    private Response execute(final Request.Builder request) throws Exception{
+        touch();
+        Request probe = request.build();
+        final String endpoint = Endpoints.of(probe.url());
+        return resilience.execute(endpoint, new ResiliencePolicy.Attempt() {
+            @Override
+            public Response call() throws Exception {
+                return executeAuthenticated(endpoint, request);
+            }
+        });
+    }
 
-        // Prepare JWT with claims set
-        JWTClaimsSet claimsSet = new JWTClaimsSet();
-        claimsSet.setSubject(applicationId);
-        claimsSet.setAudience(Arrays.asList(apiEndpoint));
-        claimsSet.setIssuer(applicationId);
-        claimsSet.setExpirationTime(new Date(new Date().getTime() + 360 * 1000));
+    /**
+     * Sends the request with the current bearer token. On 401 the token is
+     * invalidated and the request is sent once more (same Poynt-Request-Id)
+     * with a freshly issued one.
+     */
+    private Response executeAuthenticated(String endpoint, Request.Builder request) throws Exception{
+        String token = tokenManager.getAccessToken();
+        Response response = resilience.send(transport, endpoint,
+                request.header("Authorization", "Bearer " + token).build());
+        if (response.code() == 401){
+            response.close();
+            tokenManager.invalidate(token);
+            token = tokenManager.getAccessToken();
+            response = resilience.send(transport, endpoint,
+                    request.header("Authorization", "Bearer " + token).build());
+        }
+        return response;
+    }
 
-        claimsSet.setIssueTime(new Date(new Date().getTime()));
-        claimsSet.setJWTID(UUID.randomUUID().toString());
+    Request.Builder newRequest(String urlString) throws Exception{
+        return newRequest(urlString, UUID.randomUUID().toString());
+    }
 
-        SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.RS256), claimsSet);
+    Request.Builder newRequest(String urlString, String requestId) throws Exception{
+        URL url = new URL(urlString);
+        return new Request.Builder()
+                .url(url)
+                .addHeader("api-version", "1.2")
+                .addHeader("Poynt-Request-Id", requestId);
+    }
 
-        // Compute the RSA signature
-        signedJWT.sign(signer);
+    /**
+     * GET, sharing the request with identical concurrent GETs where the
+     * request coalescer applies.
+     */
+    private <T> T doGet(final String urlString, final ObjectReader reader) throws Exception{
+        return coalescer.execute(Endpoints.of(urlString), urlString, reader, () -> fetch(urlString, reader));
+    }
 
-        String s = signedJWT.serialize();
-        System.out.println("JWT: " + s);
-        return s;
+    private <T> T fetch(String urlString, ObjectReader reader) throws Exception{
+        Response response = execute(newRequest(urlString));
+        try {
+            return readBody(response, reader);
+        } finally {
+            response.close();
+        }
     }
 
-    private String getAccessToken() throws Exception{
+    /**
+     * GET through the catalog cache: fresh entries are returned without a request,
+     * expired ones are revalidated with If-None-Match / If-Modified-Since.
+     */
+    private <T> T doCachedGet(String catalogId, String urlString, ObjectReader reader) throws Exception{
+        return doCachedGet(catalogId, urlString, reader, Function.<T>identity());
+    }
 
-        URL url = new URL(apiEndpoint + "/token");
-        HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-        conn.setDoOutput(true);
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        conn.setRequestProperty("api-version", "1.2");
+    /**
+     * Same, caching what {@code convert} makes of the response rather than the
+     * decoded response itself. Concurrent misses share one request and one conversion.
+     */
+    @SuppressWarnings("unchecked")
+    private <T,R> R doCachedGet(final String catalogId, final String urlString, final ObjectReader reader,
+                                final Function<T,R> convert) throws Exception{
+        if (catalogCache.isEnabled()){
+            CatalogCache.Entry entry = catalogCache.get(businessId, catalogId);
+            if (entry != null && entry.isFresh()){
+                catalogCache.recordHit();
+                return (R) entry.value;
+            }
+        }
+        return coalescer.execute(Endpoints.of(urlString), urlString, convert,
+                () -> fetchCached(catalogId, urlString, reader, convert));
+    }
 
-        String postData = "grantType=urn:ietf:params:oauth:grant-type:jwt-bearer";
-        postData += "&assertion=" + getJWT();
-        OutputStream os = conn.getOutputStream();
-        os.write(postData.getBytes());
-        os.flush();
+    @SuppressWarnings("unchecked")
+    private <T,R> R fetchCached(String catalogId, String urlString, ObjectReader reader, Function<T,R> convert)
+            throws Exception{
+        if (!catalogCache.isEnabled()){
+            return convert.apply(this.<T>fetch(urlString, reader));
+        }
+        CatalogCache.Entry entry = catalogCache.get(businessId, catalogId);
+        if (entry != null && entry.isFresh()){
+            // refreshed by a request that finished while this one was being set up
+            catalogCache.recordHit();
+            return (R) entry.value;
+        }
 
-        if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-            throw new RuntimeException("Failed : HTTP error code : "
-                    + conn.getResponseCode());
+        Request.Builder request = newRequest(urlString);
+        if (entry != null){
+            if (entry.etag != null) request.header("If-None-Match", entry.etag);
+            if (entry.lastModified != null) request.header("If-Modified-Since", entry.lastModified);
+        }
+        Response response = execute(request);
+        try {
+            if (response.code() == 304 && entry != null){
+                catalogCache.revalidated(entry);
+                return (R) entry.value;
+            }
+            catalogCache.recordMiss();
+            R value = convert.apply(this.<T>readBody(response, reader));
+            catalogCache.put(businessId, catalogId, value, response.header("ETag"), response.header("Last-Modified"));
+            return value;
+        } finally {
+            response.close();
         }
+    }
 
-        BufferedReader br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
-        String response  = br.readLine();
-        conn.disconnect();
+    public String doPost(String json, String urlString) throws Exception{
+        return doPost(json, urlString, UUID.randomUUID().toString());
+    }
 
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String,String> map  = mapper.readValue(response, Map.class);
-        return map.get("accessToken");
+    /**
+     * Posts with the given Poynt-Request-Id. The server uses it to detect
+     * duplicates, so every attempt of the same logical request must reuse it.
+     */
+    public String doPost(String json, String urlString, String requestId) throws Exception{
+        Response response = post(RequestBody.create(JSON, json), urlString, requestId);
+        String responseString = response.body().string();
+        if (!response.isSuccessful()){
+            throw new PoyntApiException(response.code(), urlString, responseString);
+        }
+        return responseString;
     }
 
-    private String doGet(String urlString) throws Exception{
-        URL url = new URL(urlString);
-        OkHttpClient client = new OkHttpClient();
-        Request request = new Request.Builder()
-                .url(url)
-                .addHeader("api-version", "1.2")
-                .addHeader("Poynt-Request-Id", UUID.randomUUID().toString())
-                .addHeader("Authorization", "Bearer " + accessToken)
-                .build();
-        Response response = client.newCall(request).execute();
-        String jsonResponse = response.body().string();
+    /**
+     * Serializes the payload straight to bytes and decodes the response from
+     * the body's byte stream, without going through intermediate Strings.
+     */
+    private <T> T doPost(Object payload, ObjectWriter writer, String urlString, ObjectReader reader) throws Exception{
+        return doPost(payload, writer, urlString, reader, UUID.randomUUID().toString());
+    }
 
-        if (DEBUG) System.out.println("response status code: " + response.code());
-        if (DEBUG) System.out.println(jsonResponse);
-        return jsonResponse;
+    private <T> T doPost(Object payload, ObjectWriter writer, String urlString, ObjectReader reader,
+                         String requestId) throws Exception{
+        return doPostJson(writer.writeValueAsBytes(payload), urlString, reader, requestId);
     }
 
-    public String doPost(String json, String urlString) throws Exception{
-        URL url = new URL(urlString);
-        OkHttpClient client = new OkHttpClient();
+    private <T> T doPostJson(byte[] json, String urlString, ObjectReader reader, String requestId) throws Exception{
+        Response response = post(RequestBody.create(JSON, json), urlString, requestId);
+        try {
+            return readBody(response, reader);
+        } finally {
+            response.close();
+        }
+    }
 
-        MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-        RequestBody body = RequestBody.create(JSON, json);
-        String requestId = UUID.randomUUID().toString();
-        Request request = new Request.Builder()
-                .url(url)
-                .addHeader("api-version", "1.2")
-                .addHeader("Poynt-Request-Id", requestId)
-                .addHeader("Authorization", "Bearer " + accessToken)
-                .post(body)
-                .build();
+    private Response post(RequestBody body, String urlString, String requestId) throws Exception{
+        return execute(newRequest(urlString, requestId).post(body));
+    }
 
-        Response response  = client.newCall(request).execute();
-        String responseString = response.body().string();
-        if(DEBUG) System.out.println("create customer: " + responseString);
-        return responseString;
+    /**
+     * Decodes a 2xx body; any other status is thrown as PoyntApiException
+     * instead of being fed to Jackson.
+     */
+    <T> T readBody(Response response, ObjectReader reader) throws IOException{
+        if (!response.isSuccessful()){
+            throw new PoyntApiException(response.code(), response.request().url().toString(),
+                    response.body().string());
+        }
+        return reader.readValue(response.body().byteStream());
     }
 
     public List<Catalog> getMerchantCatalogs() throws Exception{
-        String urlString = apiEndpoint + "/businesses/"+ businessId +"/catalogs";
-        ObjectMapper mapper = new ObjectMapper();
-
-        Map<String,List<Catalog>> map  = mapper.readValue(doGet(urlString), new TypeReference<Map<String,List<Catalog>>>(){});
-        if (DEBUG) System.out.println(map.get("catalogs"));
+        Map<String,List<Catalog>> map  = doCachedGet(CatalogCache.ALL_CATALOGS, catalogsUrl(),
+                PoyntJson.CATALOGS_READER);
         return map.get("catalogs");
     }
 
@@ -227,37 +469,155 @@ public class PoyntAPI {
 
     public List<Order> getOrdersForCustomer(String cardFirst6, String cardLast4, String cardExpirationMonth,
                                             String cardExpirationYear) throws Exception{
-        String urlString = apiEndpoint + "/businesses/" + businessId + "/orders";
-        urlString += "?cardNumberFirst6=" + cardFirst6;
-        urlString += "&cardNumberLast4=" + cardLast4;
-        urlString += "&cardExpirationMonth=" + cardExpirationMonth;
-        urlString += "&cardExpirationYear=" + cardExpirationYear;
-
-        ObjectMapper mapper = new ObjectMapper();
-        OrdersResponse ordersResponse = mapper.readValue(doGet(urlString), OrdersResponse.class);
+        String urlString = ordersForCustomerUrl(cardFirst6, cardLast4, cardExpirationMonth, cardExpirationYear);
+        OrdersResponse ordersResponse = doGet(urlString, PoyntJson.ORDERS_RESPONSE_READER);
         return ordersResponse.getOrders();
     }
 
+    /**
+     * Ids and summaries of every order paid with the card, newest first. With
+     * orderIndex.enabled=true this is answered from the local index as long as
+     * it is within orderIndex.maxStalenessMillis of the server and holds the
+     * card's whole history; otherwise the server is asked, all pages of its
+     * answer are read, and they are added to the index as that history.
+     */
+    public List<OrderSummary> getOrderSummariesForCustomer(String cardFirst6, String cardLast4,
+                                                           String cardExpirationMonth, String cardExpirationYear)
+            throws Exception{
+        long card = OrderIndex.cardKey(cardFirst6, cardLast4, cardExpirationMonth, cardExpirationYear);
+        if (orderIndex != null && card != OrderIndex.NO_CARD){
+            List<OrderSummary> indexed = orderIndex.lookup(card);
+            if (indexed != null){
+                return indexed;
+            }
+        }
+        List<Order> orders = new ArrayList<>();
+        try (OrderIterator iterator = iterateOrdersForCustomer(cardFirst6, cardLast4, cardExpirationMonth,
+                cardExpirationYear)) {
+            while (iterator.hasNext()){
+                orders.add(iterator.next());
+            }
+        }
+        List<OrderSummary> summaries = new ArrayList<>(orders.size());
+        for (Order order : orders){
+            summaries.add(OrderSummary.of(order));
+        }
+        Collections.sort(summaries, OrderIndex.NEWEST_FIRST);
+        if (orderIndex != null && card != OrderIndex.NO_CARD){
+            orderIndex.indexHistory(card, orders);
+        }
+        return summaries;
+    }
+
+    /**
+     * One page of an /orders query, limited to orders modified since the given
+     * time; used by the order index sync. A 304 comes back as null.
+     */
+    OrdersResponse getOrdersModifiedSince(String href, long sinceMillis) throws Exception{
+        Request.Builder request = newRequest(resolveUrl(href))
+                .header("If-Modified-Since", HTTP_DATE.format(Instant.ofEpochMilli(sinceMillis)));
+        Response response = execute(request);
+        try {
+            if (response.code() == 304){
+                return null;
+            }
+            return readBody(response, PoyntJson.ORDERS_RESPONSE_READER);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Like getOrdersForCustomer, but returns every matching order, following the
+     * response's next links page by page as the iterator is consumed.
+     */
+    public OrderIterator iterateOrdersForCustomer(String cardFirst6, String cardLast4, String cardExpirationMonth,
+                                                  String cardExpirationYear){
+        return new OrderIterator(getAsyncAPI(),
+                ordersForCustomerUrl(cardFirst6, cardLast4, cardExpirationMonth, cardExpirationYear));
+    }
+
+    /**
+     * Stream view of iterateOrdersForCustomer. Close the stream if it is not
+     * consumed to the end, to drop the prefetched page.
+     */
+    public Stream<Order> streamOrdersForCustomer(String cardFirst6, String cardLast4, String cardExpirationMonth,
+                                                 String cardExpirationYear){
+        return iterateOrdersForCustomer(cardFirst6, cardLast4, cardExpirationMonth, cardExpirationYear).stream();
+    }
+
+    /**
+     * Every order of the business created between the two times, both
+     * inclusive, fetched {@code limit} per page as the iterator is consumed.
+     */
+    public OrderIterator iterateOrders(Instant startAt, Instant endAt, int limit){
+        return new OrderIterator(getAsyncAPI(), ordersBetweenUrl(startAt, endAt, limit));
+    }
+
+    /**
+     * The order as it is now, e.g. after a webhook reported a change to it.
+     */
+    public Order getOrder(String orderId) throws Exception{
+        return doGet(orderUrl(orderId), PoyntJson.ORDER_READER);
+    }
+
     public Order createOrder(Long customerId, String orderId) throws Exception{
-        String endpoint = apiEndpoint + "/businesses/" + businessId + "/orders?process=true";
+        String endpoint = ordersUrl() + "?process=true";
+        Order newOrder = doPostJson(orderPayload(customerId, orderId), endpoint, PoyntJson.ORDER_READER,
+                UUID.randomUUID().toString());
+        return indexed(newOrder);
+    }
 
-        long amount = 100l;
-        float quantity = 10.0f;
+    /**
+     * Creates an order with the given lines, e.g. from
+     * {@link CompactCatalog#orderItem(String, float)}; the sub total is the sum
+     * of unit price times quantity.
+     */
+    public Order createOrder(Long customerId, String orderId, List<OrderItem> items) throws Exception{
+        Order newOrder = doPost(buildOrder(customerId, orderId, items), PoyntJson.ORDER_WRITER,
+                ordersUrl() + "?process=true", PoyntJson.ORDER_READER);
+        return indexed(newOrder);
+    }
 
-        Order order = new Order();
+    /**
+     * Journals the order in the outbox and returns without waiting for the API;
+     * the outbox creates it in the background. An id is assigned here if none
+     * is given, so the caller can refer to the order straight away.
+     *
+     * @return the order id
+     */
+    public String enqueueOrder(Long customerId, String orderId) throws Exception{
+        if (orderId == null){
+            orderId = UUID.randomUUID().toString();
+        }
+        requireOutbox().enqueue(Outbox.ORDER, orderPayload(customerId, orderId));
+        return orderId;
+    }
 
-        if (orderId != null){
-            order.setId(UUID.fromString(orderId));
+    /**
+     * Outbox variant of {@link #createOrder(Long, String, List)}.
+     *
+     * @return the order id
+     */
+    public String enqueueOrder(Long customerId, String orderId, List<OrderItem> items) throws Exception{
+        if (orderId == null){
+            orderId = UUID.randomUUID().toString();
         }
+        requireOutbox().enqueue(Outbox.ORDER,
+                PoyntJson.ORDER_WRITER.writeValueAsBytes(buildOrder(customerId, orderId, items)));
+        return orderId;
+    }
 
-        ClientContext context = new ClientContext();
-        context.setBusinessId(UUID.fromString(businessId));
-        context.setSource(TransactionSource.MOBILE);
+    private Outbox requireOutbox(){
+        if (outbox == null){
+            throw new IllegalStateException("The outbox is off; set outbox.enabled=true");
+        }
+        return outbox;
+    }
 
-        // This will send a push notification to the terminals in the store
-        context.setStoreDeviceId(applicationId);
-        context.setStoreId(UUID.fromString(storeId));
-        order.setContext(context);
+    Order buildOrder(Long customerId, String orderId){
+        long amount = 100l;
+        float quantity = 10.0f;
 
         List<OrderItem> items = new ArrayList<>();
         OrderItem item = new OrderItem();
@@ -277,9 +637,26 @@ public class PoyntAPI {
 */
 
         items.add(item);
-        order.setItems(items);
+        return buildOrder(customerId, orderId, items);
+    }
+
+    Order buildOrder(Long customerId, String orderId, List<OrderItem> items){
+        Order order = new Order();
+
+        if (orderId != null){
+            order.setId(UUID.fromString(orderId));
+        }
+
+        ClientContext context = new ClientContext();
+        context.setBusinessId(UUID.fromString(businessId));
+        context.setSource(TransactionSource.MOBILE);
 
+        // This will send a push notification to the terminals in the store
+        context.setStoreDeviceId(applicationId);
+        context.setStoreId(UUID.fromString(storeId));
+        order.setContext(context);
 
+        order.setItems(items);
 
         OrderStatuses orderStatuses = new OrderStatuses();
         orderStatuses.setStatus(OrderStatus.OPENED);
@@ -288,7 +665,13 @@ public class PoyntAPI {
 
         OrderAmounts orderAmounts = new OrderAmounts();
         orderAmounts.setCurrency("USD");
-        orderAmounts.setSubTotal(new Long(amount*(long)quantity));
+        long subTotal = 0;
+        for (OrderItem line : items){
+            if (line.getUnitPrice() != null && line.getQuantity() != null){
+                subTotal += Math.round(line.getUnitPrice() * (double) line.getQuantity());
+            }
+        }
+        orderAmounts.setSubTotal(subTotal);
 
 /*
 
@@ -309,19 +692,36 @@ public class PoyntAPI {
         if (customerId != null) {
             order.setCustomerUserId(customerId);
         }
+        return order;
+    }
 
-        ObjectMapper om = new ObjectMapper();
 
-        String response = doPost(om.writeValueAsString(order), endpoint);
+    public Long createCustomer(String firstName, String lastName, String imageUrl) throws Exception{
+        Customer customer = buildCustomer(firstName, lastName, imageUrl);
+        Customer newCustomer = doPost(customer, PoyntJson.CUSTOMER_WRITER, customersUrl(), PoyntJson.CUSTOMER_READER);
+        return newCustomer.getId();
+    }
 
-        Order newOrder = om.readValue(response, Order.class);
-        if (DEBUG) System.out.println(newOrder);
-        return newOrder;
+    /**
+     * Creates a caller-built customer. Pass the same requestId when resending,
+     * so the server does not create the customer twice.
+     */
+    public Customer createCustomer(Customer customer, String requestId) throws Exception{
+        return doPost(customer, PoyntJson.CUSTOMER_WRITER, customersUrl(), PoyntJson.CUSTOMER_READER, requestId);
     }
 
+    /**
+     * Journals the customer in the outbox and returns without waiting for the
+     * API. The customer id is assigned by the server when the outbox delivers it.
+     *
+     * @return the Poynt-Request-Id the customer will be created with
+     */
+    public UUID enqueueCustomer(String firstName, String lastName, String imageUrl) throws Exception{
+        return requireOutbox().enqueue(Outbox.CUSTOMER,
+                PoyntJson.CUSTOMER_WRITER.writeValueAsBytes(buildCustomer(firstName, lastName, imageUrl)));
+    }
 
-    public Long createCustomer(String firstName, String lastName, String imageUrl) throws Exception{
-        String urlString = apiEndpoint + "/businesses/" + businessId + "/customers";
+    static Customer buildCustomer(String firstName, String lastName, String imageUrl){
         Customer customer = new Customer();
 
         customer.setFirstName(firstName);
@@ -330,23 +730,18 @@ public class PoyntAPI {
         Map<String, String> attributes = new HashMap<>();
         attributes.put("imageUrl", imageUrl);
         customer.setAttributes(attributes);
-
-        ObjectMapper om = new ObjectMapper();
-        String customerJson = om.writeValueAsString(customer);
-
-
-        System.out.println(customerJson);
-
-        String response = doPost(customerJson, urlString);
-
-        Customer newCustomer = om.readValue(response, Customer.class);
-        return newCustomer.getId();
+        return customer;
     }
 
     public Customer createCustomerWithCard(String firstName, String lastName, String cardNumber, int expMonth, int expYear)
             throws Exception{
-        String urlString = apiEndpoint + "/businesses/" + businessId + "/customers";
+        Customer customer = buildCustomerWithCard(firstName, lastName, cardNumber, expMonth, expYear);
+        Customer newCustomer = doPost(customer, PoyntJson.CUSTOMER_WRITER, customersUrl(), PoyntJson.CUSTOMER_READER);
+        return newCustomer;
+    }
 
+    static Customer buildCustomerWithCard(String firstName, String lastName, String cardNumber, int expMonth,
+                                          int expYear){
         Customer customer = new Customer();
 
         customer.setFirstName(firstName);
@@ -360,35 +755,18 @@ public class PoyntAPI {
         card.setExpirationYear(expYear);
 
         customer.setCards(Collections.singletonList(card));
-
-        ObjectMapper om = new ObjectMapper();
-        String customerJson = om.writeValueAsString(customer);
-        if (DEBUG) System.out.println("Customer request: " + customerJson);
-
-        String response = doPost(customerJson, urlString);
-        if (DEBUG) System.out.println("Customer Response: " + response);
-        Customer newCustomer = om.readValue(response, Customer.class);
-        return newCustomer;
+        return customer;
     }
 
     public Business getBusinessByStoreDeviceId() throws Exception{
-        String urlString = apiEndpoint + "/businesses/?storeDeviceId=" + storeDeviceId;
-        String response = doGet(urlString);
-        ObjectMapper om = new ObjectMapper();
-        Business biz = om.readValue(response, Business.class);
-
-        if (DEBUG) System.out.println(biz);
-
-        return biz;
+        return doGet(businessByStoreDeviceUrl(), PoyntJson.BUSINESS_READER);
     }
 
     public List<StoreDevice> getStoreDevices() throws Exception{
-        String urlString = apiEndpoint + "/businesses/" + businessId + "/stores/" + storeId + "/storeDevices";
-        if(DEBUG) System.out.println("getStoreDevices url: " + urlString);
-        String response = doGet(urlString);
-        ObjectMapper om = new ObjectMapper();
-        if(DEBUG) System.out.println("store: " + response);
-        List<StoreDevice> allTerminals = om.readValue(response, new TypeReference<List<StoreDevice>>(){});
+        return activeTerminals(doGet(storeDevicesUrl(), PoyntJson.STORE_DEVICES_READER));
+    }
+
+    static List<StoreDevice> activeTerminals(List<StoreDevice> allTerminals){
         List<StoreDevice> activeTerminals = new ArrayList<>();
         for (StoreDevice terminal : allTerminals){
             if (terminal.getStatus() == StoreDeviceStatus.ACTIVATED){
@@ -399,12 +777,63 @@ public class PoyntAPI {
     }
 
     public Catalog getStoreDeviceCatalog() throws Exception{
-        String storeCatalogId = getStoreDevices().get(0).getCatalogId();
-        String urlString = apiEndpoint + "/businesses/" + businessId + "/catalogs/" + storeCatalogId;
-        if (DEBUG) System.out.println("store device catalog url: " + urlString);
-        String response = doGet(urlString);
-        ObjectMapper om = new ObjectMapper();
-        return om.readValue(response, Catalog.class);
+        String storeCatalogId = getStoreCatalogId();
+        return doCachedGet(storeCatalogId, catalogUrl(storeCatalogId), PoyntJson.CATALOG_READER);
+    }
+
+    /**
+     * Compact view of the catalog with its products (names, SKUs, prices),
+     * fetched from .../catalogs/{id}/full. Cached and revalidated like the
+     * catalogs themselves, but only the compact view is kept, not the decoded graph.
+     */
+    public CompactCatalog getCompactCatalog(String catalogId) throws Exception{
+        return doCachedGet(catalogId + "/full", catalogUrl(catalogId) + "/full",
+                PoyntJson.CATALOG_WITH_PRODUCT_READER, COMPACT);
+    }
+
+    /**
+     * Compact view of the store terminal's catalog, see getStoreDeviceCatalog.
+     */
+    public CompactCatalog getCompactCatalog() throws Exception{
+        return getCompactCatalog(getStoreCatalogId());
+    }
+
+    /**
+     * The terminal list only tells us which catalog the store uses; remember
+     * that for as long as catalogs themselves are cached.
+     */
+    private String getStoreCatalogId() throws Exception{
+        String catalogId = storeCatalogId;
+        if (catalogId != null && System.currentTimeMillis() < storeCatalogIdExpiresAt){
+            return catalogId;
+        }
+        return rememberStoreCatalogId(getStoreDevices().get(0).getCatalogId());
+    }
+
+    /**
+     * Same as getStoreCatalogId, for PoyntAsyncAPI: the terminal list is only
+     * fetched, without blocking, when the remembered id has expired.
+     */
+    CompletableFuture<String> getStoreCatalogIdAsync(){
+        String catalogId = storeCatalogId;
+        if (catalogId != null && System.currentTimeMillis() < storeCatalogIdExpiresAt){
+            return CompletableFuture.completedFuture(catalogId);
+        }
+        return getAsyncAPI().getStoreDevices()
+                .thenApply(devices -> rememberStoreCatalogId(devices.get(0).getCatalogId()));
+    }
+
+    private String rememberStoreCatalogId(String catalogId){
+        storeCatalogIdExpiresAt = System.currentTimeMillis() + catalogCache.getTtlMillis();
+        storeCatalogId = catalogId;
+        return catalogId;
+    }
+
+    /**
+     * The transaction as it is now, e.g. after a webhook reported a change to it.
+     */
+    public Transaction getTransaction(String transactionId) throws Exception{
+        return doGet(transactionUrl(transactionId), PoyntJson.TRANSACTION_READER);
     }
 
     public Transaction createTransaction(String orderId) throws Exception{
@@ -443,36 +872,115 @@ public class PoyntAPI {
               }
          */
 
-        String urlString = apiEndpoint + "/businesses/" + businessId + "/transactions";
+        byte[] transaction = transactionPayload(orderId, getTransactionAction());
+        Transaction newTransaction = doPostJson(transaction, transactionsUrl(), PoyntJson.TRANSACTION_READER,
+                UUID.randomUUID().toString());
+        return indexed(newTransaction, orderId);
+    }
+
+    /**
+     * createOrder body: from the pre-compiled template, or by serializing buildOrder.
+     */
+    byte[] orderPayload(Long customerId, String orderId) throws IOException{
+        PayloadTemplates templates = getPayloadTemplates();
+        if (templates == null){
+            return PoyntJson.ORDER_WRITER.writeValueAsBytes(buildOrder(customerId, orderId));
+        }
+        return templates.order(customerId, orderId);
+    }
+
+    /**
+     * createTransaction body: from the pre-compiled template, or by serializing buildTransaction.
+     */
+    byte[] transactionPayload(String orderId, TransactionAction action) throws IOException{
+        PayloadTemplates templates = getPayloadTemplates();
+        if (templates == null){
+            return PoyntJson.TRANSACTION_WRITER.writeValueAsBytes(buildTransaction(orderId, action));
+        }
+        return templates.transaction(action, orderId, TRANSACTION_AMOUNT, System.currentTimeMillis());
+    }
+
+    /**
+     * Feeds a created order / transaction to the order index, if there is one.
+     */
+    Order indexed(Order order){
+        if (orderIndex != null && order != null){
+            orderIndex.index(order);
+        }
+        return order;
+    }
 
-        Transaction transaction = generateTransaction();
+    Transaction indexed(Transaction transaction, String orderId){
+        if (orderIndex != null && transaction != null){
+            orderIndex.index(transaction, orderId);
+        }
+        return transaction;
+    }
+
+    private PayloadTemplates getPayloadTemplates() throws IOException{
+        if (!usePayloadTemplates){
+            return null;
+        }
+        PayloadTemplates templates = payloadTemplates;
+        if (templates == null){
+            // racing first callers compile identical templates; one of them is kept
+            templates = new PayloadTemplates(this);
+            payloadTemplates = templates;
+        }
+        return templates;
+    }
+
+    /**
+     * Submits a caller-built transaction. Pass the same requestId when replaying
+     * the same logical transaction so the server does not charge it twice.
+     */
+    public Transaction createTransaction(Transaction transaction, String orderId, String requestId) throws Exception{
+        addOrderReference(transaction, orderId);
+        Transaction newTransaction = doPost(transaction, PoyntJson.TRANSACTION_WRITER, transactionsUrl(),
+                PoyntJson.TRANSACTION_READER, requestId);
+        return indexed(newTransaction, orderId);
+    }
+
+    Transaction buildTransaction(String orderId) throws Exception{
+        return buildTransaction(orderId, getTransactionAction());
+    }
+
+    Transaction buildTransaction(String orderId, TransactionAction action){
+        Transaction transaction = generateTransaction(action);
+        addOrderReference(transaction, orderId);
+        return transaction;
+    }
 
+    /**
+     * Adds a POYNT_ORDER reference unless the transaction already carries it,
+     * so resubmitting the same Transaction object does not duplicate it.
+     */
+    static void addOrderReference(Transaction transaction, String orderId){
         if (orderId != null){
+            List<TransactionReference> references = transaction.getReferences();
+            if (references != null){
+                for (TransactionReference reference : references){
+                    if (reference.getType() == TransactionReferenceType.POYNT_ORDER && orderId.equals(reference.getId())){
+                        return;
+                    }
+                }
+            }
             TransactionReference orderReference = new TransactionReference();
             orderReference.setType(TransactionReferenceType.POYNT_ORDER);
             orderReference.setId(orderId.toString());
-            if (transaction.getReferences() != null){
-                transaction.getReferences().add(orderReference);
+            if (references != null){
+                references = new ArrayList<>(references);
+                references.add(orderReference);
+                transaction.setReferences(references);
             }else {
                 transaction.setReferences(Collections.singletonList(orderReference));
             }
         }
-
-
-
-        ObjectMapper om = new ObjectMapper();
-        String transactionJson = om.writeValueAsString(transaction);
-        if (DEBUG) System.out.println("Transaction request: " + transactionJson);
-
-        String response = doPost(transactionJson, urlString);
-        if (DEBUG) System.out.println("Transaction Response: " + response);
-        Transaction newTransaction = om.readValue(response, Transaction.class);
-        return newTransaction;
     }
 
-    private Transaction generateTransaction(){
+    private Transaction generateTransaction(TransactionAction action){
         Transaction transaction = new Transaction();
-        transaction.setAction(transactionAction);
+        transaction.setAction(action);
 
         FundingSource fs = new FundingSource();
         fs.setType(FundingSourceType.CREDIT_DEBIT);
@@ -508,8 +1016,8 @@ public class PoyntAPI {
 
         TransactionAmounts amounts = new TransactionAmounts();
         amounts.setCurrency("USD");
-        amounts.setTransactionAmount(1000l);
-        amounts.setOrderAmount(1000l);
+        amounts.setTransactionAmount(TRANSACTION_AMOUNT);
+        amounts.setOrderAmount(TRANSACTION_AMOUNT);
         amounts.setTipAmount(0l);
         transaction.setAmounts(amounts);
 
@@ -523,73 +1031,181 @@ public class PoyntAPI {
         return transaction;
     }
 
-    public static void main(String[] args) {
+    //region urls
+    String storeUrl(){
+        return apiEndpoint + "/businesses/" + businessId + "/stores/" + storeId;
+    }
 
-        try {
-            PoyntAPI api = new PoyntAPI();
+    String storeDevicesUrl(){
+        return storeUrl() + "/storeDevices";
+    }
 
+    String catalogsUrl(){
+        return apiEndpoint + "/businesses/" + businessId + "/catalogs";
+    }
 
-/*            List<Catalog> catalogs = api.getMerchantCatalogs();
-            if (catalogs != null && catalogs.size() > 0){
-                Catalog catalog = catalogs.get(0);
-                for (Category category : catalog.getCategories()){
-                    System.out.println("category: " + category.getName());
-                }
-            }*/
-
-            /*
-             * Pull merchant catalog
-             * For simplicity assuming that business has only one catalog
-             */
-            Catalog catalog = api.getMerchantCatalog();
-            if (catalog != null){
-                for (Category category : catalog.getCategories()){
-                    System.out.println("category: " + category.getName());
-                }
-            }
+    String catalogUrl(String catalogId){
+        return catalogsUrl() + "/" + catalogId;
+    }
 
-            /*
-             * Filter orders by customer's card
-             */
-            List<Order> orders = api.getOrdersForCustomer("411111","1111","12","2020");
-            if (orders != null) {
-                for (Order order : orders){
-                    System.out.println("found order: " + order.getId());
-                }
-            }
+    String ordersUrl(){
+        return apiEndpoint + "/businesses/" + businessId + "/orders";
+    }
+
+    String orderUrl(String orderId){
+        return ordersUrl() + "/" + orderId;
+    }
+
+    String ordersForCustomerUrl(String cardFirst6, String cardLast4, String cardExpirationMonth,
+                                String cardExpirationYear){
+        String urlString = ordersUrl();
+        urlString += "?cardNumberFirst6=" + cardFirst6;
+        urlString += "&cardNumberLast4=" + cardLast4;
+        urlString += "&cardExpirationMonth=" + cardExpirationMonth;
+        urlString += "&cardExpirationYear=" + cardExpirationYear;
+        return urlString;
+    }
+
+    String ordersBetweenUrl(Instant startAt, Instant endAt, int limit){
+        return ordersUrl() + "?startAt=" + DateTimeFormatter.ISO_INSTANT.format(startAt)
+                + "&endAt=" + DateTimeFormatter.ISO_INSTANT.format(endAt)
+                + "&limit=" + limit;
+    }
+
+    String customersUrl(){
+        return apiEndpoint + "/businesses/" + businessId + "/customers";
+    }
+
+    String transactionsUrl(){
+        return apiEndpoint + "/businesses/" + businessId + "/transactions";
+    }
+
+    String transactionUrl(String transactionId){
+        return transactionsUrl() + "/" + transactionId;
+    }
 
-            /*
-             * Create new Customer
-             */
-            long customerId = api.createCustomer("John", "Smith", "https://pbs.twimg.com/media/ChfXfnMUoAAmQl5.jpg");
+    String businessByStoreDeviceUrl(){
+        return apiEndpoint + "/businesses/?storeDeviceId=" + storeDeviceId;
+    }
+
+    String resolveUrl(String href){
+        if (href.startsWith("http://") || href.startsWith("https://")){
+            return href;
+        }
+        return apiEndpoint + (href.startsWith("/") ? "" : "/") + href;
+    }
+    //endregion
+
+    public CatalogCache getCatalogCache() {
+        return catalogCache;
+    }
+
+    synchronized PoyntAsyncAPI getAsyncAPI() {
+        if (asyncAPI == null){
+            asyncAPI = new PoyntAsyncAPI(this);
+        }
+        return asyncAPI;
+    }
+
+    HttpTransport getTransport() {
+        return transport;
+    }
+
+    public ResiliencePolicy getResiliencePolicy() {
+        return resilience;
+    }
+
+    /**
+     * Counts the GETs answered by another caller's identical in-flight request.
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Null unless orderIndex.enabled=true.
+     */
+    public OrderIndex getOrderIndex() {
+        return orderIndex;
+    }
 
+    /**
+     * Null unless outbox.enabled=true.
+     */
+    public Outbox getOutbox() {
+        return outbox;
+    }
 
-            /*
-             * Create customer with card info
-             */
-            //Customer customerWithCard = api.createCustomerWithCard("John", "Smith", "4111111111111111", 1, 2020);
+    /**
+     * Null unless log.requests=true or debug=true.
+     */
+    public RequestLog getRequestLog() {
+        return requestLog;
+    }
 
+    /**
+     * Per-endpoint request counts, errors by status, bytes and latency
+     * percentiles; an InMemoryMetricsRegistry unless metrics.registry is set.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
 
-            /*
-             * Look up business by terminal (storeDevice) id
-             */
-            Business business = api.getBusinessByStoreDeviceId();
+    void touch(){
+        lastUsedMillis = System.currentTimeMillis();
+    }
 
+    long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
 
-            String orderId = UUID.randomUUID().toString();
-            /*
-             * Create a transaction by posting card details to Poynt server
-             */
-            Transaction transaction = api.createTransaction(orderId);
+    public String getBusinessId() {
+        return businessId;
+    }
+
+    public String getStoreId() {
+        return storeId;
+    }
 
-            /*
-             * Create and push new order to the store
-             */
-            Order newOrder = api.createOrder(customerId, orderId);
+    public String getStoreDeviceId() {
+        return storeDeviceId;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    TokenManager getTokenManager() {
+        return tokenManager;
+    }
+
+    /**
+     * Stops background token renewal and, unless this is a PoyntTenants
+     * handle, releases the transport's threads and idle connections and writes
+     * out the request log. The outbox finishes its batch in flight first; the
+     * rest waits in the journal.
+     */
+    @Override
+    public void close(){
+        if (outbox != null){
+            outbox.close();
+        }
+        if (tokenManager != null){
+            tokenManager.close();
+        }
+        if (orderIndex != null){
+            orderIndex.close();
         }
+        if (ownsTransport){
+            if (transport != null){
+                transport.close();
+            }
+            if (requestLog != null){
+                requestLog.close();
+            }
+        }
+    }
 
+    /**
+     * Runs the demo scenario through the load generator; see LoadGenerator for options.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator.main(args);
     }
 }
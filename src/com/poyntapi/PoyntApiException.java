@@ -0,0 +1,35 @@
+package com.poyntapi;
+
+import java.io.IOException;
+
+/**
+ * The Poynt API answered with a non-2xx status. Carries the status code and
+ * the (truncated) response body so callers don't have to guess from a JSON
+ * parse failure what went wrong.
+ */
+public class PoyntApiException extends IOException {
+
+    private static final int MAX_BODY_LENGTH = 512;
+
+    private final int statusCode;
+    private final String responseBody;
+
+    public PoyntApiException(int statusCode, String url, String responseBody) {
+        super("HTTP " + statusCode + " from " + url
+                + (responseBody == null || responseBody.isEmpty() ? "" : ": " + truncate(responseBody)));
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    private static String truncate(String body){
+        return body.length() <= MAX_BODY_LENGTH ? body : body.substring(0, MAX_BODY_LENGTH) + "...";
+    }
+}
@@ -0,0 +1,331 @@
+package com.poyntapi;
+
+import co.poynt.api.model.*;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.poyntapi.model.OrdersResponse;
+import com.poyntapi.resilience.ResiliencePolicy;
+import com.poyntapi.transport.HttpTransport;
+import okhttp3.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Non-blocking companion to {@link PoyntAPI}. Every operation returns a
+ * CompletableFuture and is sent with the transport's {@code enqueue}, so the
+ * calling thread is released immediately.
+ *
+ * Requests run on the transport's executor (the caller's, if one is supplied),
+ * at most {@code maxRequestsPerHost} at a time; with OkHttp the rest wait in the
+ * dispatcher queue without holding a thread. Note that both OkHttp 3 and Apache
+ * HttpClient occupy one executor thread per executing call, so the executor
+ * size bounds real concurrency.
+ *
+ * Futures complete on the executor thread. Dependent stages that do real work
+ * should use the *Async variants so they don't hold up the executor.
+ *
+ * Shares the transport's connections, the token and the resilience policy
+ * (retries, circuit breakers, hedging) of the PoyntAPI it is created from.
+ */
+public class PoyntAsyncAPI {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final PoyntAPI api;
+    private final HttpTransport transport;
+    private final TokenManager tokenManager;
+    private final ResiliencePolicy resilience;
+
+    public PoyntAsyncAPI(PoyntAPI api){
+        this(api, api.getTransport());
+    }
+
+    /**
+     * @param executor runs the HTTP calls and completes the futures
+     * @param maxRequestsPerHost in-flight cap towards the Poynt API; further calls are queued
+     */
+    public PoyntAsyncAPI(PoyntAPI api, ExecutorService executor, int maxRequestsPerHost){
+        this(api, api.getTransport().withExecutor(executor, maxRequestsPerHost));
+    }
+
+    private PoyntAsyncAPI(PoyntAPI api, HttpTransport transport){
+        this.api = api;
+        this.tokenManager = api.getTokenManager();
+        this.resilience = api.getResiliencePolicy();
+        this.transport = transport;
+    }
+
+    public CompletableFuture<Store> getStore(){
+        return get(api.storeUrl(), PoyntJson.STORE_READER);
+    }
+
+    public CompletableFuture<List<Catalog>> getMerchantCatalogs(){
+        return this.<Map<String,List<Catalog>>>get(api.catalogsUrl(), PoyntJson.CATALOGS_READER)
+                .thenApply(map -> map.get("catalogs"));
+    }
+
+    public CompletableFuture<Catalog> getMerchantCatalog(){
+        return getMerchantCatalogs().thenApply(catalogs -> catalogs.get(0));
+    }
+
+    public CompletableFuture<List<Order>> getOrdersForCustomer(String cardFirst6, String cardLast4,
+                                                               String cardExpirationMonth, String cardExpirationYear){
+        String urlString = api.ordersForCustomerUrl(cardFirst6, cardLast4, cardExpirationMonth, cardExpirationYear);
+        return this.<OrdersResponse>get(urlString, PoyntJson.ORDERS_RESPONSE_READER)
+                .thenApply(OrdersResponse::getOrders);
+    }
+
+    /**
+     * Fetches one page of an /orders query. {@code href} may be absolute or
+     * relative to the API endpoint, as found in the rel=next link.
+     */
+    public CompletableFuture<OrdersResponse> getOrdersPage(String href){
+        return get(api.resolveUrl(href), PoyntJson.ORDERS_RESPONSE_READER);
+    }
+
+    /**
+     * Same request as getOrdersPage, not shared with other callers and left
+     * undecoded, for a caller that may give up on the page and has to close it.
+     */
+    CompletableFuture<Response> getOrdersPageResponse(String href){
+        try {
+            return execute(api.newRequest(api.resolveUrl(href)));
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    OrdersResponse decodeOrdersPage(Response response){
+        return decode(response, PoyntJson.ORDERS_RESPONSE_READER);
+    }
+
+    public CompletableFuture<Order> createOrder(Long customerId, String orderId){
+        try {
+            return this.<Order>postJson(api.orderPayload(customerId, orderId), api.ordersUrl() + "?process=true",
+                    PoyntJson.ORDER_READER, UUID.randomUUID().toString())
+                    .thenApply(api::indexed);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    public CompletableFuture<Long> createCustomer(String firstName, String lastName, String imageUrl){
+        return this.<Customer>post(PoyntAPI.buildCustomer(firstName, lastName, imageUrl), PoyntJson.CUSTOMER_WRITER,
+                api.customersUrl(), PoyntJson.CUSTOMER_READER)
+                .thenApply(Customer::getId);
+    }
+
+    /**
+     * Creates a caller-built customer with a fixed Poynt-Request-Id, so a
+     * resent request is recognised by the server instead of creating a duplicate.
+     */
+    public CompletableFuture<Customer> createCustomer(Customer customer, String requestId){
+        return post(customer, PoyntJson.CUSTOMER_WRITER, api.customersUrl(), PoyntJson.CUSTOMER_READER, requestId);
+    }
+
+    public CompletableFuture<Customer> createCustomerWithCard(String firstName, String lastName, String cardNumber,
+                                                              int expMonth, int expYear){
+        return post(PoyntAPI.buildCustomerWithCard(firstName, lastName, cardNumber, expMonth, expYear),
+                PoyntJson.CUSTOMER_WRITER, api.customersUrl(), PoyntJson.CUSTOMER_READER);
+    }
+
+    public CompletableFuture<Business> getBusinessByStoreDeviceId(){
+        return get(api.businessByStoreDeviceUrl(), PoyntJson.BUSINESS_READER);
+    }
+
+    public CompletableFuture<List<StoreDevice>> getStoreDevices(){
+        return this.<List<StoreDevice>>get(api.storeDevicesUrl(), PoyntJson.STORE_DEVICES_READER)
+                .thenApply(PoyntAPI::activeTerminals);
+    }
+
+    /**
+     * Through the catalog cache and the remembered store catalog id, both shared
+     * with the blocking PoyntAPI.getStoreDeviceCatalog.
+     */
+    public CompletableFuture<Catalog> getStoreDeviceCatalog(){
+        return api.getStoreCatalogIdAsync().thenCompose(catalogId ->
+                cachedGet(catalogId, api.catalogUrl(catalogId), PoyntJson.CATALOG_READER,
+                        Function.<Catalog>identity()));
+    }
+
+    /**
+     * Through the catalog cache, shared with the blocking PoyntAPI.getCompactCatalog.
+     */
+    public CompletableFuture<CompactCatalog> getCompactCatalog(String catalogId){
+        return cachedGet(catalogId + "/full", api.catalogUrl(catalogId) + "/full",
+                PoyntJson.CATALOG_WITH_PRODUCT_READER, PoyntAPI.COMPACT);
+    }
+
+    public CompletableFuture<Transaction> createTransaction(String orderId){
+        return api.getTransactionActionAsync().thenCompose(action -> {
+            try {
+                return this.<Transaction>postJson(api.transactionPayload(orderId, action), api.transactionsUrl(),
+                        PoyntJson.TRANSACTION_READER, UUID.randomUUID().toString())
+                        .thenApply(transaction -> api.indexed(transaction, orderId));
+            } catch (Exception e) {
+                return failed(e);
+            }
+        });
+    }
+
+    /**
+     * Submits a caller-built transaction with a fixed Poynt-Request-Id, see
+     * {@link PoyntAPI#createTransaction(Transaction, String, String)}.
+     */
+    public CompletableFuture<Transaction> createTransaction(Transaction transaction, String orderId, String requestId){
+        PoyntAPI.addOrderReference(transaction, orderId);
+        return this.<Transaction>post(transaction, PoyntJson.TRANSACTION_WRITER, api.transactionsUrl(),
+                PoyntJson.TRANSACTION_READER, requestId)
+                .thenApply(created -> api.indexed(created, orderId));
+    }
+
+    /**
+     * Shares the request with identical in-flight GETs, sync or async, where
+     * the PoyntAPI's request coalescer applies.
+     */
+    private <T> CompletableFuture<T> get(final String urlString, final ObjectReader reader){
+        return api.getRequestCoalescer().executeAsync(Endpoints.of(urlString), urlString, reader,
+                () -> this.<T>fetch(urlString, reader));
+    }
+
+    /**
+     * Async counterpart of PoyntAPI.doCachedGet: fresh entries complete at once,
+     * expired ones are revalidated with If-None-Match / If-Modified-Since, and
+     * concurrent misses share one request and one conversion.
+     */
+    @SuppressWarnings("unchecked")
+    private <T,R> CompletableFuture<R> cachedGet(final String catalogId, final String urlString,
+                                                 final ObjectReader reader, final Function<T,R> convert){
+        CatalogCache cache = api.getCatalogCache();
+        if (cache.isEnabled()){
+            CatalogCache.Entry entry = cache.get(api.getBusinessId(), catalogId);
+            if (entry != null && entry.isFresh()){
+                cache.recordHit();
+                return CompletableFuture.completedFuture((R) entry.value);
+            }
+        }
+        return api.getRequestCoalescer().executeAsync(Endpoints.of(urlString), urlString, convert,
+                () -> fetchCached(catalogId, urlString, reader, convert));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T,R> CompletableFuture<R> fetchCached(final String catalogId, String urlString, final ObjectReader reader,
+                                                   final Function<T,R> convert){
+        final CatalogCache cache = api.getCatalogCache();
+        if (!cache.isEnabled()){
+            return this.<T>fetch(urlString, reader).thenApply(convert);
+        }
+        final CatalogCache.Entry entry = cache.get(api.getBusinessId(), catalogId);
+        if (entry != null && entry.isFresh()){
+            // refreshed by a request that finished while this one was being set up
+            cache.recordHit();
+            return CompletableFuture.completedFuture((R) entry.value);
+        }
+        Request.Builder request;
+        try {
+            request = api.newRequest(urlString);
+        } catch (Exception e) {
+            return failed(e);
+        }
+        if (entry != null){
+            if (entry.etag != null) request.header("If-None-Match", entry.etag);
+            if (entry.lastModified != null) request.header("If-Modified-Since", entry.lastModified);
+        }
+        return execute(request).thenApply(response -> {
+            try {
+                if (response.code() == 304 && entry != null){
+                    cache.revalidated(entry);
+                    return (R) entry.value;
+                }
+                cache.recordMiss();
+                R value = convert.apply(api.<T>readBody(response, reader));
+                cache.put(api.getBusinessId(), catalogId, value, response.header("ETag"),
+                        response.header("Last-Modified"));
+                return value;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                response.close();
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> fetch(String urlString, ObjectReader reader){
+        try {
+            return send(api.newRequest(urlString), reader);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private <T> CompletableFuture<T> post(Object payload, ObjectWriter writer, String urlString, ObjectReader reader){
+        return post(payload, writer, urlString, reader, UUID.randomUUID().toString());
+    }
+
+    private <T> CompletableFuture<T> post(Object payload, ObjectWriter writer, String urlString, ObjectReader reader,
+                                          String requestId){
+        try {
+            return postJson(writer.writeValueAsBytes(payload), urlString, reader, requestId);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    <T> CompletableFuture<T> postJson(byte[] json, String urlString, ObjectReader reader, String requestId)
+            throws Exception{
+        RequestBody body = RequestBody.create(JSON, json);
+        return send(api.newRequest(urlString, requestId).post(body), reader);
+    }
+
+    private <T> CompletableFuture<T> send(final Request.Builder request, final ObjectReader reader){
+        return execute(request).thenApply(response -> this.<T>decode(response, reader));
+    }
+
+    private CompletableFuture<Response> execute(final Request.Builder request){
+        api.touch();
+        final String endpoint = Endpoints.of(request.build().url());
+        return resilience.executeAsync(endpoint, () -> authenticated(endpoint, request, true));
+    }
+
+    /**
+     * Same contract as PoyntAPI.executeAuthenticated: a 401 invalidates the token
+     * and the request is sent once more with a new one.
+     */
+    private CompletableFuture<Response> authenticated(final String endpoint, final Request.Builder request,
+                                                      final boolean retryOnUnauthorized){
+        return tokenManager.getAccessTokenAsync(transport.executorService())
+                .thenCompose(token -> resilience.sendAsync(transport, endpoint,
+                        request.header("Authorization", "Bearer " + token).build())
+                        .thenCompose(response -> {
+                            if (response.code() == 401 && retryOnUnauthorized){
+                                response.close();
+                                tokenManager.invalidate(token);
+                                return authenticated(endpoint, request, false);
+                            }
+                            return CompletableFuture.completedFuture(response);
+                        }));
+    }
+
+    private <T> T decode(Response response, ObjectReader reader){
+        try {
+            return api.readBody(response, reader);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
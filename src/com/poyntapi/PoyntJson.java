@@ -0,0 +1,42 @@
+package com.poyntapi;
+
+import co.poynt.api.model.*;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.poyntapi.model.OrdersResponse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One ObjectMapper for the whole client, plus pre-built readers and writers
+ * for every type we send or receive. ObjectReader/ObjectWriter are immutable and
+ * thread-safe, and keep their (de)serializers cached after first use, so they
+ * should be shared rather than recreated per request.
+ */
+public final class PoyntJson {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static final ObjectReader MAP_READER = MAPPER.readerFor(Map.class);
+    public static final ObjectReader STORE_READER = MAPPER.readerFor(Store.class);
+    public static final ObjectReader BUSINESS_READER = MAPPER.readerFor(Business.class);
+    public static final ObjectReader CATALOG_READER = MAPPER.readerFor(Catalog.class);
+    public static final ObjectReader CATALOG_WITH_PRODUCT_READER = MAPPER.readerFor(CatalogWithProduct.class);
+    public static final ObjectReader CATALOGS_READER =
+            MAPPER.readerFor(new TypeReference<Map<String,List<Catalog>>>(){});
+    public static final ObjectReader STORE_DEVICES_READER =
+            MAPPER.readerFor(new TypeReference<List<StoreDevice>>(){});
+    public static final ObjectReader ORDER_READER = MAPPER.readerFor(Order.class);
+    public static final ObjectReader ORDERS_RESPONSE_READER = MAPPER.readerFor(OrdersResponse.class);
+    public static final ObjectReader CUSTOMER_READER = MAPPER.readerFor(Customer.class);
+    public static final ObjectReader TRANSACTION_READER = MAPPER.readerFor(Transaction.class);
+
+    public static final ObjectWriter ORDER_WRITER = MAPPER.writerFor(Order.class);
+    public static final ObjectWriter CUSTOMER_WRITER = MAPPER.writerFor(Customer.class);
+    public static final ObjectWriter TRANSACTION_WRITER = MAPPER.writerFor(Transaction.class);
+
+    private PoyntJson(){}
+}
@@ -0,0 +1,205 @@
+package com.poyntapi;
+
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.poyntapi.logging.RequestLog;
+import com.poyntapi.metrics.MetricsRegistry;
+import com.poyntapi.resilience.ResiliencePolicy;
+import com.poyntapi.transport.HttpTransport;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client for many merchants at once. Hands out a {@link PoyntAPI} per
+ * business/store/terminal; the handles share one HttpTransport (connection pool
+ * and executor), one JWT signer, the token refresh threads, the resilience
+ * policy, the catalog cache and the metrics registry. Per tenant there is only
+ * the handle itself with its token and store settings, both fetched on first use.
+ * Identical GETs are coalesced across tenants too; their URLs differ by business.
+ * The concurrency limits, when enabled, are budgets for all tenants together.
+ *
+ * Tenants not used for {@code tenants.idleMillis} are dropped and stop renewing
+ * their token, so memory and token traffic follow the active tenants. A caller
+ * still holding an evicted handle can keep using it; it fetches tokens on demand.
+ *
+ *   apiEndpoint, applicationId, privateKeyFile   as for PoyntAPI
+ *   tenants.idleMillis=1800000
+ *   tenants.refreshThreads=4      token renewals run in parallel on this many threads
+ *   http.*, resilience.*, limiter.*, catalogCache.*, coalesce.*, metrics.*, log.*, payloadTemplates, debug
+ */
+public class PoyntTenants implements AutoCloseable {
+
+    private final String apiEndpoint;
+    private final String applicationId;
+    private final boolean payloadTemplates;
+    private final long idleMillis;
+
+    private final MetricsRegistry metrics;
+    private final HttpTransport transport;
+    // null unless log.requests=true or debug=true
+    private final RequestLog requestLog;
+    private final ResiliencePolicy resilience;
+    private final CatalogCache catalogCache;
+    private final RequestCoalescer coalescer;
+    private final JWSSigner signer;
+    // times the token renewals of all tenants, and runs the idle sweep
+    private final ScheduledExecutorService scheduler;
+    // runs the renewals, so a slow /token call does not delay the others
+    private final ExecutorService refreshPool;
+
+    private final Map<String,PoyntAPI> tenants = new ConcurrentHashMap<>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public PoyntTenants(Properties prop) throws Exception{
+        apiEndpoint = prop.getProperty("apiEndpoint");
+        applicationId = prop.getProperty("applicationId");
+        String privateKeyFile = prop.getProperty("privateKeyFile");
+        if (apiEndpoint == null || applicationId == null || privateKeyFile == null){
+            throw new IllegalArgumentException("apiEndpoint, applicationId and privateKeyFile are required");
+        }
+        payloadTemplates = Boolean.parseBoolean(prop.getProperty("payloadTemplates", "true").trim());
+        idleMillis = Long.parseLong(prop.getProperty("tenants.idleMillis", "1800000").trim());
+
+        metrics = PoyntAPI.metricsRegistryFor(prop);
+        HttpClientConfig httpConfig = HttpClientConfig.fromProperties(prop);
+        requestLog = httpConfig.getRequestLog();
+        transport = httpConfig.buildTransport(metrics);
+        resilience = ResiliencePolicy.fromProperties(prop);
+        catalogCache = CatalogCache.fromProperties(prop);
+        coalescer = RequestCoalescer.fromProperties(prop);
+        signer = new RSASSASigner(TokenManager.loadPrivateKey(privateKeyFile));
+        scheduler = TokenManager.newScheduler();
+        refreshPool = TokenManager.newRefreshPool(
+                Integer.parseInt(prop.getProperty("tenants.refreshThreads", "4").trim()));
+
+        long sweep = Math.max(1000, idleMillis / 4);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, sweep, sweep, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the handle for the tenant, creating it if needed. Cheap: no
+     * request is made until the handle is used.
+     */
+    public PoyntAPI forTenant(final String businessId, final String storeId, final String storeDeviceId){
+        String key = businessId + "/" + storeId + "/" + storeDeviceId;
+        PoyntAPI api = tenants.get(key);
+        if (api == null){
+            api = tenants.computeIfAbsent(key, k -> {
+                created.incrementAndGet();
+                TokenManager tokenManager = new TokenManager(transport, apiEndpoint, applicationId, signer, scheduler,
+                        refreshPool);
+                return new PoyntAPI(this, tokenManager, businessId, storeId, storeDeviceId);
+            });
+        }
+        api.touch();
+        return api;
+    }
+
+    /**
+     * Drops tenants idle for longer than tenants.idleMillis; runs periodically.
+     */
+    public int evictIdle(){
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int count = 0;
+        Iterator<PoyntAPI> it = tenants.values().iterator();
+        while (it.hasNext()){
+            PoyntAPI api = it.next();
+            if (api.getLastUsedMillis() < cutoff){
+                it.remove();
+                api.getTokenManager().close();
+                evicted.incrementAndGet();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close(){
+        scheduler.shutdownNow();
+        refreshPool.shutdownNow();
+        tenants.clear();
+        transport.close();
+        if (requestLog != null){
+            requestLog.close();
+        }
+    }
+
+    //region counters
+    public int size(){
+        return tenants.size();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+    //endregion
+
+    //region gettersSetters
+    String getApiEndpoint() {
+        return apiEndpoint;
+    }
+
+    String getApplicationId() {
+        return applicationId;
+    }
+
+    /**
+     * Null unless log.requests=true or debug=true.
+     */
+    public RequestLog getRequestLog() {
+        return requestLog;
+    }
+
+    boolean isPayloadTemplates() {
+        return payloadTemplates;
+    }
+
+    HttpTransport getTransport() {
+        return transport;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public ResiliencePolicy getResiliencePolicy() {
+        return resilience;
+    }
+
+    public CatalogCache getCatalogCache() {
+        return catalogCache;
+    }
+
+    public RequestCoalescer getRequestCoalescer() {
+        return coalescer;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+    //endregion
+
+    public String toString(){
+        return "[tenants: " + size() + ", created: " + created + ", evicted: " + evicted
+                + ", connections: " + transport.getConnectionCount() + "]";
+    }
+}
@@ -0,0 +1,179 @@
+package com.poyntapi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for idempotent GETs: while a GET for a URL is in flight, other
+ * callers asking for the same URL, and the same kind of result, wait for it
+ * and get the same result, or the same failure, instead of sending their own
+ * request. Once it completes the next call goes to the server again; this is
+ * not a cache.
+ *
+ * Coalesced callers share one decoded object and must not modify it, as with
+ * cached catalogs. Only endpoints (see Endpoints) listed in coalesce.endpoints
+ * are coalesced; an empty list turns coalescing off.
+ *
+ *   coalesce.endpoints=/storeDevices,/stores,/businesses,/catalogs,/catalogs/full
+ */
+public class RequestCoalescer {
+
+    interface Fetch<T> {
+        T fetch() throws Exception;
+    }
+
+    private final Set<String> endpoints;
+    private final Map<Key,CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final Map<String,AtomicLong> coalescedByEndpoint = new ConcurrentHashMap<>();
+
+    public RequestCoalescer(Set<String> endpoints){
+        this.endpoints = Collections.unmodifiableSet(new HashSet<>(endpoints));
+    }
+
+    public static RequestCoalescer fromProperties(Properties prop){
+        String list = prop.getProperty("coalesce.endpoints",
+                "/storeDevices,/stores,/businesses,/catalogs,/catalogs/full").trim();
+        Set<String> endpoints = new HashSet<>();
+        if (!list.isEmpty()){
+            endpoints.addAll(Arrays.asList(list.split("\\s*,\\s*")));
+        }
+        return new RequestCoalescer(endpoints);
+    }
+
+    public boolean appliesTo(String endpoint){
+        return endpoints.contains(endpoint);
+    }
+
+    /**
+     * Runs the fetch, or waits for the identical one already running.
+     *
+     * @param variant what the caller makes of the response, typically its
+     *                ObjectReader; only calls with the same url and variant are shared
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String endpoint, String url, Object variant, Fetch<T> fetch) throws Exception{
+        if (!appliesTo(endpoint)){
+            return fetch.fetch();
+        }
+        Key key = new Key(url, variant);
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running != null){
+            recordCoalesced(endpoint);
+            try {
+                return (T) running.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        try {
+            T value = fetch.fetch();
+            mine.complete(value);
+            return value;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Non-blocking variant. Every caller gets its own dependent future, so one
+     * caller cancelling does not cancel the shared call for the others.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> executeAsync(String endpoint, String url, Object variant,
+                                          Supplier<CompletableFuture<T>> fetch){
+        if (!appliesTo(endpoint)){
+            return fetch.get();
+        }
+        final Key key = new Key(url, variant);
+        final CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running != null){
+            recordCoalesced(endpoint);
+            return running.thenApply(value -> (T) value);
+        }
+        fetch.get().whenComplete((value, error) -> {
+            inFlight.remove(key, mine);
+            if (error != null){
+                mine.completeExceptionally(error);
+            } else {
+                mine.complete(value);
+            }
+        });
+        return mine.thenApply(value -> (T) value);
+    }
+
+    private void recordCoalesced(String endpoint){
+        coalesced.incrementAndGet();
+        AtomicLong count = coalescedByEndpoint.get(endpoint);
+        if (count == null){
+            count = coalescedByEndpoint.computeIfAbsent(endpoint, e -> new AtomicLong());
+        }
+        count.incrementAndGet();
+    }
+
+    //region counters
+    /**
+     * Calls answered by another caller's request instead of their own.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public Map<String,Long> getCoalescedByEndpoint(){
+        Map<String,Long> counts = new TreeMap<>();
+        for (Map.Entry<String,AtomicLong> entry : coalescedByEndpoint.entrySet()){
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    public int getInFlight(){
+        return inFlight.size();
+    }
+    //endregion
+
+    public String toString(){
+        return "[coalesced: " + coalesced + ", byEndpoint: " + getCoalescedByEndpoint() + "]";
+    }
+
+    private static final class Key {
+        final String url;
+        final Object variant;
+
+        Key(String url, Object variant) {
+            this.url = url;
+            this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key) o;
+            return url.equals(other.url) && variant == other.variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode() * 31 + System.identityHashCode(variant);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.poyntapi;
+
+import java.util.Arrays;
+
+/**
+ * long -> int map with linear probing over two primitive arrays, for indexes
+ * that map a packed key (card, UUID bits) to a position in their own arrays.
+ * Sized up front with at least twice as many buckets as keys, so it never
+ * grows. Removal shifts the rest of the probe run back instead of leaving
+ * tombstones. Not thread-safe.
+ */
+final class SlotTable {
+
+    static final int NONE = -1;
+
+    private final long[] keys;
+    private final int[] slots;
+    private final int mask;
+    private int size;
+
+    SlotTable(int maxKeys){
+        int buckets = Integer.highestOneBit(Math.max(maxKeys, 1) * 2 - 1) << 1;
+        keys = new long[buckets];
+        slots = new int[buckets];
+        Arrays.fill(slots, NONE);
+        mask = buckets - 1;
+    }
+
+    /**
+     * Folds a UUID into a key. Distinct ids may collide, so callers compare
+     * the full id at the slot they get back.
+     */
+    static long key(long mostSigBits, long leastSigBits){
+        return mostSigBits ^ Long.rotateLeft(leastSigBits, 32);
+    }
+
+    private int bucket(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * The slot stored for the key, or NONE.
+     */
+    int get(long key){
+        for (int i = bucket(key); ; i = (i + 1) & mask){
+            if (slots[i] == NONE || keys[i] == key){
+                return slots[i];
+            }
+        }
+    }
+
+    void put(long key, int slot){
+        for (int i = bucket(key); ; i = (i + 1) & mask){
+            if (slots[i] == NONE){
+                size++;
+                keys[i] = key;
+                slots[i] = slot;
+                return;
+            }
+            if (keys[i] == key){
+                slots[i] = slot;
+                return;
+            }
+        }
+    }
+
+    void remove(long key){
+        int hole = bucket(key);
+        while (slots[hole] != NONE && keys[hole] != key){
+            hole = (hole + 1) & mask;
+        }
+        if (slots[hole] == NONE){
+            return;
+        }
+        size--;
+        for (int j = (hole + 1) & mask; slots[j] != NONE; j = (j + 1) & mask){
+            // an entry may fill the hole unless its home bucket lies after the hole
+            if (((j - bucket(keys[j])) & mask) >= ((j - hole) & mask)){
+                keys[hole] = keys[j];
+                slots[hole] = slots[j];
+                hole = j;
+            }
+        }
+        slots[hole] = NONE;
+    }
+
+    int size(){
+        return size;
+    }
+
+    long getMemoryBytes(){
+        return (long) keys.length * (8 + 4);
+    }
+}
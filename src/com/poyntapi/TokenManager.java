@@ -0,0 +1,376 @@
+package com.poyntapi;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import okhttp3.FormBody;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStreamReader;
+import java.security.Security;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Holds the application's private key and signer, and the current bearer token.
+ *
+ * The key is parsed once. The token is renewed on a background thread shortly before
+ * it expires, so callers normally never wait for a JWT sign + /token round trip.
+ * At most one renewal is in flight; callers that do need a new token (first call,
+ * expired or invalidated token) all wait on that same renewal.
+ *
+ * Many managers can share one signer, one refresh scheduler and one refresh pool
+ * (see PoyntTenants); each then only holds its own token. The scheduler only
+ * times the renewals; the JWT sign and /token round trip run on the pool, so
+ * one slow renewal does not hold up the others.
+ */
+public class TokenManager {
+
+    // used when the /token response has no expiresIn
+    private static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    // a token this close to expiry is treated as expired
+    private static final long EXPIRY_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final Call.Factory httpClient;
+    private final String apiEndpoint;
+    private final String applicationId;
+    private final JWSSigner signer;
+    private final ScheduledExecutorService scheduler;
+    // runs the renewals the scheduler triggers
+    private final Executor refreshExecutor;
+    // false when the scheduler is shared with other managers
+    private final boolean ownsScheduler;
+
+    private long refreshAheadMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private volatile Token token;
+    private final Object lock = new Object();
+    private CompletableFuture<Token> inFlight;
+    private ScheduledFuture<?> scheduled;
+    private volatile boolean closed;
+
+    public TokenManager(Call.Factory httpClient, String apiEndpoint, String applicationId, String privateKeyFile)
+            throws Exception{
+        this(httpClient, apiEndpoint, applicationId, loadPrivateKey(privateKeyFile));
+    }
+
+    public TokenManager(Call.Factory httpClient, String apiEndpoint, String applicationId, RSAPrivateKey privateKey){
+        this(httpClient, apiEndpoint, applicationId, new RSASSASigner(privateKey), newScheduler(), null, true);
+    }
+
+    /**
+     * Manager using a signer, refresh scheduler and refresh pool owned by the
+     * caller; close() then only cancels this manager's pending refresh.
+     */
+    public TokenManager(Call.Factory httpClient, String apiEndpoint, String applicationId, JWSSigner signer,
+                        ScheduledExecutorService scheduler, Executor refreshExecutor){
+        this(httpClient, apiEndpoint, applicationId, signer, scheduler, refreshExecutor, false);
+    }
+
+    private TokenManager(Call.Factory httpClient, String apiEndpoint, String applicationId, JWSSigner signer,
+                         ScheduledExecutorService scheduler, Executor refreshExecutor, boolean ownsScheduler){
+        this.httpClient = httpClient;
+        this.apiEndpoint = apiEndpoint;
+        this.applicationId = applicationId;
+        this.signer = signer;
+        this.scheduler = scheduler;
+        // a manager on its own renews on its scheduler thread
+        this.refreshExecutor = refreshExecutor != null ? refreshExecutor : scheduler;
+        this.ownsScheduler = ownsScheduler;
+    }
+
+    public static ScheduledExecutorService newScheduler(){
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "poynt-token-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Pool for the renewals of managers sharing a scheduler; threads exit when
+     * idle. Renewals beyond {@code threads} wait in the queue, at most one per manager.
+     */
+    public static ExecutorService newRefreshPool(int threads){
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "poynt-token-refresh-" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    public static RSAPrivateKey loadPrivateKey(String privateKeyFile) throws Exception{
+        File f = new File(privateKeyFile);
+        if (!f.exists()){
+            throw new FileNotFoundException("Private Key file not found: " + privateKeyFile);
+        }
+        if (Security.getProvider("BC") == null){
+            Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        }
+        PEMParser pemParser = new PEMParser(new InputStreamReader(new FileInputStream(f)));
+        try {
+            PEMKeyPair kp = (PEMKeyPair) pemParser.readObject();
+            JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
+            return (RSAPrivateKey) converter.getPrivateKey(kp.getPrivateKeyInfo());
+        } finally {
+            pemParser.close();
+        }
+    }
+
+    /**
+     * Returns a valid access token, blocking only if there is none yet or the
+     * current one has expired or been invalidated.
+     */
+    public String getAccessToken() throws Exception{
+        Token t = token;
+        if (t != null && System.currentTimeMillis() < t.expiresAtMillis - EXPIRY_SKEW_MILLIS){
+            return t.value;
+        }
+        try {
+            return refresh().get().value;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Non-blocking variant for the async API: completes immediately with a cached
+     * token, otherwise waits for the renewal on the given executor.
+     */
+    public CompletableFuture<String> getAccessTokenAsync(Executor executor){
+        Token t = token;
+        if (t != null && System.currentTimeMillis() < t.expiresAtMillis - EXPIRY_SKEW_MILLIS){
+            return CompletableFuture.completedFuture(t.value);
+        }
+        return CompletableFuture.supplyAsync(new Supplier<String>() {
+            @Override
+            public String get() {
+                try {
+                    return getAccessToken();
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }, executor);
+    }
+
+    /**
+     * Drops the token if it is still the current one, e.g. after the server
+     * answered 401 to a request that carried it. Concurrent callers that saw
+     * the same stale token cause a single renewal.
+     */
+    public void invalidate(String staleToken){
+        synchronized (lock){
+            Token t = token;
+            if (t != null && t.value.equals(staleToken)){
+                token = null;
+            }
+        }
+    }
+
+    /**
+     * Stops background renewal. The manager still hands out tokens afterwards,
+     * fetching them on demand.
+     */
+    public void close(){
+        closed = true;
+        if (ownsScheduler){
+            scheduler.shutdownNow();
+            return;
+        }
+        synchronized (lock){
+            if (scheduled != null){
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+        }
+    }
+
+    /**
+     * Starts a renewal unless one is already running, and returns it.
+     * The thread that starts it performs the fetch; everybody else waits on the future.
+     */
+    private CompletableFuture<Token> refresh(){
+        CompletableFuture<Token> future;
+        boolean owner = false;
+        synchronized (lock){
+            future = inFlight;
+            if (future == null){
+                future = new CompletableFuture<>();
+                inFlight = future;
+                owner = true;
+            }
+        }
+        if (owner){
+            Token t = null;
+            try {
+                t = fetchToken();
+                token = t;
+                future.complete(t);
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (lock){
+                    inFlight = null;
+                }
+            }
+            if (t != null){
+                // only now, or a renewal due at once on another pool thread would join this finished one
+                scheduleRefresh(t);
+            }
+        }
+        return future;
+    }
+
+    private void scheduleRefresh(Token t){
+        long lifetime = t.expiresAtMillis - System.currentTimeMillis();
+        long delay = Math.max(0, lifetime - Math.max(refreshAheadMillis, lifetime / 10));
+        schedule(delay);
+    }
+
+    private void schedule(long delayMillis){
+        if (closed || scheduler.isShutdown()){
+            return;
+        }
+        final Runnable renewal = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh().get();
+                } catch (Exception e) {
+                    // keep the current token while it lasts and try again shortly
+                    Token t = token;
+                    if (t != null && System.currentTimeMillis() + RETRY_DELAY_MILLIS < t.expiresAtMillis){
+                        schedule(RETRY_DELAY_MILLIS);
+                    }
+                }
+            }
+        };
+        ScheduledFuture<?> next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (closed){
+                    return;
+                }
+                try {
+                    refreshExecutor.execute(renewal);
+                } catch (RejectedExecutionException e) {
+                    // the pool is shut down; callers fetch tokens on demand
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        synchronized (lock){
+            if (scheduled != null){
+                scheduled.cancel(false);
+            }
+            scheduled = next;
+        }
+    }
+
+    private Token fetchToken() throws Exception{
+        RequestBody body = new FormBody.Builder()
+                .add("grantType", "urn:ietf:params:oauth:grant-type:jwt-bearer")
+                .add("assertion", getJWT())
+                .build();
+        Request request = new Request.Builder()
+                .url(apiEndpoint + "/token")
+                .addHeader("api-version", "1.2")
+                .post(body)
+                .build();
+
+        long requestedAt = System.currentTimeMillis();
+        Response response = httpClient.newCall(request).execute();
+        try {
+            if (response.code() != 200) {
+                throw new RuntimeException("Failed : HTTP error code : "
+                        + response.code());
+            }
+            Map<String,Object> map  = PoyntJson.MAP_READER.readValue(response.body().byteStream());
+            Object expiresIn = map.get("expiresIn");
+            long lifetime = expiresIn instanceof Number
+                    ? TimeUnit.SECONDS.toMillis(((Number) expiresIn).longValue())
+                    : DEFAULT_LIFETIME_MILLIS;
+            return new Token((String) map.get("accessToken"), requestedAt + lifetime);
+        } finally {
+            response.close();
+        }
+    }
+
+    String getJWT() throws Exception{
+        // Prepare JWT with claims set
+        JWTClaimsSet claimsSet = new JWTClaimsSet();
+        claimsSet.setSubject(applicationId);
+        claimsSet.setAudience(Arrays.asList(apiEndpoint));
+        claimsSet.setIssuer(applicationId);
+        claimsSet.setExpirationTime(new Date(new Date().getTime() + 360 * 1000));
+
+        claimsSet.setIssueTime(new Date(new Date().getTime()));
+        claimsSet.setJWTID(UUID.randomUUID().toString());
+
+        SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.RS256), claimsSet);
+
+        // Compute the RSA signature
+        signedJWT.sign(signer);
+        return signedJWT.serialize();
+    }
+
+    public long getRefreshAheadMillis() {
+        return refreshAheadMillis;
+    }
+
+    public void setRefreshAheadMillis(long refreshAheadMillis) {
+        this.refreshAheadMillis = refreshAheadMillis;
+    }
+
+    private static final class Token {
+        final String value;
+        final long expiresAtMillis;
+
+        Token(String value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
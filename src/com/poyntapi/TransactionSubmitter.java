@@ -0,0 +1,236 @@
+package com.poyntapi;
+
+import co.poynt.api.model.Transaction;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes a stream of transactions through {@link PoyntAsyncAPI} with a bounded
+ * number of requests in flight, for end-of-day batches and offline-queue replays.
+ *
+ * The producer is throttled: {@link #submit} blocks while {@code maxInFlight}
+ * submissions are outstanding. Results go to a {@link Listener}, either as they
+ * complete or in submission order. In ordered mode a finished submission keeps its
+ * slot until everything before it has been reported, so the reorder buffer never
+ * holds more than {@code maxInFlight} results.
+ *
+ * The listener runs on whichever completion thread finds results ready and no
+ * delivery in progress, outside any lock the other completions need. An
+ * exception it throws is counted and kept as lastListenerError; it does not
+ * stop later results from being reported or their slots from being released.
+ *
+ * Each {@link Submission} carries its Poynt-Request-Id. Replaying a submission
+ * (same object, or same id persisted with the offline queue) lets the server
+ * recognise the duplicate instead of charging the card again.
+ */
+public class TransactionSubmitter {
+
+    public interface Listener {
+        /**
+         * Called once per submission; {@code error} is null on success.
+         * Calls are never concurrent with each other.
+         */
+        void onResult(Submission submission, Transaction result, Throwable error);
+    }
+
+    public static final class Submission {
+        private final Transaction transaction;
+        private final String orderId;
+        private final String requestId;
+
+        public Submission(Transaction transaction, String orderId, String requestId) {
+            this.transaction = transaction;
+            this.orderId = orderId;
+            this.requestId = requestId;
+        }
+
+        /**
+         * New logical transaction with a freshly generated request id.
+         */
+        public static Submission of(Transaction transaction, String orderId){
+            return new Submission(transaction, orderId, UUID.randomUUID().toString());
+        }
+
+        public Transaction getTransaction() {
+            return transaction;
+        }
+
+        public String getOrderId() {
+            return orderId;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+    }
+
+    private final PoyntAsyncAPI api;
+    private final int maxInFlight;
+    private final boolean ordered;
+    private final Listener listener;
+    private final Semaphore permits;
+
+    // ordered mode: pending submissions in submission order
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    // guarded by pending: results to report, in order, and whether a thread is reporting them
+    private final ArrayDeque<Pending> ready = new ArrayDeque<>();
+    private boolean delivering;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong listenerErrors = new AtomicLong();
+    private volatile Throwable lastListenerError;
+
+    public TransactionSubmitter(PoyntAsyncAPI api, int maxInFlight, boolean ordered, Listener listener){
+        this.api = api;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+        this.listener = listener;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Sends one submission, blocking while the in-flight limit is reached.
+     */
+    public void submit(final Submission submission) throws InterruptedException{
+        permits.acquire();
+        submitted.incrementAndGet();
+        final Pending p = new Pending(submission);
+        if (ordered){
+            synchronized (pending){
+                pending.addLast(p);
+            }
+        }
+        CompletableFuture<Transaction> future;
+        try {
+            future = api.createTransaction(submission.getTransaction(), submission.getOrderId(),
+                    submission.getRequestId());
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((result, error) -> completed(p, result, error));
+    }
+
+    /**
+     * Submits everything the iterator yields, then waits for the last result.
+     */
+    public void submitAll(Iterator<Submission> submissions) throws InterruptedException{
+        while (submissions.hasNext()){
+            submit(submissions.next());
+        }
+        awaitCompletion();
+    }
+
+    /**
+     * Blocks until every submission so far has been reported to the listener.
+     */
+    public void awaitCompletion() throws InterruptedException{
+        permits.acquire(maxInFlight);
+        permits.release(maxInFlight);
+    }
+
+    private void completed(Pending p, Transaction result, Throwable error){
+        if (error instanceof CompletionException && error.getCause() != null){
+            error = error.getCause();
+        }
+        p.result = result;
+        p.error = error;
+        synchronized (pending){
+            p.done = true;
+            if (ordered){
+                // the completed prefix of the queue can be reported
+                while (!pending.isEmpty() && pending.peekFirst().done){
+                    ready.addLast(pending.pollFirst());
+                }
+            } else {
+                ready.addLast(p);
+            }
+            if (delivering){
+                // the reporting thread picks these up before it stops
+                return;
+            }
+            delivering = true;
+        }
+        deliver();
+    }
+
+    /**
+     * Reports ready results one at a time until there are none left, so the
+     * listener is never called concurrently and never under the lock.
+     */
+    private void deliver(){
+        while (true){
+            Pending next;
+            synchronized (pending){
+                next = ready.pollFirst();
+                if (next == null){
+                    delivering = false;
+                    return;
+                }
+            }
+            report(next);
+        }
+    }
+
+    private void report(Pending p){
+        try {
+            if (p.error == null){
+                succeeded.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            listener.onResult(p.submission, p.result, p.error);
+        } catch (RuntimeException | Error e) {
+            listenerErrors.incrementAndGet();
+            lastListenerError = e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    //region counters
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** Exceptions thrown by the listener; the results were still counted as reported. */
+    public long getListenerErrors() {
+        return listenerErrors.get();
+    }
+
+    public Throwable getLastListenerError() {
+        return lastListenerError;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+    //endregion
+
+    private static final class Pending {
+        final Submission submission;
+        Transaction result;
+        Throwable error;
+        boolean done;
+
+        Pending(Submission submission) {
+            this.submission = submission;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.poyntapi.loadgen;
+
+import com.poyntapi.BlockingExecutor;
+import com.poyntapi.PoyntAPI;
+import com.poyntapi.metrics.InMemoryMetricsRegistry;
+import com.poyntapi.metrics.LatencyHistogram;
+import com.poyntapi.stub.StubServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the demo scenario (catalog, orders by card, new customer, business lookup,
+ * transaction, order) repeatedly against a real endpoint or the embedded
+ * {@link StubServer}, and prints throughput and latency per step at the end.
+ *
+ *   java com.poyntapi.loadgen.LoadGenerator [options]
+ *
+ *   --config=src/config.properties  client configuration (ignored with --stub)
+ *   --stub                          run against an embedded stub server
+ *   --concurrency=1                 closed model: N workers, each starting the next
+ *                                   scenario as soon as the previous one finished
+ *   --rate=0                        open model: start R scenarios per second on up to
+ *                                   --concurrency workers; latency is measured from
+ *                                   the scheduled start, so queueing behind a
+ *                                   saturated client shows up in the percentiles
+ *   --duration=0                    seconds to run; 0 runs --iterations scenarios
+ *   --iterations=1
+ *   --warmup=0                      seconds of load before measurement starts
+ *   --threads=platform              platform: a pool of --concurrency threads;
+ *                                   virtual: a virtual thread per scenario, at most
+ *                                   --concurrency at once (Java 21+)
+ *   --<key>=<value>                 any other option is a configuration property,
+ *                                   e.g. --stub.latencyMillis=20 --stub.errorRate=0.01
+ *                                   --http.maxRequestsPerHost=256
+ *
+ * Without options this runs the scenario once against src/config.properties,
+ * like the original demo did.
+ */
+public class LoadGenerator {
+
+    enum Step {
+        CATALOG, ORDERS, CUSTOMER, BUSINESS, TRANSACTION, ORDER
+    }
+
+    private final PoyntAPI api;
+    private final int concurrency;
+    private final double rate;
+    private final long durationMillis;
+    private final long iterations;
+    private final long warmupMillis;
+    private final BlockingExecutor.Mode threads;
+
+    private final LatencyHistogram[] stepLatency = new LatencyHistogram[Step.values().length];
+    private final LongAdder[] stepErrors = new LongAdder[Step.values().length];
+    private final LatencyHistogram scenarioLatency = new LatencyHistogram();
+    private final LongAdder failedScenarios = new LongAdder();
+    private volatile boolean measuring;
+    private volatile Throwable lastError;
+
+    public LoadGenerator(PoyntAPI api, int concurrency, double rate, long durationMillis, long iterations,
+                         long warmupMillis){
+        this(api, concurrency, rate, durationMillis, iterations, warmupMillis, BlockingExecutor.Mode.PLATFORM);
+    }
+
+    public LoadGenerator(PoyntAPI api, int concurrency, double rate, long durationMillis, long iterations,
+                         long warmupMillis, BlockingExecutor.Mode threads){
+        this.api = api;
+        this.threads = threads;
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.durationMillis = durationMillis;
+        this.iterations = iterations;
+        this.warmupMillis = warmupMillis;
+        for (int i = 0; i < stepLatency.length; i++){
+            stepLatency[i] = new LatencyHistogram();
+            stepErrors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Runs the load and returns the measured wall time in milliseconds.
+     */
+    public long run() throws Exception{
+        if (warmupMillis > 0){
+            measuring = false;
+            drive(warmupMillis, 0);
+            resetMetrics();
+        }
+        measuring = true;
+        long start = System.nanoTime();
+        drive(durationMillis, durationMillis > 0 ? 0 : iterations);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private void resetMetrics(){
+        for (int i = 0; i < stepLatency.length; i++){
+            stepLatency[i].reset();
+            stepErrors[i].reset();
+        }
+        scenarioLatency.reset();
+        failedScenarios.reset();
+        if (api.getMetrics() instanceof InMemoryMetricsRegistry){
+            ((InMemoryMetricsRegistry) api.getMetrics()).reset();
+        }
+    }
+
+    /**
+     * Runs for the given time, or until the given number of scenarios has been started.
+     */
+    private void drive(long millis, long count) throws InterruptedException{
+        final long deadline = millis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis) : Long.MAX_VALUE;
+        final long limit = count > 0 ? count : Long.MAX_VALUE;
+        BlockingExecutor workers = new BlockingExecutor(threads, concurrency, concurrency);
+        if (rate > 0){
+            // open model: fixed schedule, independent of how fast scenarios complete
+            long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            long begin = System.nanoTime();
+            for (long i = 0; i < limit; i++){
+                final long scheduled = begin + i * periodNanos;
+                if (scheduled >= deadline){
+                    break;
+                }
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0){
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                workers.submit(Executors.callable(new Runnable() {
+                    @Override
+                    public void run() {
+                        scenario(scheduled);
+                    }
+                }));
+            }
+        } else {
+            // closed model: every worker loops until time or iterations run out
+            final AtomicLong started = new AtomicLong();
+            for (int w = 0; w < concurrency; w++){
+                workers.submit(Executors.callable(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (System.nanoTime() < deadline && started.incrementAndGet() <= limit){
+                            scenario(System.nanoTime());
+                        }
+                    }
+                }));
+            }
+        }
+        workers.getExecutorService().shutdown();
+        workers.getExecutorService().awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One pass of the demo sequence. A failing step ends the pass, since the
+     * following steps depend on its result.
+     */
+    private void scenario(long scheduledNanos){
+        Step step = Step.CATALOG;
+        try {
+            long t = System.nanoTime();
+            api.getMerchantCatalog();
+            t = record(Step.CATALOG, t);
+
+            step = Step.ORDERS;
+            api.getOrderSummariesForCustomer("411111", "1111", "12", "2020");
+            t = record(Step.ORDERS, t);
+
+            step = Step.CUSTOMER;
+            long customerId = api.createCustomer("John", "Smith", "https://pbs.twimg.com/media/ChfXfnMUoAAmQl5.jpg");
+            t = record(Step.CUSTOMER, t);
+
+            step = Step.BUSINESS;
+            api.getBusinessByStoreDeviceId();
+            t = record(Step.BUSINESS, t);
+
+            String orderId = UUID.randomUUID().toString();
+            step = Step.TRANSACTION;
+            api.createTransaction(orderId);
+            t = record(Step.TRANSACTION, t);
+
+            step = Step.ORDER;
+            api.createOrder(customerId, orderId);
+            record(Step.ORDER, t);
+            if (measuring){
+                scenarioLatency.recordNanos(System.nanoTime() - scheduledNanos);
+            }
+        } catch (Exception e) {
+            if (measuring){
+                stepErrors[step.ordinal()].increment();
+                failedScenarios.increment();
+            }
+            lastError = e;
+        }
+    }
+
+    private long record(Step step, long startNanos){
+        long now = System.nanoTime();
+        if (measuring){
+            stepLatency[step.ordinal()].recordNanos(now - startNanos);
+        }
+        return now;
+    }
+
+    public String report(long elapsedMillis){
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s model, concurrency=%d%s, %s threads, %.1fs%n",
+                rate > 0 ? "open" : "closed", concurrency, rate > 0 ? ", rate=" + rate + "/s" : "",
+                threads.name().toLowerCase(), seconds));
+        sb.append(String.format("%-12s %9s %7s %9s %9s %9s %9s%n",
+                "step", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p999 ms"));
+        for (Step step : Step.values()){
+            LatencyHistogram h = stepLatency[step.ordinal()];
+            line(sb, step.name().toLowerCase(), h, stepErrors[step.ordinal()].sum(), seconds);
+        }
+        line(sb, "scenario", scenarioLatency, failedScenarios.sum(), seconds);
+        sb.append(String.format("%nclient metrics:%n")).append(api.getMetrics());
+        sb.append(String.format("resilience: %s%ncatalog cache: %s%ncoalescer: %s%n", api.getResiliencePolicy(),
+                api.getCatalogCache(), api.getRequestCoalescer()));
+        if (api.getResiliencePolicy().getConcurrencyLimits().isEnabled()){
+            sb.append(String.format("concurrency limits: %s%n", api.getResiliencePolicy().getConcurrencyLimits()));
+        }
+        if (api.getOrderIndex() != null){
+            sb.append(String.format("order index: %s%n", api.getOrderIndex()));
+        }
+        if (lastError != null){
+            sb.append("last error: ").append(lastError).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, LatencyHistogram h, long errors, double seconds){
+        long count = h.getCount();
+        sb.append(String.format("%-12s %9d %7d %9.1f %9.2f %9.2f %9.2f%n", name, count + errors, errors,
+                (count + errors) / seconds, h.percentile(0.5) / 1000.0, h.percentile(0.99) / 1000.0,
+                h.percentile(0.999) / 1000.0));
+    }
+
+    public static void main(String[] args) throws Exception{
+        Properties options = new Properties();
+        Properties overrides = new Properties();
+        for (String arg : args){
+            if (!arg.startsWith("--")){
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            String key = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            (isOption(key) ? options : overrides).setProperty(key, value);
+        }
+
+        List<AutoCloseable> resources = new ArrayList<>();
+        try {
+            Properties prop;
+            if (Boolean.parseBoolean(options.getProperty("stub", "false"))){
+                StubServer stub = StubServer.fromProperties(overrides);
+                resources.add(stub);
+                final File keyFile = StubServer.writePrivateKey();
+                resources.add(new AutoCloseable() {
+                    @Override
+                    public void close() {
+                        keyFile.delete();
+                    }
+                });
+                prop = stub.clientProperties(keyFile);
+                System.out.println("stub server: " + stub.getUrl());
+            } else {
+                prop = new Properties();
+                FileInputStream fis = new FileInputStream(options.getProperty("config", "src/config.properties"));
+                try {
+                    prop.load(fis);
+                } finally {
+                    fis.close();
+                }
+            }
+            prop.putAll(overrides);
+            if ("virtual".equalsIgnoreCase(options.getProperty("threads", "platform"))){
+                // HTTP/1.1, see BlockingExecutor
+                prop.setProperty("executor.mode", "virtual");
+            }
+            PoyntAPI api = new PoyntAPI(prop);
+            resources.add(api);
+
+            LoadGenerator generator = new LoadGenerator(api,
+                    Integer.parseInt(options.getProperty("concurrency", "1")),
+                    Double.parseDouble(options.getProperty("rate", "0")),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(options.getProperty("duration", "0"))),
+                    Long.parseLong(options.getProperty("iterations", "1")),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(options.getProperty("warmup", "0"))),
+                    BlockingExecutor.Mode.valueOf(options.getProperty("threads", "platform").toUpperCase()));
+            long elapsed = generator.run();
+            System.out.print(generator.report(elapsed));
+            for (AutoCloseable resource : resources){
+                if (resource instanceof StubServer){
+                    System.out.println("stub: " + resource);
+                }
+            }
+        } finally {
+            // the client before the stub it talks to
+            for (int i = resources.size() - 1; i >= 0; i--){
+                resources.get(i).close();
+            }
+        }
+    }
+
+    private static boolean isOption(String key){
+        switch (key){
+            case "config":
+            case "stub":
+            case "concurrency":
+            case "rate":
+            case "duration":
+            case "iterations":
+            case "warmup":
+            case "threads":
+                return true;
+            default:
+                return false;
+        }
+    }
+}
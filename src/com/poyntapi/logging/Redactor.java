@@ -0,0 +1,134 @@
+package com.poyntapi.logging;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.poyntapi.PoyntJson;
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes a JSON body token by token, replacing card data on the way:
+ *
+ *   number                                 "************1111"
+ *   expirationMonth, expirationYear,
+ *   expirationDate, track1data..track3data "[redacted]"
+ *
+ * inside a "card" object or a "cards" array (Card, as in funding sources,
+ * customers and orders). The body is read once by a streaming parser and
+ * never exists as a String before redaction. A body cut at log.maxBodyBytes
+ * is written up to the last complete token; a body that is not JSON is
+ * written only as its length.
+ */
+final class Redactor {
+
+    static final String REDACTED = "[redacted]";
+
+    private static final Set<String> CARD_FIELDS = new HashSet<>(Arrays.asList(
+            "number", "expirationMonth", "expirationYear", "expirationDate", "track1data", "track2data", "track3data"));
+    // query parameters of the orders-by-card lookup
+    private static final Set<String> QUERY_PARAMETERS = new HashSet<>(Arrays.asList(
+            "cardExpirationMonth", "cardExpirationYear"));
+
+    private static final int OBJECT = 0;
+    private static final int ARRAY = 1;
+    private static final int CARD = 2;
+    private static final int CARDS = 3;
+
+    private Redactor(){}
+
+    static void json(byte[] body, int length, boolean cut, StringBuilder out){
+        StringWriter text = new StringWriter(Math.min(length, 1024));
+        boolean complete = false;
+        try (JsonParser parser = PoyntJson.MAPPER.getFactory().createParser(body, 0, length);
+             JsonGenerator generator = PoyntJson.MAPPER.getFactory().createGenerator(text)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            try {
+                copy(parser, generator);
+                complete = true;
+            } finally {
+                // keeps what was written before a cut body ran out
+                generator.flush();
+            }
+        } catch (IOException e) {
+            if (!cut){
+                out.append('<').append(length).append(" bytes, not JSON>");
+                return;
+            }
+        }
+        out.append(text.getBuffer());
+        if (cut || !complete){
+            out.append("...<cut at ").append(length).append(" bytes>");
+        }
+    }
+
+    private static void copy(JsonParser parser, JsonGenerator generator) throws IOException{
+        Deque<Integer> containers = new ArrayDeque<>();
+        String field = null;
+        JsonToken token;
+        while ((token = parser.nextToken()) != null){
+            Integer container = containers.peek();
+            switch (token){
+                case START_OBJECT:
+                    containers.push("card".equals(field) || (container != null && container == CARDS) ? CARD : OBJECT);
+                    field = null;
+                    generator.copyCurrentEvent(parser);
+                    break;
+                case START_ARRAY:
+                    containers.push("cards".equals(field) ? CARDS : ARRAY);
+                    field = null;
+                    generator.copyCurrentEvent(parser);
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    containers.pop();
+                    field = null;
+                    generator.copyCurrentEvent(parser);
+                    break;
+                case FIELD_NAME:
+                    field = parser.getCurrentName();
+                    generator.copyCurrentEvent(parser);
+                    break;
+                default:
+                    if (container != null && container == CARD && CARD_FIELDS.contains(field)
+                            && token != JsonToken.VALUE_NULL){
+                        generator.writeString("number".equals(field) ? masked(parser.getText()) : REDACTED);
+                    } else {
+                        generator.copyCurrentEvent(parser);
+                    }
+                    field = null;
+            }
+        }
+    }
+
+    /**
+     * Only the last four digits are kept.
+     */
+    static String masked(String number){
+        int keep = number.length() >= 12 ? 4 : 0;
+        char[] masked = new char[number.length()];
+        Arrays.fill(masked, 0, masked.length - keep, '*');
+        number.getChars(masked.length - keep, masked.length, masked, masked.length - keep);
+        return new String(masked);
+    }
+
+    static String url(HttpUrl url){
+        HttpUrl.Builder redacted = null;
+        for (String name : url.queryParameterNames()){
+            if (QUERY_PARAMETERS.contains(name)){
+                if (redacted == null){
+                    redacted = url.newBuilder();
+                }
+                redacted.setQueryParameter(name, REDACTED);
+            }
+        }
+        return redacted == null ? url.toString() : redacted.build().toString();
+    }
+}
@@ -0,0 +1,271 @@
+package com.poyntapi.logging;
+
+import okhttp3.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request/response log written through slf4j (logger com.poyntapi.logging.RequestLog,
+ * level INFO) by a background thread, one line per attempt:
+ *
+ *   POST /transactions status=201 micros=5230 requestId=... url=... request={...} response={...}
+ *
+ * The calling thread only decides whether the call is sampled, copies the
+ * request body and peeks at the first log.maxBodyBytes of the response, and
+ * puts the entry in a bounded ring buffer. When the buffer is full the entry
+ * is dropped and counted; a slow appender never holds up a request.
+ *
+ * Card numbers and expiry dates are redacted while the writer thread
+ * serializes the bodies, see Redactor; the expiry in order lookup URLs is
+ * redacted too. Bodies of /token (JWT assertion, access token) are never
+ * written, and neither is any header.
+ *
+ * Off unless log.requests=true; debug=true turns it on with every call
+ * sampled. Configured from config.properties:
+ *
+ *   log.requests=false
+ *   log.capacity=1024                entries waiting for the writer
+ *   log.maxBodyBytes=16384           per body; longer ones are cut
+ *   log.sample=1.0                   fraction of calls logged
+ *   log.sample./transactions=0.01    per endpoint (see Endpoints)
+ */
+public class RequestLog implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestLog.class);
+
+    // endpoints whose bodies carry credentials
+    private static final String TOKEN = "/token";
+
+    private final ArrayBlockingQueue<Entry> buffer;
+    private final int maxBodyBytes;
+    private final double defaultRate;
+    private final Map<String,Double> rates;
+
+    private volatile boolean running = true;
+    private final Thread writer;
+
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    public RequestLog(int capacity, int maxBodyBytes, double defaultRate, Map<String,Double> rates){
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.maxBodyBytes = maxBodyBytes;
+        this.defaultRate = defaultRate;
+        this.rates = Collections.unmodifiableMap(new HashMap<>(rates));
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "poynt-request-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Null unless log.requests=true or debug=true.
+     */
+    public static RequestLog fromProperties(Properties prop){
+        boolean debug = Boolean.parseBoolean(prop.getProperty("debug", "false").trim());
+        if (!debug && !Boolean.parseBoolean(prop.getProperty("log.requests", "false").trim())){
+            return null;
+        }
+        Map<String,Double> rates = new HashMap<>();
+        if (!debug){
+            for (String key : prop.stringPropertyNames()){
+                if (key.startsWith("log.sample./")){
+                    rates.put(key.substring("log.sample.".length()), Double.parseDouble(prop.getProperty(key).trim()));
+                }
+            }
+        }
+        return new RequestLog(
+                Integer.parseInt(prop.getProperty("log.capacity", "1024").trim()),
+                Integer.parseInt(prop.getProperty("log.maxBodyBytes", "16384").trim()),
+                debug ? 1.0 : Double.parseDouble(prop.getProperty("log.sample", "1.0").trim()),
+                rates);
+    }
+
+    /**
+     * Whether this call of the endpoint is logged; false for every call while
+     * the logger is not enabled for INFO.
+     */
+    boolean sample(String endpoint){
+        Double rate = rates.get(endpoint);
+        double r = rate == null ? defaultRate : rate;
+        if (r <= 0 || !LOG.isInfoEnabled() || (r < 1 && ThreadLocalRandom.current().nextDouble() >= r)){
+            skipped.incrementAndGet();
+            return false;
+        }
+        sampled.incrementAndGet();
+        return true;
+    }
+
+    boolean logsBodies(String endpoint){
+        return maxBodyBytes > 0 && !TOKEN.equals(endpoint);
+    }
+
+    int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /**
+     * Never blocks: a full buffer drops the entry.
+     */
+    void offer(Entry entry){
+        if (!running || !buffer.offer(entry)){
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void drain(){
+        List<Entry> batch = new ArrayList<>();
+        while (running){
+            try {
+                Entry first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first == null){
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch);
+                write(batch);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        // close(): whatever made it into the buffer is still written
+        buffer.drainTo(batch);
+        write(batch);
+    }
+
+    private void write(List<Entry> batch){
+        StringBuilder line = new StringBuilder(256);
+        for (Entry entry : batch){
+            line.setLength(0);
+            try {
+                entry.appendTo(line, maxBodyBytes);
+                LOG.info(line.toString());
+                written.incrementAndGet();
+            } catch (RuntimeException e) {
+                // a broken appender must not stop the writer thread
+                dropped.incrementAndGet();
+            }
+        }
+        batch.clear();
+    }
+
+    //region counters
+    /** Calls not logged because of sampling, or because INFO is off. */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getSampled() {
+        return sampled.get();
+    }
+
+    /** Sampled calls lost to a full buffer or a failing appender. */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /** Entries waiting for the writer thread. */
+    public int getPending() {
+        return buffer.size();
+    }
+    //endregion
+
+    /**
+     * Stops taking entries and writes the ones already buffered.
+     */
+    @Override
+    public void close(){
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String toString(){
+        return "[sampled: " + sampled + ", skipped: " + skipped + ", written: " + written
+                + ", dropped: " + dropped + ", pending: " + getPending() + "]";
+    }
+
+    /**
+     * One attempt as captured on the calling thread; formatted and redacted
+     * only on the writer thread.
+     */
+    static final class Entry {
+        final String method;
+        final String endpoint;
+        final HttpUrl url;
+        final String requestId;
+        final long micros;
+        // -1 when the call failed
+        final int status;
+        final String error;
+        // null when bodies are not logged for the endpoint
+        final byte[] requestBody;
+        final byte[] responseBody;
+
+        Entry(String method, String endpoint, HttpUrl url, String requestId, long micros, int status, String error,
+              byte[] requestBody, byte[] responseBody) {
+            this.method = method;
+            this.endpoint = endpoint;
+            this.url = url;
+            this.requestId = requestId;
+            this.micros = micros;
+            this.status = status;
+            this.error = error;
+            this.requestBody = requestBody;
+            this.responseBody = responseBody;
+        }
+
+        void appendTo(StringBuilder line, int maxBodyBytes){
+            line.append(method).append(' ').append(endpoint);
+            if (status >= 0){
+                line.append(" status=").append(status);
+            } else {
+                line.append(" error=").append(error);
+            }
+            line.append(" micros=").append(micros);
+            if (requestId != null){
+                line.append(" requestId=").append(requestId);
+            }
+            line.append(" url=").append(Redactor.url(url));
+            appendBody(line, " request=", requestBody, maxBodyBytes);
+            appendBody(line, " response=", responseBody, maxBodyBytes);
+        }
+
+        /**
+         * Bodies are captured with one byte more than maxBodyBytes, to tell a
+         * body of exactly that size from a longer one.
+         */
+        private static void appendBody(StringBuilder line, String name, byte[] body, int maxBodyBytes){
+            if (body != null && body.length > 0){
+                line.append(name);
+                boolean cut = body.length > maxBodyBytes;
+                Redactor.json(body, cut ? maxBodyBytes : body.length, cut, line);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.poyntapi.logging;
+
+import com.poyntapi.Endpoints;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OkHttp application interceptor feeding a {@link RequestLog}. Installed next
+ * to MetricsInterceptor, so it sees every attempt on either transport. Calls
+ * that are not sampled pass straight through; for the others the bodies are
+ * copied as bytes and everything else is left to the log's writer thread.
+ */
+public class RequestLogInterceptor implements Interceptor {
+
+    private final RequestLog log;
+
+    public RequestLogInterceptor(RequestLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String endpoint = Endpoints.of(request.url());
+        if (!log.sample(endpoint)){
+            return chain.proceed(request);
+        }
+        boolean bodies = log.logsBodies(endpoint);
+        // one byte over the limit marks a body as cut
+        long limit = log.getMaxBodyBytes() + 1L;
+        byte[] requestBody = bodies ? copy(request.body(), limit) : null;
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            log.offer(new RequestLog.Entry(request.method(), endpoint, request.url(), request.header("Poynt-Request-Id"),
+                    micros(start), -1, e.toString(), requestBody, null));
+            throw e;
+        }
+        long micros = micros(start);
+        byte[] responseBody = null;
+        if (bodies && response.body() != null){
+            try {
+                // leaves the body to the caller; only the peeked prefix is buffered
+                responseBody = response.peekBody(limit).bytes();
+            } catch (IOException e) {
+                // the caller runs into the same error reading the body
+            }
+        }
+        log.offer(new RequestLog.Entry(request.method(), endpoint, request.url(), request.header("Poynt-Request-Id"),
+                micros, response.code(), null, requestBody, responseBody));
+        return response;
+    }
+
+    private static byte[] copy(RequestBody body, long limit) throws IOException{
+        if (body == null){
+            return null;
+        }
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readByteArray(Math.min(limit, buffer.size()));
+    }
+
+    private static long micros(long start){
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+}
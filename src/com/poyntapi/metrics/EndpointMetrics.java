@@ -0,0 +1,85 @@
+package com.poyntapi.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histogram for one endpoint. Status 0 stands for
+ * requests that got no response at all.
+ */
+public class EndpointMetrics {
+
+    public static final int NO_RESPONSE = 0;
+
+    private final String endpoint;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Map<Integer,LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public EndpointMetrics(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    void record(int status, long latencyNanos, long out){
+        requests.increment();
+        if (status == NO_RESPONSE || status >= 400){
+            errors.increment();
+            LongAdder counter = errorsByStatus.get(status);
+            if (counter == null){
+                counter = errorsByStatus.computeIfAbsent(status, s -> new LongAdder());
+            }
+            counter.increment();
+        }
+        if (out > 0){
+            bytesOut.add(out);
+        }
+        latency.recordNanos(latencyNanos);
+    }
+
+    void addBytesIn(long bytes){
+        bytesIn.add(bytes);
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public Map<Integer,Long> getErrorsByStatus() {
+        Map<Integer,Long> snapshot = new TreeMap<>();
+        for (Map.Entry<Integer,LongAdder> e : errorsByStatus.entrySet()){
+            snapshot.put(e.getKey(), e.getValue().sum());
+        }
+        return snapshot;
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public String toString(){
+        return String.format("%-14s requests=%d errors=%d %s bytesOut=%d bytesIn=%d p50=%dus p99=%dus p999=%dus",
+                endpoint, getRequests(), getErrors(), getErrorsByStatus(), getBytesOut(), getBytesIn(),
+                latency.percentile(0.5), latency.percentile(0.99), latency.percentile(0.999));
+    }
+}
@@ -0,0 +1,56 @@
+package com.poyntapi.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default registry: keeps an {@link EndpointMetrics} per endpoint in memory.
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+    private final Map<String,EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public void onResponse(String endpoint, int status, long latencyNanos, long bytesOut) {
+        get(endpoint).record(status, latencyNanos, bytesOut);
+    }
+
+    @Override
+    public void onFailure(String endpoint, Throwable error, long latencyNanos, long bytesOut) {
+        get(endpoint).record(EndpointMetrics.NO_RESPONSE, latencyNanos, bytesOut);
+    }
+
+    @Override
+    public void onBytesIn(String endpoint, long bytes) {
+        get(endpoint).addBytesIn(bytes);
+    }
+
+    public EndpointMetrics get(String endpoint){
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if (metrics == null){
+            metrics = endpoints.computeIfAbsent(endpoint, EndpointMetrics::new);
+        }
+        return metrics;
+    }
+
+    /**
+     * Endpoints seen so far, sorted by name.
+     */
+    public Map<String,EndpointMetrics> getEndpoints(){
+        return Collections.unmodifiableMap(new TreeMap<>(endpoints));
+    }
+
+    public void reset(){
+        endpoints.clear();
+    }
+
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        for (EndpointMetrics metrics : getEndpoints().values()){
+            sb.append(metrics).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package com.poyntapi.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of latencies in microseconds. Each power of two
+ * is split into 16 linear sub-buckets, so any recorded value is reported with at
+ * most ~6% error, from 1us up to ~12 days, in a fixed 5KB array. Recording is one
+ * atomic increment; percentiles are computed on read.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+
+    public void recordNanos(long nanos){
+        record(nanos / 1000);
+    }
+
+    public void record(long micros){
+        counts.incrementAndGet(index(Math.max(0, micros)));
+    }
+
+    public long getCount(){
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++){
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param quantile e.g. 0.5, 0.99, 0.999
+     * @return upper bound of the bucket holding that quantile, in microseconds; 0 if empty
+     */
+    public long percentile(double quantile){
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++){
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++){
+            seen += snapshot[i];
+            if (seen >= rank){
+                return upperBound(i);
+            }
+        }
+        return upperBound(snapshot.length - 1);
+    }
+
+    public void reset(){
+        for (int i = 0; i < counts.length(); i++){
+            counts.set(i, 0);
+        }
+    }
+
+    static int index(long value){
+        if (value < SUB_BUCKETS){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT){
+            exponent = MAX_EXPONENT;
+            value = (1L << (MAX_EXPONENT + 1)) - 1;
+        }
+        int sub = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index){
+        if (index < SUB_BUCKETS){
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+
+    public String toString(){
+        return "[count: " + getCount() + ", p50: " + percentile(0.5) + "us, p99: " + percentile(0.99)
+                + "us, p999: " + percentile(0.999) + "us]";
+    }
+}
@@ -0,0 +1,85 @@
+package com.poyntapi.metrics;
+
+import com.poyntapi.Endpoints;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+
+/**
+ * OkHttp application interceptor feeding a {@link MetricsRegistry}. Installed on
+ * the shared client, so it sees every call including /token and each retry.
+ * Response bytes are counted as the body is read, which also covers chunked bodies.
+ */
+public class MetricsInterceptor implements Interceptor {
+
+    private final MetricsRegistry registry;
+
+    public MetricsInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        final String endpoint = Endpoints.of(request.url());
+        long bytesOut = request.body() != null ? request.body().contentLength() : 0;
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            registry.onFailure(endpoint, e, System.nanoTime() - start, bytesOut);
+            throw e;
+        }
+        registry.onResponse(endpoint, response.code(), System.nanoTime() - start, bytesOut);
+
+        ResponseBody body = response.body();
+        if (body == null){
+            return response;
+        }
+        return response.newBuilder().body(new CountingBody(body, endpoint)).build();
+    }
+
+    private final class CountingBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        CountingBody(ResponseBody delegate, final String endpoint) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0){
+                        registry.onBytesIn(endpoint, read);
+                    }
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.poyntapi.metrics;
+
+/**
+ * Receives one event per HTTP exchange the client makes. Endpoint names come
+ * from {@link com.poyntapi.Endpoints} (/token, /orders, /transactions, ...).
+ *
+ * Implementations are called on the request thread (or OkHttp dispatcher
+ * thread) and must be thread-safe and cheap. Plug one in with
+ * {@code metrics.registry=<class name>} in config.properties; the class needs
+ * a public no-arg constructor.
+ */
+public interface MetricsRegistry {
+
+    MetricsRegistry NOOP = new MetricsRegistry() {
+        @Override
+        public void onResponse(String endpoint, int status, long latencyNanos, long bytesOut) {
+        }
+
+        @Override
+        public void onFailure(String endpoint, Throwable error, long latencyNanos, long bytesOut) {
+        }
+
+        @Override
+        public void onBytesIn(String endpoint, long bytes) {
+        }
+    };
+
+    /**
+     * Response headers received; latency is measured up to this point.
+     */
+    void onResponse(String endpoint, int status, long latencyNanos, long bytesOut);
+
+    /**
+     * No response (connect/read/write failure, cancellation).
+     */
+    void onFailure(String endpoint, Throwable error, long latencyNanos, long bytesOut);
+
+    /**
+     * Response body bytes, reported as the body is consumed.
+     */
+    void onBytesIn(String endpoint, long bytes);
+}
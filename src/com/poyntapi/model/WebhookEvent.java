@@ -0,0 +1,119 @@
+package com.poyntapi.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+/**
+ * Body of a Poynt webhook callback: which resource changed and how, not the
+ * resource itself, e.g.
+ *
+ *   {"id": "...", "hookId": "...", "businessId": "...", "storeId": "...",
+ *    "eventType": "ORDER_COMPLETED", "resource": "/orders", "resourceId": "...",
+ *    "createdAt": "2017-02-10T18:22:31Z", "links": [{"href": ".../orders/...", "rel": "resource", "method": "GET"}]}
+ *
+ * Unknown fields are ignored, so new event attributes do not break delivery.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class WebhookEvent {
+
+    private String id;
+    private String hookId;
+    private String applicationId;
+    private String businessId;
+    private String storeId;
+    private String eventType;
+    private String resource;
+    private String resourceId;
+    private String createdAt;
+    private List<OrdersResponse.HATEOS> links;
+
+    public WebhookEvent(){}
+
+    //region gettersSetters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getHookId() {
+        return hookId;
+    }
+
+    public void setHookId(String hookId) {
+        this.hookId = hookId;
+    }
+
+    public String getApplicationId() {
+        return applicationId;
+    }
+
+    public void setApplicationId(String applicationId) {
+        this.applicationId = applicationId;
+    }
+
+    public String getBusinessId() {
+        return businessId;
+    }
+
+    public void setBusinessId(String businessId) {
+        this.businessId = businessId;
+    }
+
+    public String getStoreId() {
+        return storeId;
+    }
+
+    public void setStoreId(String storeId) {
+        this.storeId = storeId;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public void setResource(String resource) {
+        this.resource = resource;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public void setResourceId(String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public String getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(String createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public List<OrdersResponse.HATEOS> getLinks() {
+        return links;
+    }
+
+    public void setLinks(List<OrdersResponse.HATEOS> links) {
+        this.links = links;
+    }
+    //endregion
+
+    public String toString(){
+        return "[id: " + id + ", eventType: " + eventType + ", resource: " + resource
+                + ", resourceId: " + resourceId + ", businessId: " + businessId + "]";
+    }
+}
@@ -0,0 +1,97 @@
+package com.poyntapi.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consecutive-failure circuit breaker for one endpoint.
+ *
+ * CLOSED: requests pass; {@code failureThreshold} failures in a row open it.
+ * OPEN: requests fail fast with CircuitBreakerOpenException for {@code openMillis}.
+ * HALF_OPEN: one trial request is let through; success closes, failure re-opens.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    public CircuitBreaker(String endpoint, int failureThreshold, long openMillis) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Call before sending; every successful call must be followed by exactly
+     * one onSuccess, onFailure or onIgnored.
+     */
+    public synchronized void acquirePermission() throws CircuitBreakerOpenException{
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis){
+            state = State.HALF_OPEN;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)){
+            shortCircuited.incrementAndGet();
+            throw new CircuitBreakerOpenException(endpoint);
+        }
+        if (state == State.HALF_OPEN){
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void onSuccess(){
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure(){
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)){
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            opened.incrementAndGet();
+        }
+    }
+
+    /**
+     * Ends a permitted call that was never sent, e.g. held back by the
+     * concurrency limiter; counts neither way.
+     */
+    public synchronized void onIgnored(){
+        trialInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /** Number of times the breaker went from CLOSED/HALF_OPEN to OPEN. */
+    public long getOpened() {
+        return opened.get();
+    }
+
+    /** Requests rejected without being sent. */
+    public long getShortCircuited() {
+        return shortCircuited.get();
+    }
+
+    public String toString(){
+        return "[endpoint: " + endpoint + ", state: " + getState() + ", opened: " + opened
+                + ", shortCircuited: " + shortCircuited + "]";
+    }
+}
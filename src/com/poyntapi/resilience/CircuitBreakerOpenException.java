@@ -0,0 +1,20 @@
+package com.poyntapi.resilience;
+
+import java.io.IOException;
+
+/**
+ * The circuit breaker for an endpoint is open; the request was not sent.
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+    private final String endpoint;
+
+    public CircuitBreakerOpenException(String endpoint) {
+        super("Circuit breaker open for " + endpoint);
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+}
@@ -0,0 +1,21 @@
+package com.poyntapi.resilience;
+
+import java.io.IOException;
+
+/**
+ * No permit of the endpoint's concurrency limiter became free in time; the
+ * request was not sent.
+ */
+public class ConcurrencyLimitExceededException extends IOException {
+
+    private final String limiter;
+
+    public ConcurrencyLimitExceededException(String limiter, String reason) {
+        super("Concurrency limit " + limiter + ": " + reason);
+        this.limiter = limiter;
+    }
+
+    public String getLimiter() {
+        return limiter;
+    }
+}
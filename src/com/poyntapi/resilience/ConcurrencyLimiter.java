@@ -0,0 +1,437 @@
+package com.poyntapi.resilience;
+
+import okhttp3.Response;
+
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on the number of requests of one budget (see
+ * ConcurrencyLimits) in flight at once. Callers take a permit before sending
+ * and hand it back with the outcome, from which the limit is adjusted:
+ *
+ * - a 429 or 503 answer, or a read timeout, cuts the limit by
+ *   {@code backoffRatio}, at most once per round trip;
+ * - otherwise the round trip is compared with a long-term baseline: while
+ *   latency stays within {@code latencyTolerance} x baseline the limit grows by
+ *   about sqrt(limit) per round of samples, as latency rises it shrinks
+ *   towards what the server handles without queueing. Samples taken while
+ *   less than half the limit was in use are not evidence either way and leave
+ *   the limit alone;
+ * - a Retry-After header on a 429/503 (seconds or an HTTP date, capped at
+ *   {@code maxRetryAfterMillis}) holds back every request of the budget until
+ *   then.
+ *
+ * Callers that find no free permit wait in line, blocking or as a future, for
+ * at most {@code maxWaitMillis}, then fail with ConcurrencyLimitExceededException.
+ * The lock is never held while sending.
+ */
+public class ConcurrencyLimiter {
+
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 600;
+    // share of the gap to the latency-derived target closed per sample
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitMillis;
+    private final int maxQueued;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final long maxRetryAfterMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<Waiter> asyncWaiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private int syncWaiting;
+    private long pausedUntilNanos;
+    private boolean resumeScheduled;
+    private double shortRttNanos;
+    private double longRttNanos;
+    private long lastDecreaseNanos;
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long maxWaitMillis,
+                              int maxQueued, double latencyTolerance, double backoffRatio,
+                              long maxRetryAfterMillis, ScheduledExecutorService scheduler){
+        if (minLimit < 1 || minLimit > maxLimit){
+            throw new IllegalArgumentException("Limits of " + name + " must satisfy 1 <= min <= max");
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxWaitMillis = maxWaitMillis;
+        this.maxQueued = maxQueued;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+        this.scheduler = scheduler;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        long now = System.nanoTime();
+        this.pausedUntilNanos = now;
+        this.lastDecreaseNanos = now - TimeUnit.DAYS.toNanos(1);
+    }
+
+    //region permits
+    /**
+     * Blocks until a permit is free. Every successful call must be followed by
+     * exactly one onResponse, onFailure or release.
+     */
+    public void acquire() throws InterruptedException, ConcurrencyLimitExceededException{
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        lock.lock();
+        try {
+            if (asyncWaiters.isEmpty() && syncWaiting == 0 && canAcquire(System.nanoTime())){
+                inFlight++;
+                return;
+            }
+            if (asyncWaiters.size() + syncWaiting >= maxQueued){
+                throw reject(maxQueued + " requests already waiting");
+            }
+            syncWaiting++;
+            try {
+                while (true){
+                    long now = System.nanoTime();
+                    if (canAcquire(now)){
+                        inFlight++;
+                        return;
+                    }
+                    long remaining = deadline - now;
+                    if (remaining <= 0){
+                        throw reject("no permit within " + maxWaitMillis + " ms");
+                    }
+                    long paused = pausedUntilNanos - now;
+                    available.awaitNanos(paused > 0 ? Math.min(paused, remaining) : remaining);
+                }
+            } finally {
+                syncWaiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes once a permit is free, on the thread handing it back or the
+     * scheduler; same contract as acquire.
+     */
+    public CompletableFuture<Void> acquireAsync(){
+        final Waiter waiter = new Waiter();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (asyncWaiters.isEmpty() && syncWaiting == 0 && canAcquire(now)){
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (asyncWaiters.size() + syncWaiting >= maxQueued){
+                waiter.future.completeExceptionally(reject(maxQueued + " requests already waiting"));
+                return waiter.future;
+            }
+            asyncWaiters.add(waiter);
+            scheduleResume(now);
+            waiter.timeout = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire(waiter);
+                }
+            }, maxWaitMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            lock.unlock();
+        }
+        return waiter.future;
+    }
+
+    /**
+     * Hands the permit back after an answer, adjusting the limit from its
+     * status and round trip.
+     */
+    public void onResponse(long startNanos, Response response){
+        int code = response.code();
+        if (code == 429 || code == 503){
+            throttled.incrementAndGet();
+            complete(startNanos, true, false, retryAfterMillis(response.header("Retry-After")));
+        } else {
+            complete(startNanos, false, true, 0);
+        }
+    }
+
+    /**
+     * Hands the permit back after a failed send. Only timeouts say anything
+     * about load; other errors just free the permit.
+     */
+    public void onFailure(long startNanos, Throwable error){
+        complete(startNanos, error instanceof InterruptedIOException, false, 0);
+    }
+
+    /**
+     * Hands the permit back without a sample, e.g. when the request was never sent.
+     */
+    public void release(){
+        complete(0, false, false, 0);
+    }
+
+    private void complete(long startNanos, boolean overloaded, boolean sample, long retryAfterMillis){
+        List<Waiter> granted;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            int used = inFlight--;
+            if (overloaded){
+                decrease(now);
+                if (retryAfterMillis > 0){
+                    pause(now, TimeUnit.MILLISECONDS.toNanos(Math.min(retryAfterMillis, maxRetryAfterMillis)));
+                }
+            } else if (sample){
+                adjust(now - startNanos, used);
+            }
+            granted = grant(now);
+        } finally {
+            lock.unlock();
+        }
+        handOver(granted);
+    }
+
+    private boolean canAcquire(long now){
+        return now - pausedUntilNanos >= 0 && inFlight < (int) limit;
+    }
+
+    /**
+     * Takes permits for as many async waiters as the limit allows, leaving
+     * enough for the blocked threads, which are woken to take theirs.
+     */
+    private List<Waiter> grant(long now){
+        List<Waiter> granted = null;
+        while (!asyncWaiters.isEmpty() && canAcquire(now) && (int) limit - inFlight > syncWaiting){
+            inFlight++;
+            if (granted == null){
+                granted = new ArrayList<>();
+            }
+            granted.add(asyncWaiters.poll());
+        }
+        if (syncWaiting > 0 && canAcquire(now)){
+            available.signalAll();
+        }
+        return granted;
+    }
+
+    private void handOver(List<Waiter> granted){
+        if (granted == null){
+            return;
+        }
+        for (Waiter waiter : granted){
+            waiter.timeout.cancel(false);
+            // cancelled by the caller meanwhile: the permit is not used
+            if (!waiter.future.complete(null)){
+                release();
+            }
+        }
+    }
+
+    private void expire(Waiter waiter){
+        boolean removed;
+        lock.lock();
+        try {
+            removed = asyncWaiters.remove(waiter);
+        } finally {
+            lock.unlock();
+        }
+        if (removed){
+            waiter.future.completeExceptionally(reject("no permit within " + maxWaitMillis + " ms"));
+        }
+    }
+
+    /**
+     * While a Retry-After pause holds async waiters back, wakes them when it ends.
+     */
+    private void scheduleResume(long now){
+        long paused = pausedUntilNanos - now;
+        if (paused <= 0 || resumeScheduled || asyncWaiters.isEmpty()){
+            return;
+        }
+        resumeScheduled = true;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                List<Waiter> granted;
+                lock.lock();
+                try {
+                    resumeScheduled = false;
+                    long now = System.nanoTime();
+                    scheduleResume(now);
+                    granted = grant(now);
+                } finally {
+                    lock.unlock();
+                }
+                handOver(granted);
+            }
+        }, paused, TimeUnit.NANOSECONDS);
+    }
+
+    private ConcurrencyLimitExceededException reject(String reason){
+        rejected.incrementAndGet();
+        return new ConcurrencyLimitExceededException(name, reason);
+    }
+    //endregion
+
+    //region limit
+    private void decrease(long now){
+        // one cut per round trip: the answers of requests sent before it say nothing about the new limit
+        if (now - lastDecreaseNanos < (long) shortRttNanos){
+            return;
+        }
+        lastDecreaseNanos = now;
+        limit = Math.max(minLimit, limit * backoffRatio);
+        decreases.incrementAndGet();
+    }
+
+    private void pause(long now, long pauseNanos){
+        if (now + pauseNanos - pausedUntilNanos > 0){
+            pausedUntilNanos = now + pauseNanos;
+            pauses.incrementAndGet();
+            scheduleResume(now);
+        }
+    }
+
+    private void adjust(long rttNanos, int used){
+        if (shortRttNanos == 0){
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+        } else {
+            shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+            longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+        }
+        // latency dropped well below the baseline, e.g. after an incident: let the baseline follow
+        if (longRttNanos > 2 * shortRttNanos){
+            longRttNanos *= 0.95;
+        }
+        if (used < limit / 2){
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, latencyTolerance * longRttNanos / shortRttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit + (target - limit) * SMOOTHING));
+    }
+
+    /**
+     * Delay asked for by a Retry-After value, 0 if absent or unparseable.
+     */
+    static long retryAfterMillis(String value){
+        if (value == null){
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // not delta-seconds, try an HTTP date
+        }
+        try {
+            long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, at - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+    //endregion
+
+    //region gettersSetters
+    public String getName() {
+        return name;
+    }
+
+    public int getLimit(){
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight(){
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued(){
+        lock.lock();
+        try {
+            return asyncWaiters.size() + syncWaiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Time left of the current Retry-After pause, 0 if none.
+     */
+    public long getPausedMillis(){
+        lock.lock();
+        try {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(pausedUntilNanos - System.nanoTime()));
+        } finally {
+            lock.unlock();
+        }
+    }
+    //endregion
+
+    //region counters
+    /** 429/503 answers. */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /** Times the limit was cut. */
+    public long getDecreases() {
+        return decreases.get();
+    }
+
+    /** Retry-After pauses started or extended. */
+    public long getPauses() {
+        return pauses.get();
+    }
+
+    /** Requests failed with ConcurrencyLimitExceededException, never sent. */
+    public long getRejected() {
+        return rejected.get();
+    }
+    //endregion
+
+    public String toString(){
+        return "[name: " + name + ", limit: " + getLimit() + ", inFlight: " + getInFlight()
+                + ", queued: " + getQueued() + ", pausedMillis: " + getPausedMillis()
+                + ", throttled: " + throttled + ", decreases: " + decreases + ", pauses: " + pauses
+                + ", rejected: " + rejected + "]";
+    }
+
+    private static final class Waiter {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+    }
+}
@@ -0,0 +1,144 @@
+package com.poyntapi.resilience;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Separate adaptive concurrency budgets (see ConcurrencyLimiter), so that a
+ * burst of background reads cannot take the permits, or the blame for a 429,
+ * of payment calls:
+ *
+ *   payment     POSTs to limiter.payment.endpoints (createTransaction)
+ *   background  GETs of limiter.background.endpoints (catalogs, orders, devices)
+ *   default     everything else
+ *
+ * Off unless limiter.enabled=true. Configured from config.properties:
+ *
+ *   limiter.enabled=false
+ *   limiter.maxWaitMillis=10000
+ *   limiter.maxQueued=1000
+ *   limiter.latencyTolerance=1.5
+ *   limiter.backoffRatio=0.7
+ *   limiter.maxRetryAfterMillis=30000
+ *   limiter.payment.endpoints=/transactions
+ *   limiter.payment.initialLimit=20, .minLimit=4, .maxLimit=64
+ *   limiter.background.endpoints=/catalogs,/catalogs/full,/orders,/storeDevices
+ *   limiter.background.initialLimit=8, .minLimit=1, .maxLimit=32
+ *   limiter.default.initialLimit=16, .minLimit=2, .maxLimit=64
+ *
+ * All budgets share the client's dispatcher, so the sum of the maxLimits
+ * should stay within http.maxRequestsPerHost.
+ */
+public class ConcurrencyLimits {
+
+    public static final String PAYMENT = "payment";
+    public static final String BACKGROUND = "background";
+    public static final String DEFAULT = "default";
+
+    private final Map<String,ConcurrencyLimiter> limiters;
+    private final Set<String> paymentEndpoints;
+    private final Set<String> backgroundEndpoints;
+
+    public ConcurrencyLimits(Map<String,ConcurrencyLimiter> limiters, Set<String> paymentEndpoints,
+                             Set<String> backgroundEndpoints){
+        this.limiters = Collections.unmodifiableMap(new LinkedHashMap<>(limiters));
+        this.paymentEndpoints = Collections.unmodifiableSet(new HashSet<>(paymentEndpoints));
+        this.backgroundEndpoints = Collections.unmodifiableSet(new HashSet<>(backgroundEndpoints));
+    }
+
+    public static ConcurrencyLimits disabled(){
+        return new ConcurrencyLimits(Collections.<String,ConcurrencyLimiter>emptyMap(),
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+    }
+
+    /**
+     * @param scheduler runs the wait timeouts and Retry-After wake-ups
+     */
+    public static ConcurrencyLimits fromProperties(Properties prop, ScheduledExecutorService scheduler){
+        if (!Boolean.parseBoolean(prop.getProperty("limiter.enabled", "false").trim())){
+            return disabled();
+        }
+        Map<String,ConcurrencyLimiter> limiters = new LinkedHashMap<>();
+        limiters.put(PAYMENT, limiter(prop, PAYMENT, 20, 4, 64, scheduler));
+        limiters.put(BACKGROUND, limiter(prop, BACKGROUND, 8, 1, 32, scheduler));
+        limiters.put(DEFAULT, limiter(prop, DEFAULT, 16, 2, 64, scheduler));
+        return new ConcurrencyLimits(limiters,
+                endpoints(prop.getProperty("limiter.payment.endpoints", "/transactions")),
+                endpoints(prop.getProperty("limiter.background.endpoints", "/catalogs,/catalogs/full,/orders,/storeDevices")));
+    }
+
+    private static ConcurrencyLimiter limiter(Properties prop, String group, int initialLimit, int minLimit,
+                                              int maxLimit, ScheduledExecutorService scheduler){
+        String prefix = "limiter." + group + ".";
+        return new ConcurrencyLimiter(group,
+                Integer.parseInt(prop.getProperty(prefix + "initialLimit", String.valueOf(initialLimit)).trim()),
+                Integer.parseInt(prop.getProperty(prefix + "minLimit", String.valueOf(minLimit)).trim()),
+                Integer.parseInt(prop.getProperty(prefix + "maxLimit", String.valueOf(maxLimit)).trim()),
+                Long.parseLong(prop.getProperty("limiter.maxWaitMillis", "10000").trim()),
+                Integer.parseInt(prop.getProperty("limiter.maxQueued", "1000").trim()),
+                Double.parseDouble(prop.getProperty("limiter.latencyTolerance", "1.5").trim()),
+                Double.parseDouble(prop.getProperty("limiter.backoffRatio", "0.7").trim()),
+                Long.parseLong(prop.getProperty("limiter.maxRetryAfterMillis", "30000").trim()),
+                scheduler);
+    }
+
+    private static Set<String> endpoints(String list){
+        Set<String> endpoints = new HashSet<>();
+        if (!list.trim().isEmpty()){
+            endpoints.addAll(Arrays.asList(list.trim().split("\\s*,\\s*")));
+        }
+        return endpoints;
+    }
+
+    public boolean isEnabled(){
+        return !limiters.isEmpty();
+    }
+
+    /**
+     * The limiter a request counts against, or null when limiting is off.
+     */
+    public ConcurrencyLimiter forRequest(String endpoint, String method){
+        if (!isEnabled()){
+            return null;
+        }
+        if ("POST".equals(method) && paymentEndpoints.contains(endpoint)){
+            return limiters.get(PAYMENT);
+        }
+        if ("GET".equals(method) && backgroundEndpoints.contains(endpoint)){
+            return limiters.get(BACKGROUND);
+        }
+        return limiters.get(DEFAULT);
+    }
+
+    /**
+     * The limiter of a budget (PAYMENT, BACKGROUND, DEFAULT), or null when limiting is off.
+     */
+    public ConcurrencyLimiter getLimiter(String group){
+        return limiters.get(group);
+    }
+
+    public Map<String,ConcurrencyLimiter> getLimiters() {
+        return limiters;
+    }
+
+    /**
+     * Current limit per budget.
+     */
+    public Map<String,Integer> getLimits(){
+        Map<String,Integer> limits = new LinkedHashMap<>();
+        for (ConcurrencyLimiter limiter : limiters.values()){
+            limits.put(limiter.getName(), limiter.getLimit());
+        }
+        return limits;
+    }
+
+    public String toString(){
+        return isEnabled() ? limiters.values().toString() : "[disabled]";
+    }
+}
@@ -0,0 +1,114 @@
+package com.poyntapi.resilience;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged requests for idempotent GETs: if the first attempt has not answered
+ * within {@code delayMillis}, a second identical request is sent and whichever
+ * answers first wins; the other call is cancelled. Only endpoints listed in
+ * {@code endpoints} are hedged, and only when {@code delayMillis > 0}.
+ */
+public class HedgePolicy {
+
+    private final long delayMillis;
+    private final Set<String> endpoints;
+
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public HedgePolicy(long delayMillis, Set<String> endpoints) {
+        this.delayMillis = delayMillis;
+        this.endpoints = Collections.unmodifiableSet(new HashSet<>(endpoints));
+    }
+
+    public boolean appliesTo(String endpoint, String method){
+        return delayMillis > 0 && "GET".equals(method) && endpoints.contains(endpoint);
+    }
+
+    CompletableFuture<Response> send(final Call.Factory client, final Request request,
+                                     ScheduledExecutorService scheduler){
+        final Hedge hedge = new Hedge();
+        final Call primary = client.newCall(request);
+        hedge.launch(primary, false);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!hedge.result.isDone()){
+                    hedged.incrementAndGet();
+                    hedge.launch(client.newCall(request), true);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        return hedge.result;
+    }
+
+    /** Second requests sent because the first was slow. */
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /** Hedged requests whose second attempt answered first. */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    public String toString(){
+        return "[hedged: " + hedged + ", hedgeWins: " + hedgeWins + "]";
+    }
+
+    private final class Hedge {
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final AtomicInteger outstanding = new AtomicInteger();
+        final Set<Call> calls = Collections.synchronizedSet(new HashSet<Call>());
+
+        void launch(Call call, final boolean secondary){
+            outstanding.incrementAndGet();
+            calls.add(call);
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    // only fail once no attempt is left that could still succeed
+                    if (outstanding.decrementAndGet() == 0){
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    outstanding.decrementAndGet();
+                    if (result.complete(response)){
+                        if (secondary){
+                            hedgeWins.incrementAndGet();
+                        }
+                        cancelOthers(call);
+                    } else {
+                        response.close();
+                    }
+                }
+            });
+        }
+
+        void cancelOthers(Call winner){
+            synchronized (calls){
+                for (Call call : calls){
+                    if (call != winner){
+                        call.cancel();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.poyntapi.resilience;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries, per-endpoint circuit breakers, hedged GETs and adaptive concurrency
+ * limits (see ConcurrencyLimits, limiter.*) around the calls PoyntAPI and
+ * PoyntAsyncAPI make. Configured from config.properties:
+ *
+ *   resilience.maxRetries=2
+ *   resilience.baseBackoffMillis=100
+ *   resilience.maxBackoffMillis=2000
+ *   resilience.breakerFailureThreshold=5
+ *   resilience.breakerOpenMillis=10000
+ *   resilience.hedgeDelayMillis=0          (0 disables hedging)
+ *   resilience.hedgeEndpoints=/storeDevices,/catalogs,/catalogs/full,/stores,/businesses
+ *
+ * A request counts as failed for retries and the breaker when it could not be
+ * sent or got a 429/5xx answer. Other statuses are handed back to the caller.
+ * A request the limiter holds back for too long fails with
+ * ConcurrencyLimitExceededException; it is neither retried nor a breaker failure.
+ */
+public class ResiliencePolicy {
+
+    public interface Attempt {
+        Response call() throws Exception;
+    }
+
+    public interface AsyncAttempt {
+        CompletableFuture<Response> call();
+    }
+
+    private final RetryPolicy retryPolicy;
+    private final HedgePolicy hedgePolicy;
+    private final int breakerFailureThreshold;
+    private final long breakerOpenMillis;
+    private final Map<String,CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final ConcurrencyLimits limits;
+
+    // backoff delays of async retries, hedge and limiter timers
+    private final ScheduledExecutorService scheduler;
+
+    public ResiliencePolicy(RetryPolicy retryPolicy, HedgePolicy hedgePolicy, int breakerFailureThreshold,
+                            long breakerOpenMillis){
+        this(retryPolicy, hedgePolicy, breakerFailureThreshold, breakerOpenMillis, ConcurrencyLimits.disabled(),
+                newScheduler());
+    }
+
+    /**
+     * @param scheduler the one the limits were built with
+     */
+    public ResiliencePolicy(RetryPolicy retryPolicy, HedgePolicy hedgePolicy, int breakerFailureThreshold,
+                            long breakerOpenMillis, ConcurrencyLimits limits, ScheduledExecutorService scheduler){
+        this.retryPolicy = retryPolicy;
+        this.hedgePolicy = hedgePolicy;
+        this.breakerFailureThreshold = breakerFailureThreshold;
+        this.breakerOpenMillis = breakerOpenMillis;
+        this.limits = limits;
+        this.scheduler = scheduler;
+    }
+
+    public static ScheduledExecutorService newScheduler(){
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "poynt-resilience");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public static ResiliencePolicy fromProperties(Properties prop){
+        RetryPolicy retry = new RetryPolicy(
+                Integer.parseInt(prop.getProperty("resilience.maxRetries", "2").trim()),
+                Long.parseLong(prop.getProperty("resilience.baseBackoffMillis", "100").trim()),
+                Long.parseLong(prop.getProperty("resilience.maxBackoffMillis", "2000").trim()));
+        HedgePolicy hedge = new HedgePolicy(
+                Long.parseLong(prop.getProperty("resilience.hedgeDelayMillis", "0").trim()),
+                new HashSet<>(Arrays.asList(prop.getProperty("resilience.hedgeEndpoints",
+                        "/storeDevices,/catalogs,/catalogs/full,/stores,/businesses").trim().split("\\s*,\\s*"))));
+        ScheduledExecutorService scheduler = newScheduler();
+        return new ResiliencePolicy(retry, hedge,
+                Integer.parseInt(prop.getProperty("resilience.breakerFailureThreshold", "5").trim()),
+                Long.parseLong(prop.getProperty("resilience.breakerOpenMillis", "10000").trim()),
+                ConcurrencyLimits.fromProperties(prop, scheduler), scheduler);
+    }
+
+    /**
+     * Runs the attempt until it succeeds, the retries are used up or the
+     * endpoint's breaker is open. The last failing response, if any, is returned
+     * rather than thrown so the caller can report its status and body.
+     */
+    public Response execute(String endpoint, Attempt attempt) throws Exception{
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        for (int retry = 0; ; retry++){
+            breaker.acquirePermission();
+            Response response;
+            try {
+                response = attempt.call();
+            } catch (ConcurrencyLimitExceededException e) {
+                breaker.onIgnored();
+                throw e;
+            } catch (IOException e) {
+                breaker.onFailure();
+                if (!retryPolicy.canRetry(retry)){
+                    throw e;
+                }
+                Thread.sleep(retryPolicy.delayMillis(retry));
+                continue;
+            } catch (Exception e) {
+                breaker.onFailure();
+                throw e;
+            }
+            if (!retryPolicy.isRetryableStatus(response.code())){
+                breaker.onSuccess();
+                return response;
+            }
+            breaker.onFailure();
+            if (!retryPolicy.canRetry(retry)){
+                return response;
+            }
+            response.close();
+            Thread.sleep(retryPolicy.delayMillis(retry));
+        }
+    }
+
+    /**
+     * Async counterpart of execute; backoff delays are timers, not sleeping threads.
+     */
+    public CompletableFuture<Response> executeAsync(String endpoint, AsyncAttempt attempt){
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        attemptAsync(getCircuitBreaker(endpoint), attempt, 0, result);
+        return result;
+    }
+
+    private void attemptAsync(final CircuitBreaker breaker, final AsyncAttempt attempt, final int retry,
+                              final CompletableFuture<Response> result){
+        try {
+            breaker.acquirePermission();
+        } catch (CircuitBreakerOpenException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        CompletableFuture<Response> call;
+        try {
+            call = attempt.call();
+        } catch (RuntimeException e) {
+            breaker.onFailure();
+            result.completeExceptionally(e);
+            return;
+        }
+        call.whenComplete((response, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (cause instanceof ConcurrencyLimitExceededException){
+                breaker.onIgnored();
+                result.completeExceptionally(cause);
+                return;
+            }
+            if (cause == null && !retryPolicy.isRetryableStatus(response.code())){
+                breaker.onSuccess();
+                result.complete(response);
+                return;
+            }
+            breaker.onFailure();
+            boolean retryable = cause == null || cause instanceof IOException;
+            if (!retryable || !retryPolicy.canRetry(retry)){
+                if (cause != null){
+                    result.completeExceptionally(cause);
+                } else {
+                    result.complete(response);
+                }
+                return;
+            }
+            if (response != null){
+                response.close();
+            }
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    attemptAsync(breaker, attempt, retry + 1, result);
+                }
+            }, retryPolicy.delayMillis(retry), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * Sends one request, hedged if the policy applies to its endpoint, once its
+     * concurrency limiter has a permit for it.
+     */
+    public CompletableFuture<Response> sendAsync(final Call.Factory client, final String endpoint,
+                                                 final Request request){
+        final ConcurrencyLimiter limiter = limits.forRequest(endpoint, request.method());
+        if (limiter == null){
+            return sendUnlimitedAsync(client, endpoint, request);
+        }
+        return limiter.acquireAsync().thenCompose(permit -> {
+            final long start = System.nanoTime();
+            CompletableFuture<Response> sent;
+            try {
+                sent = sendUnlimitedAsync(client, endpoint, request);
+            } catch (RuntimeException e) {
+                limiter.release();
+                throw e;
+            }
+            return sent.whenComplete((response, error) -> {
+                if (response != null){
+                    limiter.onResponse(start, response);
+                } else {
+                    limiter.onFailure(start, error instanceof CompletionException ? error.getCause() : error);
+                }
+            });
+        });
+    }
+
+    private CompletableFuture<Response> sendUnlimitedAsync(Call.Factory client, String endpoint, Request request){
+        if (hedgePolicy.appliesTo(endpoint, request.method())){
+            return hedgePolicy.send(client, request, scheduler);
+        }
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Blocking single send; waits for a permit of the request's concurrency
+     * limiter and only hands off to the dispatcher when hedging.
+     */
+    public Response send(Call.Factory client, String endpoint, Request request) throws Exception{
+        ConcurrencyLimiter limiter = limits.forRequest(endpoint, request.method());
+        if (limiter == null){
+            return sendUnlimited(client, endpoint, request);
+        }
+        limiter.acquire();
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = sendUnlimited(client, endpoint, request);
+        } catch (Exception e) {
+            limiter.onFailure(start, e);
+            throw e;
+        }
+        limiter.onResponse(start, response);
+        return response;
+    }
+
+    private Response sendUnlimited(Call.Factory client, String endpoint, Request request) throws Exception{
+        if (!hedgePolicy.appliesTo(endpoint, request.method())){
+            return client.newCall(request).execute();
+        }
+        try {
+            return hedgePolicy.send(client, request, scheduler).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker(String endpoint){
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null){
+            breaker = breakers.computeIfAbsent(endpoint,
+                    e -> new CircuitBreaker(e, breakerFailureThreshold, breakerOpenMillis));
+        }
+        return breaker;
+    }
+
+    public Map<String,CircuitBreaker> getCircuitBreakers() {
+        return breakers;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    public ConcurrencyLimits getConcurrencyLimits() {
+        return limits;
+    }
+
+    public String toString(){
+        return "[retry: " + retryPolicy + ", hedge: " + hedgePolicy + ", breakers: " + breakers.values() + "]";
+    }
+}
@@ -0,0 +1,64 @@
+package com.poyntapi.resilience;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded exponential backoff with full jitter. Network errors and 429/5xx
+ * gateway-type responses are retried; POSTs keep their Poynt-Request-Id across
+ * attempts, so a retried payment is deduplicated by the server.
+ */
+public class RetryPolicy {
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public boolean isRetryableStatus(int code){
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * @param retry number of retries already made for this request
+     */
+    boolean canRetry(int retry){
+        if (retry < maxRetries){
+            retries.incrementAndGet();
+            return true;
+        }
+        exhausted.incrementAndGet();
+        return false;
+    }
+
+    long delayMillis(int retry){
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 20));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /** Retries sent. */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /** Requests that still failed after the last retry. */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+
+    public String toString(){
+        return "[retries: " + retries + ", exhausted: " + exhausted + "]";
+    }
+}
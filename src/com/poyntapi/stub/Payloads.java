@@ -0,0 +1,232 @@
+package com.poyntapi.stub;
+
+import co.poynt.api.model.*;
+import com.poyntapi.PoyntJson;
+import com.poyntapi.model.OrdersResponse;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Builds model objects of realistic sizes for the stub server and the benchmarks,
+ * and serializes them with the client's own mapper, so the JSON is exactly what
+ * the readers expect.
+ */
+public class Payloads {
+
+    public static final UUID BUSINESS_ID = UUID.fromString("469e957c-57a7-4d54-a72a-9e8f3296adad");
+    public static final UUID STORE_ID = UUID.fromString("c2855b41-1dd5-4ecc-8258-f0c89ae40338");
+    public static final String STORE_DEVICE_ID = "urn:tid:48c54303-6d51-39af-bdeb-4af53f621652";
+    public static final String CATALOG_ID = "8b2b1d6e-3c1a-4f0e-9d43-0d6f3c5b7a21";
+
+    public static Order order(int items) {
+        Order order = new Order();
+        order.setId(UUID.randomUUID());
+
+        ClientContext context = new ClientContext();
+        context.setBusinessId(BUSINESS_ID);
+        context.setStoreId(STORE_ID);
+        context.setStoreDeviceId(STORE_DEVICE_ID);
+        context.setSource(TransactionSource.MOBILE);
+        order.setContext(context);
+
+        List<OrderItem> orderItems = new ArrayList<>();
+        long subTotal = 0;
+        for (int i = 0; i < items; i++) {
+            OrderItem item = new OrderItem();
+            item.setName("Item " + i);
+            item.setQuantity(1.0f + (i % 3));
+            item.setUnitOfMeasure(UnitOfMeasure.EACH);
+            item.setSku("sku" + (10000 + i));
+            item.setUnitPrice(100L + i);
+            item.setStatus(OrderItemStatus.FULFILLED);
+            item.setTax(0L);
+            subTotal += (100L + i) * (long) (1 + (i % 3));
+            orderItems.add(item);
+        }
+        order.setItems(orderItems);
+
+        OrderStatuses statuses = new OrderStatuses();
+        statuses.setStatus(OrderStatus.OPENED);
+        order.setStatuses(statuses);
+
+        OrderAmounts amounts = new OrderAmounts();
+        amounts.setCurrency("USD");
+        amounts.setSubTotal(subTotal);
+        order.setAmounts(amounts);
+        order.setNotes("will pick up at 5pm");
+        return order;
+    }
+
+    public static OrdersResponse ordersResponse(int orders, int itemsPerOrder) {
+        List<Order> list = new ArrayList<>();
+        for (int i = 0; i < orders; i++) {
+            list.add(order(itemsPerOrder));
+        }
+        OrdersResponse response = new OrdersResponse();
+        response.setOrders(list);
+        response.setCount(orders);
+        return response;
+    }
+
+    public static Catalog catalog(int categories, int productsPerCategory) {
+        Catalog catalog = new Catalog();
+        catalog.setId(UUID.randomUUID());
+        catalog.setName("Main menu");
+        List<Category> categoryList = new ArrayList<>();
+        List<CatalogItem> allProducts = new ArrayList<>();
+        for (int c = 0; c < categories; c++) {
+            Category category = new Category();
+            category.setId(UUID.randomUUID());
+            category.setName("Category " + c);
+            List<CatalogItem> products = new ArrayList<>();
+            for (int p = 0; p < productsPerCategory; p++) {
+                CatalogItem item = new CatalogItem();
+                item.setId(UUID.randomUUID());
+                item.setDisplayOrder(p);
+                products.add(item);
+                allProducts.add(item);
+            }
+            category.setProducts(products);
+            categoryList.add(category);
+        }
+        catalog.setCategories(categoryList);
+        catalog.setProducts(allProducts);
+        return catalog;
+    }
+
+    /**
+     * The /full variant: every product with name, SKU and price, listed at the
+     * top level and again in its category, as the server does.
+     */
+    public static CatalogWithProduct catalogWithProduct(int categories, int productsPerCategory) {
+        CatalogWithProduct catalog = new CatalogWithProduct();
+        catalog.setId(UUID.fromString(CATALOG_ID));
+        catalog.setName("Main menu");
+        catalog.setBusinessId(BUSINESS_ID);
+        List<CategoryWithProduct> categoryList = new ArrayList<>();
+        List<CatalogItemWithProduct> allProducts = new ArrayList<>();
+        for (int c = 0; c < categories; c++) {
+            CategoryWithProduct category = new CategoryWithProduct();
+            category.setId(UUID.randomUUID());
+            category.setName("Category " + c);
+            List<CatalogItemWithProduct> products = new ArrayList<>();
+            for (int p = 0; p < productsPerCategory; p++) {
+                int n = c * productsPerCategory + p;
+                Product product = new Product();
+                product.setId(UUID.randomUUID());
+                product.setName("Product " + n);
+                product.setSku("sku" + (10000 + n));
+                CurrencyAmount price = new CurrencyAmount();
+                price.setAmount(100L + n % 900);
+                price.setCurrency("USD");
+                product.setPrice(price);
+                product.setBusinessId(BUSINESS_ID);
+                CatalogItemWithProduct item = new CatalogItemWithProduct();
+                item.setProduct(product);
+                item.setDisplayOrder(p);
+                products.add(item);
+                allProducts.add(item);
+            }
+            category.setProducts(products);
+            categoryList.add(category);
+        }
+        catalog.setCategories(categoryList);
+        catalog.setProducts(allProducts);
+        return catalog;
+    }
+
+    public static Transaction transaction() {
+        Transaction transaction = new Transaction();
+        transaction.setAction(TransactionAction.AUTHORIZE);
+
+        FundingSource fs = new FundingSource();
+        fs.setType(FundingSourceType.CREDIT_DEBIT);
+        Card card = new Card();
+        card.setNumber("4111111111111111");
+        card.setExpirationMonth(12);
+        card.setExpirationYear(2020);
+        card.setCardHolderFirstName("John");
+        card.setCardHolderLastName("Smith");
+        fs.setCard(card);
+        FundingSourceEntryDetails entryDetails = new FundingSourceEntryDetails();
+        entryDetails.setCustomerPresenceStatus(CustomerPresenceStatus.ECOMMERCE);
+        entryDetails.setEntryMode(EntryMode.KEYED);
+        fs.setEntryDetails(entryDetails);
+        transaction.setFundingSource(fs);
+
+        TransactionReference reference = new TransactionReference();
+        reference.setType(TransactionReferenceType.CUSTOM);
+        reference.setCustomType("CapOneCustomRef");
+        reference.setId(UUID.randomUUID().toString());
+        List<TransactionReference> references = new ArrayList<>();
+        references.add(reference);
+        transaction.setReferences(references);
+
+        TransactionAmounts amounts = new TransactionAmounts();
+        amounts.setCurrency("USD");
+        amounts.setTransactionAmount(1000L);
+        amounts.setOrderAmount(1000L);
+        amounts.setTipAmount(0L);
+        transaction.setAmounts(amounts);
+
+        ClientContext context = new ClientContext();
+        context.setTransmissionAtLocal(Calendar.getInstance());
+        context.setBusinessId(BUSINESS_ID);
+        context.setStoreId(STORE_ID);
+        context.setStoreDeviceId(STORE_DEVICE_ID);
+        transaction.setContext(context);
+        return transaction;
+    }
+
+    public static List<StoreDevice> storeDevices(int count) {
+        List<StoreDevice> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StoreDevice device = new StoreDevice();
+            device.setDeviceId("urn:tid:" + UUID.randomUUID());
+            device.setCatalogId(CATALOG_ID);
+            device.setStatus(StoreDeviceStatus.ACTIVATED);
+            devices.add(device);
+        }
+        return devices;
+    }
+
+    public static Store store() {
+        Store store = new Store();
+        store.setId(STORE_ID);
+        Map<String,String> attributes = new HashMap<>();
+        attributes.put("purchaseAction", "SALE");
+        store.setAttributes(attributes);
+        return store;
+    }
+
+    public static Business business() {
+        Business business = new Business();
+        business.setId(BUSINESS_ID);
+        return business;
+    }
+
+    public static Customer customer() {
+        Customer customer = new Customer();
+        customer.setId(4242L);
+        customer.setFirstName("John");
+        customer.setLastName("Smith");
+        return customer;
+    }
+
+    public static Map<String,Object> token() {
+        Map<String,Object> token = new HashMap<>();
+        token.put("accessToken", "eyJhbGciOiJSUzI1NiJ9.benchmark." + UUID.randomUUID());
+        token.put("expiresIn", 86400);
+        token.put("tokenType", "BEARER");
+        return token;
+    }
+
+    public static byte[] json(Object value) throws Exception {
+        return PoyntJson.MAPPER.writeValueAsBytes(value);
+    }
+}
@@ -0,0 +1,378 @@
+package com.poyntapi.stub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Poynt cloud, answering every endpoint the client
+ * uses (/token, /stores, /storeDevices, /catalogs, /businesses/{id}/orders,
+ * /transactions, /customers, single orders and transactions by id, business
+ * lookup) with canned {@link Payloads}.
+ * Used by the load generator and the benchmarks; nothing leaves the machine.
+ * An /orders query by time (startAt=) is answered with ORDER_PAGES pages of 25
+ * orders, chained by rel=next links carrying startOffset.
+ *
+ *   stub.port=0                    (0 picks a free port)
+ *   stub.threads=16
+ *   stub.latencyMillis=0           (added to every response)
+ *   stub.latencyJitterMillis=0     (plus a uniform random 0..jitter)
+ *   stub.errorRate=0.0             (fraction of requests answered with errorStatus)
+ *   stub.errorStatus=503
+ *   stub.tls=false                 (https with a fresh self-signed certificate for 127.0.0.1;
+ *                                   clients trust it through HttpClientConfig.setTrust)
+ *
+ * Injected latency is a timer, not a sleeping handler thread, so a slow stub
+ * still accepts any number of concurrent requests. /token is never failed, so
+ * the client can always start.
+ */
+public class StubServer implements AutoCloseable {
+
+    private static final byte[] NOT_FOUND = "{\"code\":\"NOT_FOUND\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INJECTED_ERROR = "{\"code\":\"INJECTED_ERROR\"}".getBytes(StandardCharsets.UTF_8);
+    public static final int ORDER_PAGES = 4;
+    private static final int ORDERS_PER_PAGE = 25;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double errorRate;
+    private final int errorStatus;
+
+    private final byte[] token;
+    private final byte[] store;
+    private final byte[] storeDevices;
+    private final byte[] catalogs;
+    private final byte[] catalog;
+    private final byte[] catalogFull;
+    private final byte[] ordersResponse;
+    private final String ordersPage;
+    private final byte[] order;
+    private final byte[] transaction;
+    private final byte[] customer;
+    private final byte[] business;
+
+    // null unless tls
+    private final SSLContext clientSslContext;
+    private final X509TrustManager trustManager;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    public StubServer(int port, int threads, long latencyMillis, long latencyJitterMillis, double errorRate,
+                      int errorStatus) throws Exception{
+        this(port, threads, latencyMillis, latencyJitterMillis, errorRate, errorStatus, false);
+    }
+
+    public StubServer(int port, int threads, long latencyMillis, long latencyJitterMillis, double errorRate,
+                      int errorStatus, boolean tls) throws Exception{
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+
+        token = Payloads.json(Payloads.token());
+        store = Payloads.json(Payloads.store());
+        storeDevices = Payloads.json(Payloads.storeDevices(5));
+        catalogs = Payloads.json(Collections.singletonMap("catalogs",
+                Collections.singletonList(Payloads.catalog(20, 50))));
+        catalog = Payloads.json(Payloads.catalog(20, 50));
+        catalogFull = Payloads.json(Payloads.catalogWithProduct(20, 50));
+        ordersResponse = Payloads.json(Payloads.ordersResponse(ORDERS_PER_PAGE, 5));
+        ordersPage = new String(Payloads.json(Payloads.ordersResponse(ORDERS_PER_PAGE, 5).getOrders()),
+                StandardCharsets.UTF_8);
+        order = Payloads.json(Payloads.order(1));
+        transaction = Payloads.json(Payloads.transaction());
+        customer = Payloads.json(Payloads.customer());
+        business = Payloads.json(Payloads.business());
+
+        // without this, keep-alive connections hit Nagle + delayed ACK stalls of ~40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        if (tls){
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            KeyPair keyPair = generator.generateKeyPair();
+            X509Certificate certificate = selfSigned(keyPair);
+
+            KeyStore keys = KeyStore.getInstance(KeyStore.getDefaultType());
+            keys.load(null, null);
+            keys.setKeyEntry("stub", keyPair.getPrivate(), new char[0], new X509Certificate[]{certificate});
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keys, new char[0]);
+            SSLContext serverContext = SSLContext.getInstance("TLS");
+            serverContext.init(keyManagers.getKeyManagers(), null, null);
+
+            KeyStore trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+            trusted.load(null, null);
+            trusted.setCertificateEntry("stub", certificate);
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                    TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trusted);
+            trustManager = (X509TrustManager) trustManagers.getTrustManagers()[0];
+            clientSslContext = SSLContext.getInstance("TLS");
+            clientSslContext.init(null, new TrustManager[]{trustManager}, null);
+
+            HttpsServer https = HttpsServer.create(address, 1024);
+            https.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+            server = https;
+        } else {
+            clientSslContext = null;
+            trustManager = null;
+            server = HttpServer.create(address, 1024);
+        }
+        executor = Executors.newFixedThreadPool(threads, daemonThreads("poynt-stub"));
+        timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("poynt-stub-timer"));
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StubServer.this.handle(exchange);
+            }
+        });
+        server.start();
+    }
+
+    public static StubServer fromProperties(Properties prop) throws Exception{
+        return new StubServer(
+                Integer.parseInt(prop.getProperty("stub.port", "0").trim()),
+                Integer.parseInt(prop.getProperty("stub.threads", "16").trim()),
+                Long.parseLong(prop.getProperty("stub.latencyMillis", "0").trim()),
+                Long.parseLong(prop.getProperty("stub.latencyJitterMillis", "0").trim()),
+                Double.parseDouble(prop.getProperty("stub.errorRate", "0").trim()),
+                Integer.parseInt(prop.getProperty("stub.errorStatus", "503").trim()),
+                Boolean.parseBoolean(prop.getProperty("stub.tls", "false").trim()));
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException{
+        requests.incrementAndGet();
+        InputStream in = exchange.getRequestBody();
+        byte[] buf = new byte[4096];
+        while (in.read(buf) != -1) {
+            // drain so the connection can be reused
+        }
+
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        final int status;
+        final byte[] body;
+        if (!path.endsWith("/token") && errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate){
+            injectedErrors.incrementAndGet();
+            status = errorStatus;
+            body = INJECTED_ERROR;
+        } else {
+            byte[] routed = route(method, path, exchange.getRequestURI().getRawQuery());
+            status = routed == null ? 404 : 200;
+            body = routed == null ? NOT_FOUND : routed;
+        }
+
+        long delay = latencyMillis
+                + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+        if (delay <= 0){
+            respond(exchange, status, body);
+            return;
+        }
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    respond(exchange, status, body);
+                } catch (IOException e) {
+                    exchange.close();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private byte[] route(String method, String path, String query){
+        if ("POST".equals(method)){
+            if (path.endsWith("/token")) return token;
+            if (path.endsWith("/orders")) return order;
+            if (path.endsWith("/transactions")) return transaction;
+            if (path.endsWith("/customers")) return customer;
+            return null;
+        }
+        if (path.contains("/orders/")) return order;
+        if (path.contains("/transactions/")) return transaction;
+        if (path.endsWith("/storeDevices")) return storeDevices;
+        if (path.contains("/stores/")) return store;
+        if (path.endsWith("/catalogs")) return catalogs;
+        if (path.contains("/catalogs/")) return path.endsWith("/full") ? catalogFull : catalog;
+        if (path.endsWith("/orders")) return query != null && query.contains("startAt=")
+                ? pagedOrders(path, query) : ordersResponse;
+        // business lookup by ?storeDeviceId=
+        if (path.endsWith("/businesses/") || path.endsWith("/businesses")) return business;
+        return null;
+    }
+
+    /**
+     * Page startOffset / 25 of a time query, linking to the next one unless it is the last.
+     */
+    private byte[] pagedOrders(String path, String query){
+        int offset = 0;
+        StringBuilder next = new StringBuilder(path).append('?');
+        for (String param : query.split("&")){
+            if (param.startsWith("startOffset=")){
+                offset = Integer.parseInt(param.substring("startOffset=".length()));
+            } else {
+                next.append(param).append('&');
+            }
+        }
+        next.append("startOffset=").append(offset + ORDERS_PER_PAGE);
+        StringBuilder body = new StringBuilder("{");
+        if (offset + ORDERS_PER_PAGE < ORDER_PAGES * ORDERS_PER_PAGE){
+            body.append("\"links\":[{\"href\":\"").append(next)
+                    .append("\",\"rel\":\"next\",\"method\":\"GET\"}],");
+        }
+        body.append("\"orders\":").append(ordersPage).append(",\"count\":").append(ORDERS_PER_PAGE).append('}');
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException{
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Client configuration pointing at this stub, with ids matching the canned payloads.
+     */
+    public Properties clientProperties(File privateKeyFile){
+        Properties prop = new Properties();
+        prop.setProperty("apiEndpoint", getUrl());
+        prop.setProperty("applicationId", "urn:aid:stub");
+        prop.setProperty("privateKeyFile", privateKeyFile.getPath());
+        prop.setProperty("businessId", Payloads.BUSINESS_ID.toString());
+        prop.setProperty("storeId", Payloads.STORE_ID.toString());
+        prop.setProperty("storeDeviceId", Payloads.STORE_DEVICE_ID);
+        prop.setProperty("debug", "false");
+        return prop;
+    }
+
+    /**
+     * Writes a fresh 2048-bit RSA key pair as a PKCS#1 PEM, the format the
+     * Poynt developer portal hands out. The stub does not check JWT signatures,
+     * but the client still signs with it, so the real token path runs.
+     */
+    public static File writePrivateKey() throws Exception{
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        File file = File.createTempFile("poynt-stub", ".pem");
+        file.deleteOnExit();
+        JcaPEMWriter writer = new JcaPEMWriter(new FileWriter(file));
+        try {
+            writer.writeObject(keyPair);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * A year-long certificate for CN=127.0.0.1 with the IP as subject
+     * alternative name, so hostname verification passes.
+     */
+    private static X509Certificate selfSigned(KeyPair keyPair) throws Exception{
+        X500Name name = new X500Name("CN=127.0.0.1");
+        long now = System.currentTimeMillis();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name, BigInteger.valueOf(now),
+                new Date(now - 60000), new Date(now + 365L * 24 * 3600 * 1000), name, keyPair.getPublic());
+        builder.addExtension(Extension.subjectAlternativeName, false,
+                new GeneralNames(new GeneralName(GeneralName.iPAddress, "127.0.0.1")));
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+    }
+
+    private static ThreadFactory daemonThreads(final String name){
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    public String getUrl(){
+        return (clientSslContext != null ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Trusts this stub's certificate; null without tls.
+     */
+    public SSLContext getClientSslContext() {
+        return clientSslContext;
+    }
+
+    public X509TrustManager getTrustManager() {
+        return trustManager;
+    }
+
+    //region counters
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+    //endregion
+
+    @Override
+    public void close() {
+        server.stop(0);
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    public String toString(){
+        return "[url: " + getUrl() + ", requests: " + requests + ", injectedErrors: " + injectedErrors + "]";
+    }
+}
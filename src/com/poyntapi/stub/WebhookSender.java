@@ -0,0 +1,226 @@
+package com.poyntapi.stub;
+
+import com.poyntapi.HttpClientConfig;
+import com.poyntapi.PoyntAPI;
+import com.poyntapi.PoyntJson;
+import com.poyntapi.model.OrdersResponse;
+import com.poyntapi.model.WebhookEvent;
+import com.poyntapi.webhook.WebhookReceiver;
+import com.poyntapi.webhook.WebhookSignature;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stand-in for Poynt's webhook delivery: posts signed ORDER_* and
+ * TRANSACTION_* events to a receiver from {@code concurrency} threads,
+ * redelivers an event answered with 503 after its Retry-After, and sends a
+ * fraction of the events twice, as Poynt may. Prints throughput and the
+ * answers by status.
+ *
+ *   java com.poyntapi.stub.WebhookSender [options]
+ *
+ *   --url=http://127.0.0.1:8080/webhooks
+ *   --secret=<hook secret>
+ *   --events=10000
+ *   --concurrency=16
+ *   --duplicates=0.05              fraction of events delivered a second time
+ *   --embedded                     start a StubServer and a WebhookReceiver that
+ *                                  resolves each order / transaction through it,
+ *                                  and print the receiver's counters at the end
+ *   --<key>=<value>                any other option is a configuration property
+ *                                  for the embedded receiver, e.g. --webhook.workers=4
+ */
+public class WebhookSender {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final WebhookSignature signature;
+    private final String businessId;
+
+    // answers by status / 100; index 0 for failed sends
+    private final AtomicLongArray answers = new AtomicLongArray(6);
+    private final AtomicLong redelivered = new AtomicLong();
+
+    public WebhookSender(String url, String secret, String businessId){
+        this.url = url;
+        this.signature = new WebhookSignature(secret);
+        this.businessId = businessId;
+        HttpClientConfig config = new HttpClientConfig();
+        config.setHttp2(false);
+        this.client = config.build();
+    }
+
+    public WebhookEvent event(String eventType, String resource, String resourceId){
+        WebhookEvent event = new WebhookEvent();
+        event.setId(UUID.randomUUID().toString());
+        event.setHookId("stub-hook");
+        event.setApplicationId("urn:aid:stub");
+        event.setBusinessId(businessId);
+        event.setEventType(eventType);
+        event.setResource(resource);
+        event.setResourceId(resourceId);
+        event.setCreatedAt(Instant.now().toString());
+        event.setLinks(Collections.singletonList(new OrdersResponse.HATEOS(
+                "/businesses/" + businessId + resource + "/" + resourceId, "resource", "GET")));
+        return event;
+    }
+
+    /**
+     * Posts the event until it is answered with something other than 503.
+     *
+     * @return the final status, or -1 if it could not be sent
+     */
+    public int send(WebhookEvent event) throws Exception{
+        byte[] body = PoyntJson.MAPPER.writeValueAsBytes(event);
+        Request request = new Request.Builder().url(url)
+                .header(WebhookSignature.HEADER, signature.sign(body, body.length))
+                .post(RequestBody.create(JSON, body))
+                .build();
+        for (int attempt = 1; ; attempt++){
+            int status;
+            long retryAfterMillis = 1000;
+            try (Response response = client.newCall(request).execute()) {
+                status = response.code();
+                String retryAfter = response.header("Retry-After");
+                if (retryAfter != null){
+                    retryAfterMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+                }
+            } catch (Exception e) {
+                answers.incrementAndGet(0);
+                return -1;
+            }
+            if (status != 503 || attempt == MAX_ATTEMPTS){
+                answers.incrementAndGet(Math.min(status / 100, 5));
+                return status;
+            }
+            redelivered.incrementAndGet();
+            Thread.sleep(retryAfterMillis);
+        }
+    }
+
+    /**
+     * Sends {@code events} events from {@code concurrency} threads and waits for all of them.
+     */
+    public void run(final long events, int concurrency, final double duplicates) throws Exception{
+        final AtomicLong next = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++){
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (next.getAndIncrement() < events){
+                            boolean order = ThreadLocalRandom.current().nextBoolean();
+                            WebhookEvent event = order
+                                    ? event("ORDER_UPDATED", "/orders", UUID.randomUUID().toString())
+                                    : event("TRANSACTION_AUTHORIZED", "/transactions", UUID.randomUUID().toString());
+                            send(event);
+                            if (ThreadLocalRandom.current().nextDouble() < duplicates){
+                                send(event);
+                            }
+                        }
+                    } catch (Exception e) {
+                        answers.incrementAndGet(0);
+                    }
+                }
+            }, "poynt-webhook-sender-" + i);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads){
+            t.join();
+        }
+    }
+
+    public void close(){
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    public String toString(){
+        return "[2xx: " + answers.get(2) + ", 4xx: " + answers.get(4) + ", 5xx: " + answers.get(5)
+                + ", failed: " + answers.get(0) + ", redelivered: " + redelivered + "]";
+    }
+
+    public static void main(String[] args) throws Exception{
+        Properties prop = new Properties();
+        boolean embedded = false;
+        for (String arg : args){
+            if ("--embedded".equals(arg)){
+                embedded = true;
+            } else if (arg.startsWith("--") && arg.contains("=")){
+                prop.setProperty(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                System.err.println("usage: WebhookSender [--url=...] [--secret=...] [--events=10000]"
+                        + " [--concurrency=16] [--duplicates=0.05] [--embedded] [--<key>=<value>]");
+                System.exit(1);
+            }
+        }
+        long events = Long.parseLong(prop.getProperty("events", "10000"));
+        int concurrency = Integer.parseInt(prop.getProperty("concurrency", "16"));
+        double duplicates = Double.parseDouble(prop.getProperty("duplicates", "0.05"));
+        String secret = prop.getProperty("secret", embedded ? "stub-secret" : null);
+        if (secret == null){
+            System.err.println("--secret is required");
+            System.exit(1);
+        }
+
+        StubServer stub = null;
+        PoyntAPI api = null;
+        WebhookReceiver receiver = null;
+        final AtomicLong orders = new AtomicLong();
+        final AtomicLong transactions = new AtomicLong();
+        String url = prop.getProperty("url", "http://127.0.0.1:8080/webhooks");
+        if (embedded){
+            stub = StubServer.fromProperties(prop);
+            File key = StubServer.writePrivateKey();
+            Properties clientProp = stub.clientProperties(key);
+            clientProp.putAll(prop);
+            clientProp.setProperty("webhook.secret", secret);
+            clientProp.setProperty("webhook.host", "127.0.0.1");
+            clientProp.setProperty("webhook.port", prop.getProperty("webhook.port", "0"));
+            api = new PoyntAPI(clientProp);
+            receiver = WebhookReceiver.fromProperties(clientProp, api)
+                    .onOrder((event, order) -> orders.incrementAndGet())
+                    .onTransaction((event, transaction) -> transactions.incrementAndGet())
+                    .start();
+            url = "http://127.0.0.1:" + receiver.getPort() + clientProp.getProperty("webhook.path", "/webhooks");
+            System.out.println("receiver: " + url);
+        }
+
+        WebhookSender sender = new WebhookSender(url, secret, Payloads.BUSINESS_ID.toString());
+        long start = System.nanoTime();
+        sender.run(events, concurrency, duplicates);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("sent %d events in %.2fs, %.0f events/s %s%n", events, seconds, events / seconds, sender);
+        sender.close();
+
+        if (receiver != null){
+            // let the workers finish the queued events
+            receiver.close();
+            System.out.println("receiver: " + receiver + ", orders: " + orders + ", transactions: " + transactions
+                    + (receiver.getLastError() != null ? ", lastError: " + receiver.getLastError() : ""));
+            api.close();
+            stub.close();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.poyntapi.transport;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Apache HttpClient 4.5 transport, built by HttpClientConfig with a pooling
+ * connection manager (http.maxRequests in total, http.maxRequestsPerHost per
+ * host), stale-connection checks after 2 s of inactivity, idle connections
+ * closed after http.keepAliveMillis, and automatic retries off since
+ * ResiliencePolicy does its own. HTTP/1.1 only; http.http2 does not apply.
+ *
+ * Each Call converts the OkHttp Request, runs the OkHttp application
+ * interceptors around the exchange, and hands back the response body as a
+ * stream: closing it returns the connection to the pool. Enqueued calls run on
+ * {@code executor}, one thread per call in flight; beyond the per-host limit
+ * they wait for a pooled connection on that thread.
+ */
+public final class ApacheHttpTransport implements HttpTransport {
+
+    private final CloseableHttpClient client;
+    private final PoolingHttpClientConnectionManager connections;
+    private final List<Interceptor> interceptors;
+    private final ExecutorService executor;
+    // false for transports from withExecutor, which share the parent's client
+    private final boolean ownsClient;
+
+    public ApacheHttpTransport(CloseableHttpClient client, PoolingHttpClientConnectionManager connections,
+                               List<Interceptor> interceptors, ExecutorService executor){
+        this(client, connections, interceptors, executor, true);
+    }
+
+    private ApacheHttpTransport(CloseableHttpClient client, PoolingHttpClientConnectionManager connections,
+                                List<Interceptor> interceptors, ExecutorService executor, boolean ownsClient){
+        this.client = client;
+        this.connections = connections;
+        this.interceptors = Collections.unmodifiableList(new ArrayList<>(interceptors));
+        this.executor = executor;
+        this.ownsClient = ownsClient;
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        return new ApacheCall(request);
+    }
+
+    @Override
+    public String getName() {
+        return "apache";
+    }
+
+    @Override
+    public ExecutorService executorService() {
+        return executor;
+    }
+
+    /**
+     * The per-host bound stays the shared pool's http.maxRequestsPerHost.
+     */
+    @Override
+    public HttpTransport withExecutor(ExecutorService executor, int maxRequestsPerHost) {
+        return new ApacheHttpTransport(client, connections, interceptors, executor, false);
+    }
+
+    @Override
+    public int getConnectionCount() {
+        PoolStats stats = connections.getTotalStats();
+        return stats.getLeased() + stats.getAvailable();
+    }
+
+    @Override
+    public void close() {
+        if (!ownsClient){
+            return;
+        }
+        executor.shutdown();
+        try {
+            client.close();
+        } catch (IOException e) {
+            // closing sockets; nothing left to do about it
+        }
+    }
+
+    public String toString(){
+        return "[transport: apache, connections: " + getConnectionCount() + "]";
+    }
+
+    private Response exchange(ApacheCall call, Request request) throws IOException{
+        RequestBuilder builder = RequestBuilder.create(request.method()).setUri(request.url().uri());
+        for (int i = 0; i < request.headers().size(); i++){
+            String name = request.headers().name(i);
+            // set by HttpClient from the entity
+            if (!"Content-Length".equalsIgnoreCase(name) && !"Transfer-Encoding".equalsIgnoreCase(name)){
+                builder.addHeader(name, request.headers().value(i));
+            }
+        }
+        RequestBody body = request.body();
+        if (body != null){
+            Buffer buffer = new Buffer();
+            body.writeTo(buffer);
+            MediaType type = body.contentType();
+            builder.setEntity(new ByteArrayEntity(buffer.readByteArray(),
+                    type == null ? null : ContentType.parse(type.toString())));
+        }
+        HttpUriRequest apacheRequest = builder.build();
+        if (!call.start(apacheRequest)){
+            throw new IOException("Canceled");
+        }
+
+        long sentAt = System.currentTimeMillis();
+        CloseableHttpResponse apacheResponse;
+        try {
+            apacheResponse = client.execute(apacheRequest);
+        } catch (IOException | RuntimeException e) {
+            // an abort can surface as either, depending on where the exchange was
+            if (call.isCanceled()){
+                throw new IOException("Canceled", e);
+            }
+            throw e;
+        }
+        Response.Builder response = new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(apacheResponse.getStatusLine().getStatusCode())
+                .message(String.valueOf(apacheResponse.getStatusLine().getReasonPhrase()))
+                .sentRequestAtMillis(sentAt)
+                .receivedResponseAtMillis(System.currentTimeMillis());
+        for (Header header : apacheResponse.getAllHeaders()){
+            response.addHeader(header.getName(), header.getValue());
+        }
+        HttpEntity entity = apacheResponse.getEntity();
+        if (entity == null){
+            apacheResponse.close();
+            return response.body(ResponseBody.create(null, 0, new Buffer())).build();
+        }
+        Header contentType = entity.getContentType();
+        // closing the stream consumes the rest of the body and releases the connection
+        BufferedSource source = Okio.buffer(Okio.source(entity.getContent()));
+        return response.body(ResponseBody.create(contentType == null ? null : MediaType.parse(contentType.getValue()),
+                entity.getContentLength(), source)).build();
+    }
+
+    private final class ApacheCall implements Call {
+        private final Request request;
+        private final AtomicBoolean executed = new AtomicBoolean();
+        private volatile boolean canceled;
+        private HttpUriRequest inFlight;
+
+        ApacheCall(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            if (!executed.compareAndSet(false, true)){
+                throw new IllegalStateException("Already Executed");
+            }
+            return new Chain(0, request).proceed(request);
+        }
+
+        @Override
+        public void enqueue(final Callback callback) {
+            if (!executed.compareAndSet(false, true)){
+                throw new IllegalStateException("Already Executed");
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Response response;
+                        try {
+                            response = new Chain(0, request).proceed(request);
+                        } catch (IOException e) {
+                            callback.onFailure(ApacheCall.this, e);
+                            return;
+                        } catch (RuntimeException e) {
+                            // the callback is the only way out of this thread; don't leave it waiting
+                            callback.onFailure(ApacheCall.this, new IOException(e.toString(), e));
+                            return;
+                        }
+                        try {
+                            callback.onResponse(ApacheCall.this, response);
+                        } catch (IOException e) {
+                            response.close();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                InterruptedIOException rejected = new InterruptedIOException("executor rejected");
+                rejected.initCause(e);
+                callback.onFailure(this, rejected);
+            }
+        }
+
+        /**
+         * Records the request being sent; false if the call was canceled first.
+         */
+        synchronized boolean start(HttpUriRequest apacheRequest){
+            inFlight = apacheRequest;
+            return !canceled;
+        }
+
+        @Override
+        public void cancel() {
+            HttpUriRequest running;
+            synchronized (this){
+                canceled = true;
+                running = inFlight;
+            }
+            if (running != null){
+                running.abort();
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return executed.get();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public Call clone() {
+            return new ApacheCall(request);
+        }
+
+        /**
+         * The application interceptors, then the exchange.
+         */
+        private final class Chain implements Interceptor.Chain {
+            private final int index;
+            private final Request request;
+
+            Chain(int index, Request request) {
+                this.index = index;
+                this.request = request;
+            }
+
+            @Override
+            public Request request() {
+                return request;
+            }
+
+            @Override
+            public Response proceed(Request request) throws IOException {
+                if (index < interceptors.size()){
+                    return interceptors.get(index).intercept(new Chain(index + 1, request));
+                }
+                return exchange(ApacheCall.this, request);
+            }
+
+            @Override
+            public Connection connection() {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.poyntapi.transport;
+
+import okhttp3.Call;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * What every Poynt request goes through: the /token call, the blocking and the
+ * async API, retries and hedges. Requests and responses are OkHttp's
+ * Request/Response values, which the rest of the client (resilience, metrics,
+ * coalescing) already works with; only the engine that moves the bytes is
+ * pluggable. Selected with http.transport, see {@link com.poyntapi.HttpClientConfig}:
+ *
+ *   okhttp   {@link OkHttpTransport}, HTTP/2 when negotiated, else HTTP/1.1
+ *   apache   {@link ApacheHttpTransport}, Apache HttpClient 4.5, HTTP/1.1
+ *
+ * OkHttp application interceptors (e.g. MetricsInterceptor) run on both.
+ */
+public interface HttpTransport extends Call.Factory, AutoCloseable {
+
+    /** "okhttp" or "apache". */
+    String getName();
+
+    /**
+     * Runs enqueued calls; also used for the async token refresh.
+     */
+    ExecutorService executorService();
+
+    /**
+     * A transport sharing this one's connections whose enqueued calls run on the
+     * given executor, at most {@code maxRequestsPerHost} per host at a time.
+     * Closing it leaves both the executor and the connections alone.
+     */
+    HttpTransport withExecutor(ExecutorService executor, int maxRequestsPerHost);
+
+    /** Open connections, in use or idle. */
+    int getConnectionCount();
+
+    /**
+     * Stops the executor of enqueued calls and closes idle connections.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,57 @@
+package com.poyntapi.transport;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Plain sockets with TCP_NODELAY on, for OkHttp, which leaves Nagle's algorithm
+ * enabled (Apache HttpClient is configured with tcpNoDelay instead). With Nagle
+ * on, the small records of a TLS 1.2 handshake wait for the server's delayed
+ * ACK, adding about 40 ms to every new HTTPS connection. TLS sockets are
+ * layered over these, so they inherit the option.
+ */
+public final class NoDelaySocketFactory extends SocketFactory {
+
+    private final SocketFactory delegate;
+
+    public NoDelaySocketFactory(){
+        this(SocketFactory.getDefault());
+    }
+
+    public NoDelaySocketFactory(SocketFactory delegate){
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return noDelay(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return noDelay(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return noDelay(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return noDelay(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private static Socket noDelay(Socket socket) throws IOException{
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+}
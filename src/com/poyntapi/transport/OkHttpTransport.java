@@ -0,0 +1,73 @@
+package com.poyntapi.transport;
+
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * OkHttp 3 transport: the tuned client HttpClientConfig builds (pool size,
+ * keep-alive, HTTP/2 over ALPN, timeouts). Enqueued calls go through the
+ * client's dispatcher, which bounds them per host.
+ */
+public final class OkHttpTransport implements HttpTransport {
+
+    private final OkHttpClient client;
+    // false for transports from withExecutor, which share the parent's pool
+    private final boolean ownsClient;
+
+    public OkHttpTransport(OkHttpClient client){
+        this(client, true);
+    }
+
+    private OkHttpTransport(OkHttpClient client, boolean ownsClient){
+        this.client = client;
+        this.ownsClient = ownsClient;
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        return client.newCall(request);
+    }
+
+    @Override
+    public String getName() {
+        return "okhttp";
+    }
+
+    @Override
+    public ExecutorService executorService() {
+        return client.dispatcher().executorService();
+    }
+
+    @Override
+    public HttpTransport withExecutor(ExecutorService executor, int maxRequestsPerHost) {
+        Dispatcher dispatcher = new Dispatcher(executor);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        dispatcher.setMaxRequests(Math.max(maxRequestsPerHost, dispatcher.getMaxRequests()));
+        return new OkHttpTransport(client.newBuilder().dispatcher(dispatcher).build(), false);
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return client.connectionPool().connectionCount();
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    @Override
+    public void close() {
+        if (ownsClient){
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    public String toString(){
+        return "[transport: okhttp, connections: " + getConnectionCount() + "]";
+    }
+}
@@ -0,0 +1,444 @@
+package com.poyntapi.webhook;
+
+import co.poynt.api.model.Order;
+import co.poynt.api.model.Transaction;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.poyntapi.PoyntAPI;
+import com.poyntapi.PoyntJson;
+import com.poyntapi.model.WebhookEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Embeddable receiver for Poynt webhook callbacks, so order and transaction
+ * changes are pushed to the application instead of polled for:
+ *
+ *   WebhookReceiver receiver = WebhookReceiver.fromProperties(prop, api);
+ *   receiver.onOrder((event, order) -> ...);          ORDER_* events, order fetched through api
+ *   receiver.on("TRANSACTION_REFUNDED", event -> ...);
+ *   receiver.start();
+ *
+ * The HTTP side only reads the body, checks its signature (see
+ * WebhookSignature), decodes it into a WebhookEvent, drops event ids it has
+ * already seen and queues the event for the worker pool, then answers at once:
+ *
+ *   200  accepted, or a duplicate of an accepted event
+ *   401  signature missing or wrong
+ *   400  not a webhook event
+ *   413  body over webhook.maxBodyBytes
+ *   503  worker queue full; the event is forgotten, so Poynt's redelivery is accepted
+ *
+ * Handlers run on the workers, never on the HTTP threads, so a slow handler
+ * or resource fetch backs up the bounded queue and then turns into 503s
+ * rather than into unbounded memory or stalled connections. A handler that
+ * throws is counted; the event is not delivered to it again.
+ *
+ * Served over plain HTTP on the JDK's built-in server, like StubServer; Poynt
+ * delivers to https URLs only, so run it behind the TLS-terminating proxy or
+ * load balancer in front of the application. Configured from config.properties:
+ *
+ *   webhook.secret                   required, the secret the hook was registered with
+ *   webhook.signatureAlgorithm=HmacSHA1
+ *   webhook.host=0.0.0.0
+ *   webhook.port=8080                (0 picks a free port)
+ *   webhook.path=/webhooks
+ *   webhook.threads=4                HTTP threads
+ *   webhook.workers=16               handler threads
+ *   webhook.queueCapacity=10000      events waiting for a worker
+ *   webhook.dedupCapacity=100000     most recent event ids remembered
+ *   webhook.maxBodyBytes=65536
+ */
+public class WebhookReceiver implements AutoCloseable {
+
+    private static final ObjectReader EVENT_READER = PoyntJson.MAPPER.readerFor(WebhookEvent.class);
+    private static final String ANY = "*";
+
+    private final WebhookSignature signature;
+    // null: onOrder / onTransaction are not available
+    private final PoyntAPI api;
+    private final int maxBodyBytes;
+    private final HttpServer server;
+    private final ExecutorService httpThreads;
+    private final ThreadPoolExecutor workers;
+    private final RecentIds seen;
+
+    private final List<Registration<WebhookEvent>> eventHandlers = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<WebhookEvent,Order>> orderHandlers = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<WebhookEvent,Transaction>> transactionHandlers = new CopyOnWriteArrayList<>();
+
+    private volatile String lastError;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong badSignatures = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public WebhookReceiver(InetSocketAddress address, String path, WebhookSignature signature, PoyntAPI api,
+                           int threads, int workers, int queueCapacity, int dedupCapacity, int maxBodyBytes)
+            throws IOException{
+        this.signature = signature;
+        this.api = api;
+        this.maxBodyBytes = maxBodyBytes;
+        this.seen = new RecentIds(dedupCapacity);
+        this.workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), daemonThreads("poynt-webhook-worker"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.httpThreads = Executors.newFixedThreadPool(threads, daemonThreads("poynt-webhook-http"));
+        this.server = HttpServer.create(address, 1024);
+        server.setExecutor(httpThreads);
+        server.createContext(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange, receive(exchange));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param api resolves the orders and transactions of onOrder / onTransaction
+     *            handlers; may be null if only raw events are handled
+     */
+    public static WebhookReceiver fromProperties(Properties prop, PoyntAPI api) throws IOException{
+        String secret = prop.getProperty("webhook.secret");
+        if (secret == null || secret.trim().isEmpty()){
+            throw new IllegalArgumentException("webhook.secret is required to verify callbacks");
+        }
+        return new WebhookReceiver(
+                new InetSocketAddress(prop.getProperty("webhook.host", "0.0.0.0").trim(),
+                        Integer.parseInt(prop.getProperty("webhook.port", "8080").trim())),
+                prop.getProperty("webhook.path", "/webhooks").trim(),
+                new WebhookSignature(secret.trim(), prop.getProperty("webhook.signatureAlgorithm",
+                        WebhookSignature.DEFAULT_ALGORITHM).trim()),
+                api,
+                Integer.parseInt(prop.getProperty("webhook.threads", "4").trim()),
+                Integer.parseInt(prop.getProperty("webhook.workers", "16").trim()),
+                Integer.parseInt(prop.getProperty("webhook.queueCapacity", "10000").trim()),
+                Integer.parseInt(prop.getProperty("webhook.dedupCapacity", "100000").trim()),
+                Integer.parseInt(prop.getProperty("webhook.maxBodyBytes", "65536").trim()));
+    }
+
+    /**
+     * Handles events of the given type, or of every type for "*".
+     */
+    public WebhookReceiver on(String eventType, Consumer<WebhookEvent> handler){
+        eventHandlers.add(new Registration<>(eventType, handler));
+        return this;
+    }
+
+    /**
+     * Handles ORDER_* events with the order as it is after the change, fetched
+     * on the worker thread.
+     */
+    public WebhookReceiver onOrder(BiConsumer<WebhookEvent,Order> handler){
+        requireApi();
+        orderHandlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Handles TRANSACTION_* events with the transaction as it is after the
+     * change, fetched on the worker thread.
+     */
+    public WebhookReceiver onTransaction(BiConsumer<WebhookEvent,Transaction> handler){
+        requireApi();
+        transactionHandlers.add(handler);
+        return this;
+    }
+
+    private void requireApi(){
+        if (api == null){
+            throw new IllegalStateException("Resolving orders and transactions needs the PoyntAPI of the business");
+        }
+    }
+
+    public WebhookReceiver start(){
+        server.start();
+        return this;
+    }
+
+    /**
+     * Status code for the callback; everything after the 200 happens on the workers.
+     */
+    private int receive(HttpExchange exchange) throws IOException{
+        received.incrementAndGet();
+        if (!"POST".equals(exchange.getRequestMethod())){
+            malformed.incrementAndGet();
+            return 405;
+        }
+        byte[] body = readBody(exchange);
+        if (body == null){
+            malformed.incrementAndGet();
+            return 413;
+        }
+        if (!signature.verify(body, body.length, exchange.getRequestHeaders().getFirst(WebhookSignature.HEADER))){
+            badSignatures.incrementAndGet();
+            return 401;
+        }
+        final WebhookEvent event;
+        try {
+            event = EVENT_READER.readValue(body);
+        } catch (IOException e) {
+            malformed.incrementAndGet();
+            return 400;
+        }
+        if (event == null || event.getId() == null){
+            malformed.incrementAndGet();
+            return 400;
+        }
+        if (!seen.add(event.getId())){
+            duplicates.incrementAndGet();
+            return 200;
+        }
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(event);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            seen.remove(event.getId());
+            overloaded.incrementAndGet();
+            return 503;
+        }
+        accepted.incrementAndGet();
+        return 200;
+    }
+
+    private static int contentLength(HttpExchange exchange){
+        String value = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            // chunked bodies start small and grow as needed
+            return value == null ? 4096 : Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return 4096;
+        }
+    }
+
+    /**
+     * The whole body, or null once it is known to be over webhook.maxBodyBytes.
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException{
+        byte[] body = new byte[Math.min(maxBodyBytes + 1, contentLength(exchange))];
+        int length = 0;
+        InputStream in = exchange.getRequestBody();
+        while (true){
+            if (length == body.length){
+                if (length > maxBodyBytes){
+                    return null;
+                }
+                body = Arrays.copyOf(body, Math.min(maxBodyBytes + 1, Math.max(4096, length * 2)));
+            }
+            int read = in.read(body, length, body.length - length);
+            if (read == -1){
+                return length == body.length ? body : Arrays.copyOf(body, length);
+            }
+            length += read;
+        }
+    }
+
+    private void dispatch(WebhookEvent event){
+        String type = event.getEventType() == null ? "" : event.getEventType();
+        for (Registration<WebhookEvent> registration : eventHandlers){
+            if (ANY.equals(registration.eventType) || registration.eventType.equals(type)){
+                handle(registration.handler, event);
+            }
+        }
+        try {
+            if (type.startsWith("ORDER_") && !orderHandlers.isEmpty()){
+                Order order = api.getOrder(event.getResourceId());
+                for (BiConsumer<WebhookEvent,Order> handler : orderHandlers){
+                    handle(handler, event, order);
+                }
+            } else if (type.startsWith("TRANSACTION_") && !transactionHandlers.isEmpty()){
+                Transaction transaction = api.getTransaction(event.getResourceId());
+                for (BiConsumer<WebhookEvent,Transaction> handler : transactionHandlers){
+                    handle(handler, event, transaction);
+                }
+            }
+        } catch (Exception e) {
+            // the fetch failed; none of the typed handlers saw the event
+            failed.incrementAndGet();
+            lastError = event.getId() + ": " + e;
+        }
+    }
+
+    private <T> void handle(Consumer<T> handler, T event){
+        try {
+            handler.accept(event);
+            handled.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            lastError = e.toString();
+        }
+    }
+
+    private <T> void handle(BiConsumer<WebhookEvent,T> handler, WebhookEvent event, T resource){
+        try {
+            handler.accept(event, resource);
+            handled.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            lastError = e.toString();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException{
+        if (status == 503){
+            exchange.getResponseHeaders().add("Retry-After", "1");
+        }
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix){
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    //region counters
+    public long getReceived() {
+        return received.get();
+    }
+
+    /** Events queued for the handlers, each id once. */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /** Redeliveries of an event id accepted before; answered 200 and not handled again. */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public long getBadSignatures() {
+        return badSignatures.get();
+    }
+
+    /** Callbacks answered 400, 405 or 413. */
+    public long getMalformed() {
+        return malformed.get();
+    }
+
+    /** Callbacks answered 503 because the worker queue was full. */
+    public long getOverloaded() {
+        return overloaded.get();
+    }
+
+    /** Handler invocations that returned normally. */
+    public long getHandled() {
+        return handled.get();
+    }
+
+    /** Handler invocations that threw, and resource fetches that failed. */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** Events waiting for a worker. */
+    public int getQueued(){
+        return workers.getQueue().size();
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+    //endregion
+
+    /**
+     * Stops accepting callbacks, then lets the workers finish the queued events.
+     */
+    @Override
+    public void close(){
+        server.stop(0);
+        httpThreads.shutdown();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String toString(){
+        return "[port: " + getPort() + ", received: " + received + ", accepted: " + accepted
+                + ", duplicates: " + duplicates + ", badSignatures: " + badSignatures + ", malformed: " + malformed
+                + ", overloaded: " + overloaded + ", handled: " + handled + ", failed: " + failed
+                + ", queued: " + getQueued() + "]";
+    }
+
+    private static final class Registration<T> {
+        final String eventType;
+        final Consumer<T> handler;
+
+        Registration(String eventType, Consumer<T> handler) {
+            this.eventType = eventType;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * The last {@code capacity} event ids, oldest forgotten first. Poynt
+     * redelivers within minutes, so a window of recent ids is enough.
+     */
+    private static final class RecentIds {
+        private final Map<String,Boolean> ids;
+
+        RecentIds(final int capacity) {
+            this.ids = new LinkedHashMap<String,Boolean>(Math.min(capacity, 1 << 16), 0.75f) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized boolean add(String id){
+            return ids.put(id, Boolean.TRUE) == null;
+        }
+
+        synchronized void remove(String id){
+            ids.remove(id);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.poyntapi.webhook;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Signature of a webhook body: Base64 of the HMAC of the raw body bytes under
+ * the secret registered with the hook, sent in the {@value #HEADER} header.
+ * Poynt signs with HmacSHA1. Mac instances are not thread-safe, so each thread
+ * keeps its own.
+ */
+public final class WebhookSignature {
+
+    public static final String HEADER = "poynt-webhook-signature";
+    public static final String DEFAULT_ALGORITHM = "HmacSHA1";
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+
+    public WebhookSignature(String secret){
+        this(secret, DEFAULT_ALGORITHM);
+    }
+
+    public WebhookSignature(String secret, final String algorithm){
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), algorithm);
+        this.macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance(algorithm);
+                    mac.init(key);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalArgumentException("Cannot sign with " + algorithm, e);
+                }
+            }
+        };
+        // fail at construction, not on the first callback
+        macs.get();
+    }
+
+    public String sign(byte[] body, int length){
+        Mac mac = macs.get();
+        mac.update(body, 0, length);
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+
+    /**
+     * Constant-time comparison; false for a missing or malformed signature.
+     */
+    public boolean verify(byte[] body, int length, String signature){
+        if (signature == null){
+            return false;
+        }
+        byte[] expected;
+        try {
+            expected = Base64.getDecoder().decode(signature.trim());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        Mac mac = macs.get();
+        mac.update(body, 0, length);
+        return MessageDigest.isEqual(mac.doFinal(), expected);
+    }
+}